@@ -2,8 +2,10 @@ package com.common.services.management;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = {"com.common.services", "com.common"})
+@EnableScheduling
 public class ManagementApplication {
 
 	public static void main(String[] args) {
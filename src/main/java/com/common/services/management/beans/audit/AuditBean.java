@@ -2,11 +2,16 @@ package com.common.services.management.beans.audit;
 
 import com.common.services.management.beans.audit.database.AuditDao;
 import com.common.services.management.beans.audit.database.AuditDaoImpl;
-import com.common.services.management.beans.audit.model.Table;
+import com.common.services.management.beans.audit.export.AuditTableWriter;
+import com.common.services.management.beans.audit.model.AuditCountMode;
+import com.common.services.management.beans.audit.model.metrics.LatencyPercentiles;
+import com.common.services.management.beans.audit.model.metrics.RequestMetrics;
 import com.common.services.management.beans.audit.model.statementsparameter.SQLStatementParameter;
 import com.common.services.management.beans.audit.model.users.ActiveUser;
+import com.common.services.management.beans.audit.model.users.SessionActivity;
 import com.common.services.management.beans.serv.exceptions.ServiceException;
 import com.common.services.management.beans.serv.resourcemanager.ResourceManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -15,7 +20,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
@@ -38,22 +46,84 @@ public class AuditBean
 
     @Autowired
     private ServiceException serviceException;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
     
+    /**
+     * Параметр длительности интервала активности сессий и сводки ответов
+     */
+    private static final String BUCKET = "bucket";
+
     @Value("${audit.list.page.size:50}")
     protected int pageSize;
+
+    /**
+     * Наибольшее количество интервалов в запросе активности сессий
+     */
+    @Value("${audit.activity.max-buckets:10000}")
+    private int maxActivityBuckets;
+
+    /**
+     * Наибольшее количество интервалов в запросе сводки ответов
+     */
+    @Value("${audit.metrics.max-buckets:10000}")
+    private int maxMetricsBuckets;
     
     /**
      * Выполнение запроса по данным из таблицы аудита с фильтрами
      * @param request запрос с frontend'а
      * @param pageNumber номер страницы
      * @param pageSize размер страницы
-     * @return json c результатом
+     * @param continuation токен продолжения
+     * @param count способ подсчета количества строк (none, estimate, exact)
+     * @param out поток вывода json c результатом
+     * @throws IOException ошибка записи
      */
-    public Table list(HttpServletRequest request, Integer pageNumber, Integer pageSize)
+    public void list(HttpServletRequest request, Integer pageNumber, Integer pageSize, String continuation,
+                     String count, OutputStream out) throws IOException
     {
-        return auditDao.list(getParameters(request),
+        auditDao.list(getParameters(request),
             pageNumber == null ? 0 : pageNumber,
-            pageSize == null ? this.pageSize : pageSize);
+            pageSize == null || pageSize <= 0 ? this.pageSize : pageSize,
+            continuation == null || continuation.isEmpty() ? null : continuation,
+            getCountMode(count),
+            new AuditTableWriter(out, jsonMapper));
+    }
+
+    /**
+     * Выгрузка данных из таблицы аудита с фильтрами по мере чтения из БД
+     * @param request запрос с frontend'а
+     * @param limit наибольшее количество строк, null - вся выборка
+     * @param out поток вывода json c результатом
+     * @throws IOException ошибка записи
+     */
+    public void exportList(HttpServletRequest request, Integer limit, OutputStream out) throws IOException
+    {
+        auditDao.exportList(getParameters(request), limit == null ? 0 : limit,
+            new AuditTableWriter(out, jsonMapper));
+    }
+
+    /**
+     * Определим способ подсчета количества строк, по умолчанию - точное количество
+     * @param count способ подсчета
+     * @return способ подсчета
+     */
+    private AuditCountMode getCountMode(String count)
+    {
+        if (count == null || count.isEmpty())
+        {
+            return AuditCountMode.EXACT;
+        }
+        try
+        {
+            return AuditCountMode.valueOf(count.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST,
+                ResourceManager.INVALID_PARAMETER_VALUE, count, AuditDaoImpl.COUNT);
+        }
     }
 
     /**
@@ -63,10 +133,9 @@ public class AuditBean
      */
     private Map<String, Object> getParameters(HttpServletRequest request)
     {
-        // Определим список параметров по умолчанию, если параметров не было передано, то выведется
-        // вся таблица audit
-        Map<String, Object> params = AuditDaoImpl.getSelectParameters();
-        // Переопределим параметры из запроса клиента
+        // В запрос попадут только фильтры по переданным параметрам, если параметров не было передано,
+        // то выведется вся таблица audit
+        Map<String, Object> params = new HashMap<>();
         request.getParameterMap().entrySet().forEach((p) -> {
             String key = p.getKey();
             String[] value= p.getValue();
@@ -84,9 +153,6 @@ public class AuditBean
                         throw serviceException.applyParameters(HttpStatus.BAD_REQUEST,
                             ResourceManager.INVALID_PARAMETER_VALUE, value[0], key);
                     }
-                    
-                    // Исправим признак, чтобы учитывался параметр от клиента 
-                    params.put(selectParam.getParamSign(), 0);
                 }
             }
         });
@@ -94,12 +160,90 @@ public class AuditBean
     }
 
     /**
-     * Выполнение запроса по активным пользователям за данный период за каждый час
-     * в указаный период. , если параметров не было передано, то возьмем за текущие сутки
+     * Выполнение запроса по активным пользователям за данный период,
+     * если параметров не было передано, то возьмем за текущие сутки
      * @param request запрос с frontend'а
      * @return Список активных пользователей
      */
     public List<ActiveUser> activeUsers(HttpServletRequest request)
+    {
+        return auditDao.getActiveUsers(getPeriodParameters(request));
+    }
+
+    /**
+     * Активность сессий пользователей за каждый интервал в указанный период:
+     * количество сессий, пользователей и наибольшее количество одновременных сессий.
+     * Если параметров периода не было передано, то возьмем за текущие сутки
+     * @param request запрос с frontend'а
+     * @param bucket длительность интервала в минутах, по умолчанию час
+     * @return активность сессий в порядке интервалов
+     */
+    public List<SessionActivity> sessionActivity(HttpServletRequest request, Integer bucket)
+    {
+        Map<String, Object> params = getPeriodParameters(request);
+        return auditDao.getSessionActivity(params, getBucket(params, bucket, 60, maxActivityBuckets));
+    }
+
+    /**
+     * Сводка ответов за каждый интервал в указанный период по методу, шаблону пути и классу статуса:
+     * количество ответов, суммарная и наибольшая длительность. Если параметров периода не было передано,
+     * то возьмем за текущие сутки
+     * @param request запрос с frontend'а
+     * @param bucket длительность интервала в минутах, по умолчанию минута
+     * @return сводка в порядке интервалов
+     */
+    public List<RequestMetrics> requestMetrics(HttpServletRequest request, Integer bucket)
+    {
+        Map<String, Object> params = getParameters(request);
+        params.putAll(getPeriodParameters(request));
+        return auditDao.getRequestMetrics(params, getBucket(params, bucket, 1, maxMetricsBuckets));
+    }
+
+    /**
+     * Процентили длительности ответов (p50, p90, p99) и наибольшая длительность за указанный период
+     * по методу и шаблону пути. Если параметров периода не было передано, то возьмем за текущие сутки
+     * @param request запрос с frontend'а
+     * @return процентили в порядке методов и путей
+     */
+    public List<LatencyPercentiles> latencyPercentiles(HttpServletRequest request)
+    {
+        Map<String, Object> params = getParameters(request);
+        params.putAll(getPeriodParameters(request));
+        return auditDao.getLatencyPercentiles(params);
+    }
+
+    /**
+     * Определим длительность интервала и проверим количество интервалов в периоде
+     * @param params параметры начала и окончания периода
+     * @param bucket длительность интервала в минутах, null - по умолчанию
+     * @param defaultBucket длительность интервала по умолчанию в минутах
+     * @param maxBuckets наибольшее количество интервалов
+     * @return длительность интервала
+     */
+    private Duration getBucket(Map<String, Object> params, Integer bucket, int defaultBucket, int maxBuckets)
+    {
+        if (bucket != null && bucket <= 0)
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST,
+                ResourceManager.INVALID_PARAMETER_VALUE, bucket, BUCKET);
+        }
+        Duration duration = Duration.ofMinutes(bucket == null ? defaultBucket : bucket);
+        long buckets = Duration.between(((Timestamp)params.get(AuditDaoImpl.TIME_FROM)).toLocalDateTime(),
+            ((Timestamp)params.get(AuditDaoImpl.TIME_TO)).toLocalDateTime()).toMillis() / duration.toMillis();
+        if (buckets >= maxBuckets)
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST,
+                ResourceManager.INVALID_PARAMETER_VALUE, bucket, BUCKET);
+        }
+        return duration;
+    }
+
+    /**
+     * Определим период из параметров запроса, если параметров не было передано, то возьмем за текущие сутки
+     * @param request запрос с frontend'а
+     * @return параметры начала и окончания периода
+     */
+    private Map<String, Object> getPeriodParameters(HttpServletRequest request)
     {
         // Определим список параметров по умолчанию, если параметров не было передано, то возьмем
         // за текущие сутки
@@ -153,7 +297,7 @@ public class AuditBean
             }
         }
 
-        return auditDao.getActiveUsers(params);
+        return params;
     }
 
     /**
@@ -161,12 +305,32 @@ public class AuditBean
      * @param request запрос с frontend'а
      * @param pageNumber номер страницы
      * @param pageSize размер страницы  
-     * @return json c результатом
+     * @param continuation токен продолжения
+     * @param count способ подсчета количества строк (none, estimate, exact)
+     * @param out поток вывода json c результатом
+     * @throws IOException ошибка записи
      */
-    public Table requests(HttpServletRequest request, Integer pageNumber, Integer pageSize)
+    public void requests(HttpServletRequest request, Integer pageNumber, Integer pageSize, String continuation,
+                         String count, OutputStream out) throws IOException
     {
-        return auditDao.requests(getParameters(request),
+        auditDao.requests(getParameters(request),
             pageNumber == null ? 0 : pageNumber,
-            pageSize == null ? this.pageSize : pageSize);
+            pageSize == null || pageSize <= 0 ? this.pageSize : pageSize,
+            continuation == null || continuation.isEmpty() ? null : continuation,
+            getCountMode(count),
+            new AuditTableWriter(out, jsonMapper));
+    }
+
+    /**
+     * Выгрузка запросов с ответами с фильтрами по мере чтения из БД
+     * @param request запрос с frontend'а
+     * @param limit наибольшее количество строк, null - вся выборка
+     * @param out поток вывода json c результатом
+     * @throws IOException ошибка записи
+     */
+    public void exportRequests(HttpServletRequest request, Integer limit, OutputStream out) throws IOException
+    {
+        auditDao.exportRequests(getParameters(request), limit == null ? 0 : limit,
+            new AuditTableWriter(out, jsonMapper));
     }
 }
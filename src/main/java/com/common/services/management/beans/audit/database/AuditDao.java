@@ -1,9 +1,15 @@
 package com.common.services.management.beans.audit.database;
 
-import com.common.services.management.beans.audit.model.Table;
+import com.common.services.management.beans.audit.export.AuditTableWriter;
+import com.common.services.management.beans.audit.model.AuditCountMode;
+import com.common.services.management.beans.audit.model.metrics.LatencyPercentiles;
+import com.common.services.management.beans.audit.model.metrics.RequestMetrics;
 import com.common.services.management.beans.audit.model.users.ActiveUser;
+import com.common.services.management.beans.audit.model.users.SessionActivity;
 import org.springframework.dao.DataAccessException;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -19,27 +25,103 @@ public interface AuditDao
      * Выполнить статический запрос из таблицы аудита
      * @param params параметры запроса
      * @param pageNumber номер страницы
-     * @param pageSize размер страницы 
-     * @return таблицу данных
+     * @param pageSize размер страницы
+     * @param continuation токен продолжения, null - выборка по номеру страницы
+     * @param countMode способ подсчета общего количества строк
+     * @param writer объект записи таблицы данных по мере чтения строк
+     * @throws IOException ошибка записи
      * @throws DataAccessException
      */
-    public Table list(Map<String, Object> params, int pageNumber, int pageSize);
+    public void list(Map<String, Object> params, int pageNumber, int pageSize, String continuation,
+                     AuditCountMode countMode, AuditTableWriter writer) throws IOException;
 
     /**
-     * Получить активность пользователей за период
+     * Выгрузить записи из таблицы аудита без постраничного разбиения
+     * @param params параметры запроса
+     * @param limit наибольшее количество строк, 0 - все строки
+     * @param writer объект записи таблицы данных по мере чтения строк
+     * @throws IOException ошибка записи
+     * @throws DataAccessException
+     */
+    public void exportList(Map<String, Object> params, int limit, AuditTableWriter writer) throws IOException;
+
+    /**
+     * Получить активность пользователей за период по таблице сессий
      * @param params параметры запроса
      * @return список активности пользователей
      * @throws DataAccessException
      */
     public List<ActiveUser> getActiveUsers(Map<String, Object> params);
 
+    /**
+     * Получить активность сессий по интервалам периода по таблице сессий
+     * @param params параметры запроса (начало и окончание периода)
+     * @param bucket длительность интервала
+     * @return активность сессий в порядке интервалов
+     * @throws DataAccessException
+     */
+    public List<SessionActivity> getSessionActivity(Map<String, Object> params, Duration bucket);
+
+    /**
+     * Обновление таблицы сессий по записям аудита, добавленным после предыдущего обновления
+     */
+    public void refreshSessions();
+
+    /**
+     * Получить сводку ответов по интервалам периода
+     * @param params параметры запроса (начало и окончание периода, фильтры метода, шаблона пути и класса статуса)
+     * @param bucket длительность интервала
+     * @return сводка в порядке интервалов, методов, путей и классов статуса
+     * @throws DataAccessException
+     */
+    public List<RequestMetrics> getRequestMetrics(Map<String, Object> params, Duration bucket);
+
+    /**
+     * Получить процентили длительности ответов за период по методу и шаблону пути
+     * по гистограммам интервалов периода
+     * @param params параметры запроса (начало и окончание периода, фильтры метода, шаблона пути и класса статуса)
+     * @return процентили в порядке методов и путей
+     * @throws DataAccessException
+     */
+    public List<LatencyPercentiles> getLatencyPercentiles(Map<String, Object> params);
+
+    /**
+     * Обновление сводки ответов и гистограмм длительности по записям аудита, добавленным после предыдущего обновления
+     */
+    public void refreshRequestMetrics();
+
     /**
      * Выполнить статический запрос запросов с ответами из таблицы аудита
      * @param params параметры запроса
      * @param pageNumber номер страницы
-     * @param pageSize размер страницы 
-     * @return таблицу данных
+     * @param pageSize размер страницы
+     * @param continuation токен продолжения, null - выборка по номеру страницы
+     * @param countMode способ подсчета общего количества строк
+     * @param writer объект записи таблицы данных по мере чтения строк
+     * @throws IOException ошибка записи
      * @throws DataAccessException
      */
-    public Table requests(Map<String, Object> params, int pageNumber, int pageSize);
+    public void requests(Map<String, Object> params, int pageNumber, int pageSize, String continuation,
+                         AuditCountMode countMode, AuditTableWriter writer) throws IOException;
+
+    /**
+     * Выгрузить запросы с ответами из таблицы аудита без постраничного разбиения
+     * @param params параметры запроса
+     * @param limit наибольшее количество строк, 0 - все строки
+     * @param writer объект записи таблицы данных по мере чтения строк
+     * @throws IOException ошибка записи
+     * @throws DataAccessException
+     */
+    public void exportRequests(Map<String, Object> params, int limit, AuditTableWriter writer) throws IOException;
+
+    /**
+     * Обслуживание секций таблицы аудита: создание секций следующих интервалов
+     * и удаление секций с истекшим сроком хранения
+     */
+    public void maintainPartitions();
+
+    /**
+     * Заполнение типизированных колонок ответов, записанных до их появления
+     */
+    public void backfillTypedColumns();
 }
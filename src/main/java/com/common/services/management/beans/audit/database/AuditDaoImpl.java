@@ -1,29 +1,48 @@
 package com.common.services.management.beans.audit.database;
 
-import com.common.services.management.beans.audit.model.Table;
+import com.common.services.management.beans.audit.model.AuditCountMode;
+import com.common.services.management.beans.audit.export.AuditTableWriter;
+import com.common.services.management.beans.audit.model.metrics.LatencyPercentiles;
+import com.common.services.management.beans.audit.model.metrics.RequestMetrics;
 import com.common.services.management.beans.audit.model.statementsparameter.SQLStatementParameter;
 import com.common.services.management.beans.audit.model.statementsparameter.TimestampSQLStatementParameter;
 import com.common.services.management.beans.audit.model.statementsparameter.UserSQLStatementParameter;
 import com.common.services.management.beans.audit.model.users.ActiveUser;
+import com.common.services.management.beans.audit.model.users.SessionActivity;
+import com.common.services.management.beans.serv.exceptions.ServiceException;
 import com.common.services.management.beans.serv.resourcemanager.ResourceManager;
 import com.common.services.management.datasource.DataSourceManager;
+import com.common.services.management.libs.ContinuationToken;
 import com.common.services.management.logging.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.init.ScriptUtils;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
-import org.springframework.jdbc.support.rowset.SqlRowSetMetaData;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.UncheckedIOException;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -47,6 +66,177 @@ public class AuditDaoImpl
      * Путь к файлу с SQL скриптами создания таблиц для аудита
      */
     private static final String RESOURCE_CREATE_TABLES = "/db_audit_create_tables.sql";
+    /**
+     * Путь к файлу с SQL скриптами создания секционированной по времени таблицы аудита
+     */
+    private static final String RESOURCE_CREATE_PARTITIONED_TABLES = "/db_audit_create_partitioned_tables.sql";
+    /**
+     * Путь к файлу с SQL скриптом добавления типизированных колонок ответов и триггера их заполнения
+     */
+    private static final String RESOURCE_TYPED_COLUMNS = "/db_audit_typed_columns.sql";
+    /**
+     * SQL для проверки, секционирована ли таблица audit
+     */
+    private static final String SQL_IS_PARTITIONED = "SELECT count(*) FROM pg_partitioned_table " +
+        "WHERE partrelid = to_regclass('audit')";
+    /**
+     * SQL для получения секций таблицы audit
+     */
+    private static final String SQL_PARTITIONS = "SELECT c.relname FROM pg_inherits i " +
+        "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass('audit')";
+    /**
+     * Наибольшее время между запросом и ответом. Запросы с ответами фильтруются по времени запроса,
+     * секции отсекаются по времени записи ответа
+     */
+    private static final String MAX_RESPONSE_DELAY = "interval '1 day'";
+    /**
+     * SQL проверки строк интервала в секции по умолчанию
+     */
+    private static final String SQL_DEFAULT_PARTITION_HAS_ROWS = "SELECT EXISTS (SELECT 1 FROM audit_default " +
+        "WHERE \"time\" >= cast(? as timestamp) AND \"time\" < cast(? as timestamp))";
+    /**
+     * SQL переноса строк интервала из секции по умолчанию в создаваемую секцию
+     */
+    private static final String SQL_MOVE_DEFAULT_PARTITION_ROWS = "WITH moved AS (DELETE FROM audit_default " +
+        "WHERE \"time\" >= cast(? as timestamp) AND \"time\" < cast(? as timestamp) RETURNING *) " +
+        "INSERT INTO %s SELECT * FROM moved";
+    /**
+     * SQL для создания триггера заполнения типизированных колонок на новой секции
+     */
+    private static final String SQL_CREATE_PARTITION_TRIGGER = "CREATE TRIGGER audit_typed_columns BEFORE INSERT ON %s " +
+        "FOR EACH ROW EXECUTE PROCEDURE audit_fill_typed_columns()";
+    /**
+     * Условие ответов, типизированные колонки которых не заполнены (частичный индекс audit_backfill_index)
+     */
+    private static final String BACKFILL_CONDITION = "rq = 'R' AND request_time IS NULL " +
+        "AND data->'requestJson'->>'time' IS NOT NULL";
+    /**
+     * Название отметки заполненных ответов в audit_rollup_state. После заполнения всех ответов, записанных
+     * до появления триггера, отметка равна 'infinity': ответы, записанные триггером с некорректным временем
+     * запроса, остаются незаполненными и не возобновляют заполнение при перезапуске
+     */
+    private static final String ROLLUP_BACKFILL = "backfill";
+    /**
+     * SQL проверки, есть ли незаполненные ответы после отметки
+     */
+    private static final String SQL_BACKFILL_PENDING = "SELECT EXISTS (SELECT 1 FROM audit WHERE " + BACKFILL_CONDITION +
+        " AND \"time\" > coalesce((SELECT mark FROM audit_rollup_state WHERE name = '" + ROLLUP_BACKFILL + "'), " +
+        "'-infinity'))";
+    /**
+     * SQL для получения отметки заполненных ответов, NULL - все ответы заполнены
+     */
+    private static final String SQL_GET_BACKFILL_MARK = "SELECT CASE WHEN mark <> 'infinity' THEN mark END " +
+        "FROM audit_rollup_state WHERE name = :name";
+    /**
+     * SQL сохранения отметки заполненных ответов, %s - значение отметки.
+     * Отметка не уменьшается, если ответы заполняют несколько узлов
+     */
+    private static final String SQL_SAVE_BACKFILL_MARK = "INSERT INTO audit_rollup_state (name, mark) " +
+        "VALUES (:name, %s) ON CONFLICT (name) DO UPDATE SET mark = greatest(audit_rollup_state.mark, EXCLUDED.mark)";
+    /**
+     * SQL для получения времени записи последнего ответа порции, записанной после :after
+     */
+    private static final String SQL_BACKFILL_NEXT = "SELECT max(\"time\") FROM (SELECT \"time\" FROM audit " +
+        "WHERE " + BACKFILL_CONDITION + " AND \"time\" > :after ORDER BY \"time\" LIMIT :batch) b";
+    /**
+     * SQL для заполнения типизированных колонок ответов, записанных в интервале (:after, :upper].
+     * Некорректные значения остаются NULL, такие ответы пропускаются следующими порциями
+     */
+    private static final String SQL_BACKFILL_TYPED_COLUMNS = "UPDATE audit SET " +
+        "request_time = audit_try_timestamp(data->'requestJson'->>'time'), " +
+        "method = left(data->'requestJson'->>'method', 16), " +
+        "path = left(data->'requestJson'->>'path', 2048), " +
+        "status = audit_try_smallint(data->>'code'), " +
+        "duration = audit_duration(\"time\", audit_try_timestamp(data->'requestJson'->>'time')) " +
+        "WHERE " + BACKFILL_CONDITION + " AND \"time\" > :after AND \"time\" <= :upper";
+    /**
+     * Путь к файлу с SQL скриптом создания таблицы сессий пользователей
+     */
+    private static final String RESOURCE_SESSIONS = "/db_audit_sessions.sql";
+    /**
+     * Название отметки обработанных записей для таблицы сессий
+     */
+    private static final String ROLLUP_SESSIONS = "sessions";
+    /**
+     * SQL для получения блокировки отметки сводной таблицы до конца транзакции, false - блокировка у другого узла
+     */
+    private static final String SQL_TRY_ROLLUP_LOCK = "SELECT pg_try_advisory_xact_lock(hashtext('audit_rollup:' || :name))";
+    private static final String SQL_GET_ROLLUP_MARK = "SELECT mark FROM audit_rollup_state WHERE name = :name";
+    private static final String SQL_SAVE_ROLLUP_MARK = "INSERT INTO audit_rollup_state (name, mark) VALUES (:name, :to) " +
+        "ON CONFLICT (name) DO UPDATE SET mark = EXCLUDED.mark";
+    private static final String SQL_FIRST_AUDIT_TIME = "SELECT min(\"time\") FROM audit";
+    /**
+     * SQL для обновления сессий по ответам, записанным в интервале (:from, :to].
+     * Пользователь и адрес сессии берутся из ее первого запроса, ответы без корректного времени запроса пропускаются
+     */
+    private static final String SQL_UPDATE_SESSIONS = "INSERT INTO audit_sessions " +
+        "(sessionid, \"user\", userid, address, first_seen, last_seen) " +
+        "SELECT sessionid, (array_agg(\"user\" ORDER BY t))[1], (array_agg(userid ORDER BY t))[1], " +
+        "(array_agg(address ORDER BY t))[1], min(t), max(t) " +
+        "FROM (SELECT sessionid, \"user\", userid, left(data->'requestJson'->>'adress', 128) AS address, " +
+        "audit_try_timestamp(data->'requestJson'->>'time') AS t FROM audit " +
+        "WHERE rq = 'R' AND \"time\" > :from AND \"time\" <= :to AND sessionid IS NOT NULL " +
+        "AND data->'requestJson'->>'time' IS NOT NULL) a " +
+        "WHERE t IS NOT NULL " +
+        "GROUP BY sessionid " +
+        "ON CONFLICT (sessionid) DO UPDATE SET " +
+        "\"user\" = CASE WHEN EXCLUDED.first_seen < audit_sessions.first_seen THEN EXCLUDED.\"user\" ELSE audit_sessions.\"user\" END, " +
+        "userid = CASE WHEN EXCLUDED.first_seen < audit_sessions.first_seen THEN EXCLUDED.userid ELSE audit_sessions.userid END, " +
+        "address = CASE WHEN EXCLUDED.first_seen < audit_sessions.first_seen THEN EXCLUDED.address ELSE audit_sessions.address END, " +
+        "first_seen = least(audit_sessions.first_seen, EXCLUDED.first_seen), " +
+        "last_seen = greatest(audit_sessions.last_seen, EXCLUDED.last_seen)";
+    private static final String SQL_DELETE_EXPIRED_SESSIONS = "DELETE FROM audit_sessions WHERE last_seen < :before";
+    /**
+     * Путь к файлу с SQL скриптом создания поминутной сводки ответов
+     */
+    private static final String RESOURCE_REQUEST_METRICS = "/db_audit_request_metrics.sql";
+    /**
+     * Название отметки обработанных записей для сводки ответов
+     */
+    private static final String ROLLUP_REQUEST_METRICS = "requests";
+    /**
+     * Название отметки обработанных записей для гистограмм длительности ответов
+     */
+    private static final String ROLLUP_REQUEST_LATENCY = "latency";
+    /**
+     * SQL выборки ответов, записанных в интервале (:from, :to], для сводки ответов и гистограмм длительности:
+     * время запроса, метод, шаблон пути, класс статуса и длительность ответа. Ответы без корректного времени
+     * запроса пропускаются, некорректный статус учитывается классом 0
+     */
+    private static final String SQL_ROLLUP_RESPONSES = "(SELECT t, method, path, status_class, " +
+        "greatest(0, audit_duration(response_time, t)) AS duration " +
+        "FROM (SELECT audit_try_timestamp(data->'requestJson'->>'time') AS t, \"time\" AS response_time, " +
+        "coalesce(left(data->'requestJson'->>'method', 16), '') AS method, " +
+        "coalesce(left(audit_path_template(data->'requestJson'->>'path'), 2048), '') AS path, " +
+        "coalesce(audit_try_smallint(data->>'code') / 100, 0) AS status_class " +
+        "FROM audit WHERE rq = 'R' AND \"time\" > :from AND \"time\" <= :to " +
+        "AND data->'requestJson'->>'time' IS NOT NULL) r " +
+        "WHERE audit_duration(response_time, t) IS NOT NULL) a ";
+    /**
+     * SQL для добавления в сводку ответов, записанных в интервале (:from, :to].
+     * Ответы группируются по минуте времени запроса, счетчики и суммы прибавляются к ранее собранным
+     */
+    private static final String SQL_UPDATE_REQUEST_METRICS = "INSERT INTO audit_request_metrics " +
+        "(minute, method, path, status_class, requests, duration_sum, duration_max) " +
+        "SELECT date_trunc('minute', t), method, path, status_class, count(*), sum(duration), max(duration) " +
+        "FROM " + SQL_ROLLUP_RESPONSES +
+        "GROUP BY 1, 2, 3, 4 " +
+        "ON CONFLICT (minute, method, path, status_class) DO UPDATE SET " +
+        "requests = audit_request_metrics.requests + EXCLUDED.requests, " +
+        "duration_sum = audit_request_metrics.duration_sum + EXCLUDED.duration_sum, " +
+        "duration_max = greatest(audit_request_metrics.duration_max, EXCLUDED.duration_max)";
+    private static final String SQL_DELETE_EXPIRED_REQUEST_METRICS = "DELETE FROM audit_request_metrics WHERE minute < :before";
+    /**
+     * SQL для добавления в гистограммы длительности ответов, записанных в интервале (:from, :to]
+     */
+    private static final String SQL_UPDATE_REQUEST_LATENCY = "INSERT INTO audit_request_latency " +
+        "(minute, method, path, status_class, bucket, requests) " +
+        "SELECT date_trunc('minute', t), method, path, status_class, audit_latency_bucket(duration), count(*) " +
+        "FROM " + SQL_ROLLUP_RESPONSES +
+        "GROUP BY 1, 2, 3, 4, 5 " +
+        "ON CONFLICT (minute, method, path, status_class, bucket) DO UPDATE SET " +
+        "requests = audit_request_latency.requests + EXCLUDED.requests";
+    private static final String SQL_DELETE_EXPIRED_REQUEST_LATENCY = "DELETE FROM audit_request_latency WHERE minute < :before";
     /**
      * SQL для проверки существования таблицы audit в БД
      */
@@ -94,106 +284,216 @@ public class AuditDaoImpl
      * Путь в запросе
      */
     public static final String PATH = "path";
+    /**
+     * Класс статуса ответа (2 - 2xx, 4 - 4xx, ...)
+     */
+    public static final String STATUS_CLASS = "statusClass";
+    /**
+     * Длительность интервала сводки в секундах
+     */
+    public static final String BUCKET = "bucket";
+    /**
+     * Токен продолжения для выборки следующей страницы
+     */
+    public static final String CONTINUATION = "continuation";
+    /**
+     * Способ подсчета общего количества строк
+     */
+    public static final String COUNT = "count";
 
     /**
      * Список полей для select запроса
      */
     public static final Map<String, SQLStatementParameter> selectParameters =
         Collections.unmodifiableMap(Stream.of(
-                new SimpleEntry<>(TIME_FROM, new TimestampSQLStatementParameter(TIME_FROM, "timeFromSign")),
-                new SimpleEntry<>(TIME_TO, new TimestampSQLStatementParameter(TIME_TO, "timeToSign")),
-                new SimpleEntry<>(USER, new UserSQLStatementParameter(USER, "userSign")),
-                new SimpleEntry<>(USERID, new SQLStatementParameter(USERID, "useridSign")),
-                new SimpleEntry<>(SESSIONID, new SQLStatementParameter(SESSIONID, "sessionidSign")),
-                new SimpleEntry<>(RQ, new SQLStatementParameter(RQ, "rqSign")),
-                new SimpleEntry<>(ERRORSTATUS, new SQLStatementParameter(ERRORSTATUS, "esSign")),
-                new SimpleEntry<>(STATUS, new SQLStatementParameter(STATUS, "statusSign")),
-                new SimpleEntry<>(PATH, new SQLStatementParameter(PATH, "pathSign")),
-                new SimpleEntry<>(METHOD, new SQLStatementParameter(METHOD, "methodSign")))
+                new SimpleEntry<>(TIME_FROM, new TimestampSQLStatementParameter(TIME_FROM)),
+                new SimpleEntry<>(TIME_TO, new TimestampSQLStatementParameter(TIME_TO)),
+                new SimpleEntry<>(USER, new UserSQLStatementParameter(USER)),
+                new SimpleEntry<>(USERID, new SQLStatementParameter(USERID)),
+                new SimpleEntry<>(SESSIONID, new SQLStatementParameter(SESSIONID)),
+                new SimpleEntry<>(RQ, new SQLStatementParameter(RQ)),
+                new SimpleEntry<>(ERRORSTATUS, new SQLStatementParameter(ERRORSTATUS)),
+                new SimpleEntry<>(STATUS, new SQLStatementParameter(STATUS)),
+                new SimpleEntry<>(PATH, new SQLStatementParameter(PATH)),
+                new SimpleEntry<>(STATUS_CLASS, new SQLStatementParameter(STATUS_CLASS)),
+                new SimpleEntry<>(METHOD, new SQLStatementParameter(METHOD)))
            .collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue())));
 
     /**
-     * SQL для получения данных по аудиту
-     */
-    private static final String SQL_SELECT = "select \"time\", \"user\", sessionid, rq, data from audit " +
-        "where " + 
-            "((\"time\" >= :" + selectParameters.get(TIME_FROM).getParam() + " or 1 = :" + selectParameters.get(TIME_FROM).getParamSign() + ") and " +
-            "(\"time\" <= :" + selectParameters.get(TIME_TO).getParam() + " or 1 = :" + selectParameters.get(TIME_TO).getParamSign() + ") and " +
-            "(\"user\" like :" + selectParameters.get(USER).getParam() + " or 1 = :" + selectParameters.get(USER).getParamSign() + ") and " +
-            "(sessionid like :" + selectParameters.get(SESSIONID).getParam() + " or 1 = :" + selectParameters.get(SESSIONID).getParamSign() + ") and " +
-            "(rq = :" + selectParameters.get(RQ).getParam() + " or 1 = :" + selectParameters.get(RQ).getParamSign() + ") and " +
-            "(data->>'code' != '200' or 1 = :" + selectParameters.get(ERRORSTATUS).getParamSign() + ")) " +
-            "order by \"time\" " +
-            "limit %d offset %d";
-    
-    /**
-     * SQL для получения количества строк по аудиту
-     */
-    private static final String SQL_COUNT_SELECT = "select count(\"time\") from audit " +
-        "where " + 
-            "((\"time\" >= :" + selectParameters.get(TIME_FROM).getParam() + " or 1 = :" + selectParameters.get(TIME_FROM).getParamSign() + ") and " +
-            "(\"time\" <= :" + selectParameters.get(TIME_TO).getParam() + " or 1 = :" + selectParameters.get(TIME_TO).getParamSign() + ") and " +
-            "(\"user\" like :" + selectParameters.get(USER).getParam() + " or 1 = :" + selectParameters.get(USER).getParamSign() + ") and " +
-            "(sessionid like :" + selectParameters.get(SESSIONID).getParam() + " or 1 = :" + selectParameters.get(SESSIONID).getParamSign() + ") and " +
-            "(rq = :" + selectParameters.get(RQ).getParam() + " or 1 = :" + selectParameters.get(RQ).getParamSign() + ") and " +
-            "(data->>'code' != '200' or 1 = :" + selectParameters.get(ERRORSTATUS).getParamSign() + "))";
-    
-    /**
-     * SQL для получения запросов с ответами
-     */
-    private static final String SQL_REQUESTS = "select " + 
-        "data->'requestJson'->>'time' as timereq," + 
-        "\"time\" as timeres," + 
-        "userid," + 
+     * Запрос данных по аудиту
+     */
+    public static final AuditQueryBuilder QUERY_LIST = new AuditQueryBuilder(
+        "\"time\", \"user\", sessionid, rq, data", "audit")
+        .orderBy("\"time\"", "timestamp")
+        .orderBy("ctid", "tid")
+        .filter(TIME_FROM, "\"time\" >= :" + TIME_FROM)
+        .filter(TIME_TO, "\"time\" <= :" + TIME_TO)
+        .filter(USER, "\"user\" like :" + USER)
+        .filter(SESSIONID, "sessionid like :" + SESSIONID)
+        .filter(RQ, "rq = :" + RQ)
+        .filter(ERRORSTATUS, "data->>'code' != '200'");
+
+    /**
+     * Запрос запросов с ответами. Фильтр по времени запроса дополняется условием по времени записи ответа
+     * для использования индекса audit_index и отсечения секций. Время записи и ctid в ключах сортировки
+     * однозначно определяют строку секционированной по времени записи таблицы. Ответы без времени запроса
+     * не выбираются: ключ сортировки null не сравнивается с токеном продолжения.
+     * ctid строки меняется при ее обновлении или переносе (заполнение колонок, перенос из секции audit_default,
+     * VACUUM FULL), поэтому токен продолжения, выданный до этого, может пропустить или повторить строки
+     * с тем же временем запроса и ответа
+     */
+    public static final AuditQueryBuilder QUERY_REQUESTS = new AuditQueryBuilder(
+        "to_char(request_time, 'YYYY-MM-DD HH24:MI:SS.MS') as timereq," +
+        "\"time\" as timeres," +
+        "userid," +
+        "sessionid," +
+        "method," +
+        "path," +
+        "status",
+        "audit")
+        .orderBy("request_time", "timestamp with time zone")
+        .orderBy("\"time\"", "timestamp")
+        .orderBy("ctid", "tid")
+        .where("rq='R'")
+        .where("request_time is not null")
+        .filter(TIME_FROM, "\"time\" >= cast(:" + TIME_FROM + " as timestamp) and " +
+            "request_time >= cast(:" + TIME_FROM + " as timestamp)")
+        .filter(TIME_TO, "\"time\" <= cast(:" + TIME_TO + " as timestamp) + " + MAX_RESPONSE_DELAY + " and " +
+            "request_time <= cast(:" + TIME_TO + " as timestamp)")
+        .filter(USERID, "userid = :" + USERID)
+        .filter(METHOD, "method = :" + METHOD)
+        .filter(PATH, "path like :" + PATH)
+        .filter(STATUS, "status = any(regexp_split_to_array(NULLIF(:" + STATUS + ",''),',')::int[])");
+
+    /**
+     * Запрос сводки ответов по интервалам периода. Интервалы отсчитываются от начала минуты начала периода
+     */
+    public static final AuditQueryBuilder QUERY_REQUEST_METRICS = new AuditQueryBuilder(
+        "date_trunc('minute', cast(:" + TIME_FROM + " as timestamp)) + " +
+        "floor(extract(epoch from minute - date_trunc('minute', cast(:" + TIME_FROM + " as timestamp))) / :" + BUCKET + ") * " +
+        ":" + BUCKET + " * interval '1 second' as bucket_start," +
+        "method," +
+        "path," +
+        "status_class," +
+        "sum(requests) as requests," +
+        "sum(duration_sum) as duration_sum," +
+        "max(duration_max) as duration_max",
+        "audit_request_metrics")
+        .orderBy("bucket_start", "timestamp")
+        .orderBy("method", "text")
+        .orderBy("path", "text")
+        .orderBy("status_class", "smallint")
+        .groupBy("bucket_start, method, path, status_class")
+        .filter(TIME_FROM, "minute >= date_trunc('minute', cast(:" + TIME_FROM + " as timestamp))")
+        .filter(TIME_TO, "minute <= cast(:" + TIME_TO + " as timestamp)")
+        .filter(METHOD, "method = :" + METHOD)
+        .filter(PATH, "path like :" + PATH)
+        .filter(STATUS_CLASS, "status_class = any(regexp_split_to_array(NULLIF(:" + STATUS_CLASS + ",''),',')::int[])");
+
+    /**
+     * Запрос объединенных гистограмм длительности ответов за период по методу и шаблону пути
+     */
+    public static final AuditQueryBuilder QUERY_REQUEST_LATENCY = new AuditQueryBuilder(
+        "method," +
+        "path," +
+        "bucket," +
+        "sum(requests) as requests",
+        "audit_request_latency")
+        .orderBy("method", "text")
+        .orderBy("path", "text")
+        .orderBy("bucket", "smallint")
+        .groupBy("method, path, bucket")
+        .filter(TIME_FROM, "minute >= date_trunc('minute', cast(:" + TIME_FROM + " as timestamp))")
+        .filter(TIME_TO, "minute <= cast(:" + TIME_TO + " as timestamp)")
+        .filter(METHOD, "method = :" + METHOD)
+        .filter(PATH, "path like :" + PATH)
+        .filter(STATUS_CLASS, "status_class = any(regexp_split_to_array(NULLIF(:" + STATUS_CLASS + ",''),',')::int[])");
+
+    /**
+     * Запрос наибольшей длительности ответов за период по методу и шаблону пути
+     */
+    public static final AuditQueryBuilder QUERY_REQUEST_LATENCY_MAX = new AuditQueryBuilder(
+        "method," +
+        "path," +
+        "max(duration_max) as duration_max",
+        "audit_request_metrics")
+        .orderBy("method", "text")
+        .orderBy("path", "text")
+        .groupBy("method, path")
+        .filter(TIME_FROM, "minute >= date_trunc('minute', cast(:" + TIME_FROM + " as timestamp))")
+        .filter(TIME_TO, "minute <= cast(:" + TIME_TO + " as timestamp)")
+        .filter(METHOD, "method = :" + METHOD)
+        .filter(PATH, "path like :" + PATH)
+        .filter(STATUS_CLASS, "status_class = any(regexp_split_to_array(NULLIF(:" + STATUS_CLASS + ",''),',')::int[])");
+
+    /**
+     * Время запроса из json ответа
+     */
+    private static final String JSON_REQUEST_TIME = "audit_try_timestamp(data->'requestJson'->>'time')";
+
+    /**
+     * Запрос запросов с ответами по json ответов, выполняется, пока фоновое задание не заполнило
+     * типизированные колонки всех ранее записанных ответов. Ответы без корректного времени запроса не выбираются
+     */
+    public static final AuditQueryBuilder QUERY_REQUESTS_JSON = new AuditQueryBuilder(
+        "to_char(" + JSON_REQUEST_TIME + ", 'YYYY-MM-DD HH24:MI:SS.MS') as timereq," +
+        "\"time\" as timeres," +
+        "userid," +
         "sessionid," +
-        "data->'requestJson'->>'method' as method," + 
-        "data->'requestJson'->>'path' as path," + 
-        "data->>'code' as status " + 
-        "from audit where rq='R' " +
-            "and ((cast(data->'requestJson'->>'time' as timestamp) >= to_timestamp(:" + selectParameters.get(TIME_FROM).getParam() + ", 'YYYY-MM-DD HH24:MI:SS.MS') or 1 = :" + selectParameters.get(TIME_FROM).getParamSign() + ") " +
-            "and  (cast(data->'requestJson'->>'time' as timestamp) <= to_timestamp(:" + selectParameters.get(TIME_TO).getParam() + ", 'YYYY-MM-DD HH24:MI:SS.MS') or 1 = :" + selectParameters.get(TIME_TO).getParamSign() + ") " + 
-            "and  (userid = :" + selectParameters.get(USERID).getParam() + " or 1 = :" + selectParameters.get(USERID).getParamSign() + ") " +
-            "and  (data->'requestJson'->>'method' = :" + selectParameters.get(METHOD).getParam() + " or 1 = :" + selectParameters.get(METHOD).getParamSign() + ") " +
-            "and  (data->'requestJson'->>'path' like :" + selectParameters.get(PATH).getParam() + " or 1 = :" + selectParameters.get(PATH).getParamSign() + ") " +
-            "and  (cast(data->>'code' as integer) = any(regexp_split_to_array(NULLIF(:" + selectParameters.get(STATUS).getParam() + ",''),',')::int[]) or 1 = :" + selectParameters.get(STATUS).getParamSign() + ")" +
-            ") " +
-            "order by timereq " +
-            "limit %d offset %d";
-    
-    /**
-     * SQL для получения количества строк запросов с ответами
-     */
-    private static final String SQL_COUNT_REQUESTS = "select " + 
-        "count(data) " + 
-        "from audit where rq='R' " +
-            "and ((cast(data->'requestJson'->>'time' as timestamp) >= to_timestamp(:" + selectParameters.get(TIME_FROM).getParam() + ", 'YYYY-MM-DD HH24:MI:SS.MS') or 1 = :" + selectParameters.get(TIME_FROM).getParamSign() + ") " +
-            "and  (cast(data->'requestJson'->>'time' as timestamp) <= to_timestamp(:" + selectParameters.get(TIME_TO).getParam() + ", 'YYYY-MM-DD HH24:MI:SS.MS') or 1 = :" + selectParameters.get(TIME_TO).getParamSign() + ") " + 
-            "and  (userid = :" + selectParameters.get(USERID).getParam() + " or 1 = :" + selectParameters.get(USERID).getParamSign() + ") " +
-            "and  (data->'requestJson'->>'method' = :" + selectParameters.get(METHOD).getParam() + " or 1 = :" + selectParameters.get(METHOD).getParamSign() + ") " +
-            "and  (data->'requestJson'->>'path' like :" + selectParameters.get(PATH).getParam() + " or 1 = :" + selectParameters.get(PATH).getParamSign() + ") " +
-            "and  (cast(data->>'code' as integer) = any(regexp_split_to_array(NULLIF(:" + selectParameters.get(STATUS).getParam() + ",''),',')::int[]) or 1 = :" + selectParameters.get(STATUS).getParamSign() + ")" +
-            ")";
+        "data->'requestJson'->>'method' as method," +
+        "data->'requestJson'->>'path' as path," +
+        "data->>'code' as status",
+        "audit")
+        .orderBy(JSON_REQUEST_TIME, "timestamp")
+        .orderBy("\"time\"", "timestamp")
+        .orderBy("ctid", "tid")
+        .where("rq='R'")
+        .where(JSON_REQUEST_TIME + " is not null")
+        .filter(TIME_FROM, "\"time\" >= cast(:" + TIME_FROM + " as timestamp) and " +
+            JSON_REQUEST_TIME + " >= cast(:" + TIME_FROM + " as timestamp)")
+        .filter(TIME_TO, "\"time\" <= cast(:" + TIME_TO + " as timestamp) + " + MAX_RESPONSE_DELAY + " and " +
+            JSON_REQUEST_TIME + " <= cast(:" + TIME_TO + " as timestamp)")
+        .filter(USERID, "userid = :" + USERID)
+        .filter(METHOD, "data->'requestJson'->>'method' = :" + METHOD)
+        .filter(PATH, "data->'requestJson'->>'path' like :" + PATH)
+        .filter(STATUS, "audit_try_smallint(data->>'code') = any(regexp_split_to_array(NULLIF(:" + STATUS + ",''),',')::int[])");
 
+    /**
+     * Сессии, активные в периоде: начаты до его окончания и продолжались после его начала
+     */
     public static final String SQL_SELECT_ACTIVE_USERS = "select "
-        + "data->'requestJson'->>'time',"
         + "\"user\","
         + "userid,"
         + "sessionid,"
-        + "data->'requestJson'->>'adress' "
-        +   "from audit "
+        + "address,"
+        + "first_seen,"
+        + "last_seen "
+        +   "from audit_sessions "
             + "where "
-                + "cast(data->'requestJson'->>'time' as timestamp) "
-                + "between "
-                + ":" + TIME_FROM
-                + " and "
-                + ":" + TIME_TO
+                + "first_seen <= cast(:" + TIME_TO + " as timestamp)"
                 + " and "
-                + "rq='R'";
+                + "last_seen >= cast(:" + TIME_FROM + " as timestamp) "
+        + "order by first_seen";
 
     /**
      * Шаблон для выполнения SQL запросов
      */
     private NamedParameterJdbcTemplate jdbcTemplate;
+    /**
+     * Шаблон запросов страниц и выгрузки, строки читаются из БД порциями по fetchSize
+     */
+    private NamedParameterJdbcTemplate streamJdbcTemplate;
+    /**
+     * Транзакция только для чтения, внутри которой драйвер PostgreSQL читает выборку курсором
+     */
+    private TransactionTemplate readOnlyTransaction;
+    /**
+     * Транзакция обновления сводных таблиц
+     */
+    private TransactionTemplate transaction;
+
+    @Value("${audit.fetch.size:1000}")
+    private int fetchSize;
     /**
      * Менеджер ресурсов
      */
@@ -206,6 +506,12 @@ public class AuditDaoImpl
     @Autowired
     private Logger logger;
 
+    @Autowired
+    private ServiceException serviceException;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
+
     /**
      * Подключение шаблона запросов и источника БД
      * @param dataSourceManager менеджер конфигураций БД
@@ -213,14 +519,76 @@ public class AuditDaoImpl
     @Autowired
     DataSourceManager dataSourceManager;
 
+    /**
+     * Интервал секций таблицы аудита, не задан - таблица создается без секций
+     */
+    @Value("${audit.partition.interval:}")
+    private AuditPartitionInterval partitionInterval;
+    /**
+     * Количество заранее создаваемых секций следующих интервалов
+     */
+    @Value("${audit.partition.premake:3}")
+    private int premadePartitions;
+    /**
+     * Срок хранения записей аудита в днях, 0 - записи хранятся бессрочно.
+     * Удаляются секции, все записи которых старше срока хранения
+     */
+    @Value("${audit.retention.days:0}")
+    private int retentionDays;
+    /**
+     * true - секции с истекшим сроком хранения только отсоединяются от таблицы аудита (для архивирования)
+     */
+    @Value("${audit.retention.detach-only:false}")
+    private boolean detachOnly;
+    /**
+     * Количество ответов, заполняемых фоновым заданием за один запрос
+     */
+    @Value("${audit.backfill.batch.size:10000}")
+    private int backfillBatchSize;
+    /**
+     * Наибольшее количество порций, заполняемых за один запуск фонового задания
+     */
+    @Value("${audit.backfill.max-batches:100}")
+    private int backfillMaxBatches;
+    /**
+     * Признак, что все ранее записанные ответы заполнены
+     */
+    private volatile boolean backfillDone;
+    /**
+     * Задержка обработки записей аудита сводными таблицами, мс
+     */
+    @Value("${audit.rollup.lag:10000}")
+    private long rollupLag;
+    /**
+     * Интервал времени записей аудита, обрабатываемый в одной транзакции, мс
+     */
+    @Value("${audit.rollup.window:86400000}")
+    private long rollupWindow;
+
     /**
      * Подключение шаблона для выполнения SQL запросов
      */
     @PostConstruct
     public void init()
     {
-        jdbcTemplate = new NamedParameterJdbcTemplate(dataSourceManager.getDataSource(DB_CONFIG_NAME));
+        DataSource dataSource = dataSourceManager.getDataSource(DB_CONFIG_NAME);
+        jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate streamTemplate = new JdbcTemplate(dataSource);
+        streamTemplate.setFetchSize(fetchSize);
+        streamJdbcTemplate = new NamedParameterJdbcTemplate(streamTemplate);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        transaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
         initTables();
+        try
+        {
+            backfillDone = !jdbcTemplate.getJdbcOperations().queryForObject(SQL_BACKFILL_PENDING, Boolean.class);
+        }
+        catch (DataAccessException e)
+        {
+            logger.error("Ошибка проверки заполнения типизированных колонок таблицы аудита.", e);
+        }
     }
 
     /**
@@ -241,7 +609,8 @@ public class AuditDaoImpl
     }
 
     /**
-     * Создание таблиц в БД если они не существуют
+     * Создание таблиц в БД если они не существуют, добавление типизированных колонок, создание таблицы сессий
+     * и сводки ответов, создание секций текущего и следующих интервалов
      */
     private void initTables()
     {
@@ -256,6 +625,31 @@ public class AuditDaoImpl
                 logger.error("Ошибка инициализации базы данных аудита.", e);
             }
         }
+        try
+        {
+            executeSqlFromFile(RESOURCE_TYPED_COLUMNS);
+        }
+        catch (IOException | DataAccessException e)
+        {
+            logger.error("Ошибка добавления типизированных колонок в таблицу аудита.", e);
+        }
+        try
+        {
+            executeSqlFromFile(RESOURCE_SESSIONS);
+        }
+        catch (IOException | DataAccessException e)
+        {
+            logger.error("Ошибка создания таблицы сессий пользователей аудита.", e);
+        }
+        try
+        {
+            executeSqlFromFile(RESOURCE_REQUEST_METRICS);
+        }
+        catch (IOException | DataAccessException e)
+        {
+            logger.error("Ошибка создания сводки ответов аудита.", e);
+        }
+        maintainPartitions();
     }
 
     /**
@@ -264,7 +658,170 @@ public class AuditDaoImpl
      */
     private void createTables() throws IOException
     {
-        executeSqlFromFile(RESOURCE_CREATE_TABLES);
+        executeSqlFromFile(partitionInterval == null ? RESOURCE_CREATE_TABLES : RESOURCE_CREATE_PARTITIONED_TABLES);
+    }
+
+    /**
+     * Обслуживание секций таблицы аудита: создание секций текущего и следующих интервалов,
+     * удаление секций с истекшим сроком хранения. Выполняется, если таблица секционирована
+     */
+    @Override
+    @Scheduled(initialDelayString = "${audit.partition.maintenance.interval:3600000}",
+        fixedDelayString = "${audit.partition.maintenance.interval:3600000}")
+    public void maintainPartitions()
+    {
+        if (partitionInterval == null)
+        {
+            return;
+        }
+        try
+        {
+            if (jdbcTemplate.getJdbcOperations().queryForObject(SQL_IS_PARTITIONED, Integer.class) == 0)
+            {
+                logger.debug("Таблица аудита создана без секций, секции не обслуживаются");
+                return;
+            }
+            LocalDate start = partitionInterval.getStart(LocalDate.now());
+            for (int i = 0; i <= premadePartitions; i++)
+            {
+                LocalDate next = partitionInterval.getNext(start);
+                String name = partitionInterval.getPartitionName(start);
+                try
+                {
+                    createPartition(name, start, next);
+                }
+                catch (DataAccessException e)
+                {
+                    // секции обслуживаются независимо: ошибка одной секции не останавливает удаление старых секций
+                    logger.error("Ошибка создания секции " + name + " таблицы аудита.", e);
+                }
+                start = next;
+            }
+            if (retentionDays > 0)
+            {
+                removePartitions(LocalDate.now().minusDays(retentionDays));
+            }
+        }
+        catch (DataAccessException e)
+        {
+            logger.error("Ошибка обслуживания секций таблицы аудита.", e);
+        }
+    }
+
+    /**
+     * Создание секции и триггера заполнения типизированных колонок, если секция не существует.
+     * Если секция по умолчанию уже содержит записи интервала, секция не может быть создана как PARTITION OF:
+     * записи переносятся в новую таблицу, которая затем присоединяется к таблице аудита. Запись в таблицу
+     * аудита на время переноса блокируется, чтение - нет
+     * @param name название секции
+     * @param from начало интервала
+     * @param to   конец интервала (не включая)
+     */
+    private void createPartition(String name, LocalDate from, LocalDate to)
+    {
+        JdbcOperations jdbc = jdbcTemplate.getJdbcOperations();
+        if (!jdbc.queryForObject("SELECT to_regclass(?) IS NULL", Boolean.class, name))
+        {
+            return;
+        }
+        String range = "FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+        transaction.execute(status ->
+        {
+            if (jdbc.queryForObject("SELECT to_regclass('audit_default') IS NOT NULL", Boolean.class)
+                && jdbc.queryForObject(SQL_DEFAULT_PARTITION_HAS_ROWS, Boolean.class, from.toString(), to.toString()))
+            {
+                jdbc.execute("LOCK TABLE audit IN SHARE ROW EXCLUSIVE MODE");
+                jdbc.execute("CREATE TABLE " + name + " (LIKE audit INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+                int moved = jdbc.update(String.format(SQL_MOVE_DEFAULT_PARTITION_ROWS, name), from.toString(), to.toString());
+                jdbc.execute("ALTER TABLE audit ATTACH PARTITION " + name + " " + range);
+                logger.warn("Записи аудита с " + from + " по " + to + " (" + moved + ") перенесены из секции " +
+                    "audit_default в секцию " + name);
+            }
+            else
+            {
+                jdbc.execute("CREATE TABLE " + name + " PARTITION OF audit " + range);
+            }
+            jdbc.execute(String.format(SQL_CREATE_PARTITION_TRIGGER, name));
+            return null;
+        });
+    }
+
+    /**
+     * Удаление секций, интервал которых закончился до указанной даты.
+     * Секция отсоединяется и удаляется целиком, без удаления отдельных записей
+     * @param before дата окончания срока хранения
+     */
+    private void removePartitions(LocalDate before)
+    {
+        for (String name : jdbcTemplate.getJdbcOperations().queryForList(SQL_PARTITIONS, String.class))
+        {
+            LocalDate start = partitionInterval.getPartitionStart(name);
+            if (start != null && !partitionInterval.getNext(start).isAfter(before))
+            {
+                try
+                {
+                    jdbcTemplate.getJdbcOperations().execute("ALTER TABLE audit DETACH PARTITION " + name);
+                    if (!detachOnly)
+                    {
+                        jdbcTemplate.getJdbcOperations().execute("DROP TABLE " + name);
+                    }
+                    logger.debug("Секция " + name + (detachOnly ? " отсоединена" : " удалена") + " из таблицы аудита");
+                }
+                catch (DataAccessException e)
+                {
+                    logger.error("Ошибка удаления секции " + name + " таблицы аудита.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Заполнение типизированных колонок ответов, записанных до появления триггера.
+     * Ответы заполняются порциями в порядке времени записи до последнего незаполненного ответа,
+     * время записи последнего заполненного ответа сохраняется в audit_rollup_state.
+     * Ответы с некорректными значениями остаются незаполненными и повторно не обрабатываются
+     */
+    @Override
+    @Scheduled(initialDelayString = "${audit.backfill.interval:60000}",
+        fixedDelayString = "${audit.backfill.interval:60000}")
+    public void backfillTypedColumns()
+    {
+        if (backfillDone)
+        {
+            return;
+        }
+        try
+        {
+            MapSqlParameterSource params = new MapSqlParameterSource("batch", backfillBatchSize)
+                .addValue("name", ROLLUP_BACKFILL);
+            List<Timestamp> marks = jdbcTemplate.queryForList(SQL_GET_BACKFILL_MARK, params, Timestamp.class);
+            if (!marks.isEmpty() && marks.get(0) == null)
+            {
+                // ответы заполнил другой узел
+                backfillDone = true;
+                return;
+            }
+            Timestamp mark = marks.isEmpty() ? Timestamp.valueOf("1970-01-01 00:00:00") : marks.get(0);
+            for (int i = 0; i < backfillMaxBatches; i++)
+            {
+                params.addValue("after", mark);
+                Timestamp upper = jdbcTemplate.queryForObject(SQL_BACKFILL_NEXT, params, Timestamp.class);
+                if (upper == null)
+                {
+                    jdbcTemplate.update(String.format(SQL_SAVE_BACKFILL_MARK, "'infinity'"), params);
+                    backfillDone = true;
+                    logger.debug("Типизированные колонки таблицы аудита заполнены");
+                    return;
+                }
+                jdbcTemplate.update(SQL_BACKFILL_TYPED_COLUMNS, params.addValue("upper", upper));
+                jdbcTemplate.update(String.format(SQL_SAVE_BACKFILL_MARK, ":upper"), params);
+                mark = upper;
+            }
+        }
+        catch (DataAccessException e)
+        {
+            logger.error("Ошибка заполнения типизированных колонок таблицы аудита.", e);
+        }
     }
 
     /**
@@ -281,110 +838,402 @@ public class AuditDaoImpl
     }
 
     @Override
-    public Table list(Map<String, Object> params, int pageNumber, int pageSize)
+    public void list(Map<String, Object> params, int pageNumber, int pageSize, String continuation,
+                     AuditCountMode countMode, AuditTableWriter writer) throws IOException
     {
-        return executeSQL(SQL_SELECT, params, pageNumber, pageSize).setCountRows((Integer)jdbcTemplate.queryForObject(
-            SQL_COUNT_SELECT, params, Integer.class));
+        select(QUERY_LIST, params, pageNumber, pageSize, continuation, countMode, writer);
+    }
+
+    @Override
+    public void exportList(Map<String, Object> params, int limit, AuditTableWriter writer) throws IOException
+    {
+        export(QUERY_LIST, params, limit, writer);
     }
 
     /**
-     * @param query Текст select запроса
+     * Выполняет подсчет количества строк выбранным способом и запрос страницы с записью строк по мере чтения.
+     * Количество строк считается до записи первой строки: ошибка подсчета возвращается ответом с ошибкой,
+     * а не обрывает уже записанную страницу. Первая страница и страницы по токену продолжения выбираются
+     * по ключам сортировки, остальные страницы - со смещением
+     * @param builder построитель запроса
      * @param params параметры запроса
      * @param pageNumber номер страницы
      * @param pageSize размер страницы
-     * @return
+     * @param continuation токен продолжения, null - выборка со смещением по номеру страницы
+     * @param countMode способ подсчета количества строк
+     * @param writer объект записи выборки
+     * @throws IOException ошибка записи
      */
-    private Table executeSQL(String query, Map<String, Object> params, int pageNumber, int pageSize)
+    private void select(AuditQueryBuilder builder, Map<String, Object> params, int pageNumber, int pageSize,
+                        String continuation, AuditCountMode countMode, AuditTableWriter writer) throws IOException
     {
-        query = String.format(query, pageSize, pageSize * pageNumber);
-        final Table table = new Table();
-        // Получим имена колонок из запроса
-        SqlRowSet rowSet = jdbcTemplate.queryForRowSet(query, params);
-        SqlRowSetMetaData metaData = rowSet.getMetaData();
-
-        int columns = metaData.getColumnCount();
-        String[] headers = new String[columns];
-        // Сохраним имена колонок
-        for (int i = 1; i <= columns; ++i)
+        AuditQueryBuilder.Query query = builder.build(params.keySet());
+        Map<String, Object> keysetParams = new HashMap<>(params);
+        if (continuation != null)
         {
-            headers[i - 1] = Optional.ofNullable(metaData.getColumnLabel(i)).
-                    orElse(metaData.getColumnName(i));
+            ContinuationToken token = ContinuationToken.decode(jsonMapper, continuation);
+            if (token == null || !builder.getSort().equals(token.getSort())
+                || token.getKeys().size() != builder.getKeyCount())
+            {
+                throw serviceException.applyParameters(HttpStatus.BAD_REQUEST,
+                    ResourceManager.INVALID_PARAMETER_VALUE, continuation, CONTINUATION);
+            }
+            for (int i = 0; i < builder.getKeyCount(); i++)
+            {
+                keysetParams.put("key" + i, token.getKeys().get(i));
+            }
         }
 
-        table.setHeaders(headers);
+        int countRows = 0;
+        switch (countMode)
+        {
+            case EXACT:
+                countRows = jdbcTemplate.queryForObject(query.getCount(), params, Integer.class);
+                break;
+            case ESTIMATE:
+                countRows = estimateRows(query, params);
+                break;
+            default:
+                break;
+        }
 
-        // Получим значения в строках
-        List<String[]> rows = new ArrayList<>();        
-        while (rowSet.next())
+        String next;
+        if (continuation == null && pageNumber > 0)
         {
-            String[] row = new String[columns];
-            for (int i = 1; i <= columns; ++i)
-            {
-                row[i - 1] = Optional.ofNullable(rowSet.getString(i)).orElse("");
-            }
-            rows.add(row);
-        } ;
+            next = writeTable(String.format(query.getSelect(), pageSize, pageSize * pageNumber), params,
+                null, pageSize, writer);
+        }
+        else
+        {
+            // лишняя строка показывает, есть ли следующая страница
+            keysetParams.put("limit", pageSize + 1);
+            next = writeTable(query.getKeysetSelect(continuation != null), keysetParams, builder, pageSize, writer);
+        }
+        writer.finish(countRows, countMode, next);
+    }
+
+    /**
+     * Выгрузка выборки с записью строк по мере чтения. Количество строк известно после записи
+     * @param builder построитель запроса
+     * @param params параметры запроса
+     * @param limit наибольшее количество строк, 0 - вся выборка
+     * @param writer объект записи выборки
+     * @throws IOException ошибка записи
+     */
+    private void export(AuditQueryBuilder builder, Map<String, Object> params, int limit, AuditTableWriter writer)
+        throws IOException
+    {
+        String query = String.format(builder.build(params.keySet()).getSelect(), limit > 0 ? limit : "all", 0);
+        writeTable(query, params, null, 0, writer);
+        writer.finish(writer.getRowCount(), AuditCountMode.EXACT, null);
+    }
 
-        table.setRows(rows);
-        return table;
+    /**
+     * Оценка количества строк выборки по плану запроса, без чтения строк
+     * @param query запрос
+     * @param params параметры запроса
+     * @return оценка планировщика
+     */
+    private int estimateRows(AuditQueryBuilder.Query query, Map<String, Object> params)
+    {
+        String plan = jdbcTemplate.queryForObject(query.getEstimate(), params, String.class);
+        try
+        {
+            return (int)Math.min(Integer.MAX_VALUE, jsonMapper.readTree(plan).path(0).path("Plan").path("Plan Rows").asLong());
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
-     * Сформировать список параметров для статического запроса
-     * @return список параметров
+     * Выполняет запрос и записывает заголовки и строки страницы по мере чтения из БД.
+     * Строки читаются курсором порциями по fetchSize внутри транзакции только для чтения
+     * @param query текст запроса
+     * @param params параметры запроса
+     * @param builder построитель запроса с ключами сортировки в последних колонках, null - колонок ключей нет
+     * @param pageSize размер страницы, следующая строка означает, что есть следующая страница; 0 - без ограничения
+     * @param writer объект записи выборки
+     * @return токен продолжения, null если следующей страницы нет
+     * @throws IOException ошибка записи
      */
-    public static Map<String, Object> getSelectParameters()
+    private String writeTable(String query, Map<String, Object> params, AuditQueryBuilder builder, int pageSize,
+                              AuditTableWriter writer) throws IOException
     {
-        Map<String, Object> params = new HashMap<>();
-        selectParameters.forEach((k, v) ->
+        int keyCount = builder == null ? 0 : builder.getKeyCount();
+        try
         {
-            params.put(v.getParam(), v.getObject(v.getDefaultValue()));
-            params.put(v.getParamSign(), 1);
-        });
+            return readOnlyTransaction.execute(status -> streamJdbcTemplate.query(query, params, (ResultSet rs) ->
+            {
+                try
+                {
+                    // Получим имена колонок из запроса
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    int columns = metaData.getColumnCount() - keyCount;
+                    String[] headers = new String[columns];
+                    for (int i = 1; i <= columns; ++i)
+                    {
+                        headers[i - 1] = metaData.getColumnLabel(i);
+                    }
+                    writer.writeHeaders(headers);
 
-        return params;
+                    List<Object> keys = null;
+                    while (rs.next())
+                    {
+                        if (pageSize > 0 && writer.getRowCount() == pageSize)
+                        {
+                            return builder == null ? null : new ContinuationToken(builder.getSort(), keys).encode(jsonMapper);
+                        }
+                        writer.writeRow(rs, columns);
+                        if (keyCount > 0)
+                        {
+                            keys = new ArrayList<>(keyCount);
+                            for (int i = 1; i <= keyCount; ++i)
+                            {
+                                keys.add(rs.getString(columns + i));
+                            }
+                        }
+                    }
+                    return null;
+                }
+                catch (IOException e)
+                {
+                    // например, клиент закрыл подключение - прерываем выборку
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
     }
 
     @Override
     public List<ActiveUser> getActiveUsers(Map<String, Object> params)
     {
-        final Map<String, ActiveUser> map = new HashMap<>();
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        return jdbcTemplate.query(AuditDaoImpl.SQL_SELECT_ACTIVE_USERS, params, (ResultSet rs, int rowNum) ->
+        {
+            Instant firstSeen = rs.getTimestamp("first_seen", utc).toInstant();
+            Instant lastSeen = rs.getTimestamp("last_seen", utc).toInstant();
+            return new ActiveUser(resourceManager).
+                    setLogin(rs.getString("user")).
+                    setId(rs.getString("userid")).
+                    setStartTime(firstSeen).
+                    setAdress(rs.getString("address")).
+                    setDuration(Duration.between(firstSeen, lastSeen).toMillis());
+        });
+    }
+
+    @Override
+    public List<SessionActivity> getSessionActivity(Map<String, Object> params, Duration bucket)
+    {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        // время в таблице аудита без часового пояса, как и в списке активных пользователей считается UTC
+        SessionActivitySweep sweep = new SessionActivitySweep(
+            ((Timestamp)params.get(TIME_FROM)).toLocalDateTime().toInstant(ZoneOffset.UTC),
+            ((Timestamp)params.get(TIME_TO)).toLocalDateTime().toInstant(ZoneOffset.UTC),
+            bucket);
         jdbcTemplate.query(AuditDaoImpl.SQL_SELECT_ACTIVE_USERS, params, (ResultSet rs) ->
         {
-            Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-            if (rs.isBeforeFirst())
+            sweep.add(rs.getString("userid"),
+                rs.getTimestamp("first_seen", utc).toInstant(),
+                rs.getTimestamp("last_seen", utc).toInstant());
+        });
+        return sweep.getActivity();
+    }
+
+    /**
+     * Обновление сессий пользователей по ответам, записанным после отметки audit_rollup_state
+     */
+    @Override
+    @Scheduled(initialDelayString = "${audit.sessions.interval:60000}",
+        fixedDelayString = "${audit.sessions.interval:60000}")
+    public void refreshSessions()
+    {
+        try
+        {
+            refreshRollup(ROLLUP_SESSIONS, SQL_UPDATE_SESSIONS);
+            if (retentionDays > 0)
             {
-                return;
+                jdbcTemplate.update(SQL_DELETE_EXPIRED_SESSIONS, new MapSqlParameterSource("before",
+                    Timestamp.valueOf(LocalDate.now().minusDays(retentionDays).atStartOfDay())));
             }
-            do
+        }
+        catch (DataAccessException e)
+        {
+            logger.error("Ошибка обновления сессий пользователей аудита.", e);
+        }
+    }
+
+    /**
+     * Обновление сводки ответов и гистограмм длительности по записям аудита, добавленным после отметок
+     * audit_rollup_state
+     */
+    @Override
+    @Scheduled(initialDelayString = "${audit.metrics.interval:60000}",
+        fixedDelayString = "${audit.metrics.interval:60000}")
+    public void refreshRequestMetrics()
+    {
+        try
+        {
+            refreshRollup(ROLLUP_REQUEST_METRICS, SQL_UPDATE_REQUEST_METRICS);
+            refreshRollup(ROLLUP_REQUEST_LATENCY, SQL_UPDATE_REQUEST_LATENCY);
+            if (retentionDays > 0)
             {
-                Timestamp timestamp = rs.getTimestamp(1, utc);
-                Instant date = timestamp.toInstant();
-                String sessionId = rs.getString(4);
-                ActiveUser activeUser = map.get(sessionId);
-                if (activeUser == null)
-                {
-                    map.put(sessionId, new ActiveUser(resourceManager).
-                            setLogin(rs.getString(2)).
-                            setId(rs.getString(3)).
-                            setStartTime(date).
-                            setAdress(rs.getString(5)));
-                }
-                else
-                {
-                    activeUser.setDuration(Duration.between(activeUser.getStartTime(), date).toMillis());
-                }
-            } while (rs.next());
+                MapSqlParameterSource params = new MapSqlParameterSource("before",
+                    Timestamp.valueOf(LocalDate.now().minusDays(retentionDays).atStartOfDay()));
+                jdbcTemplate.update(SQL_DELETE_EXPIRED_REQUEST_METRICS, params);
+                jdbcTemplate.update(SQL_DELETE_EXPIRED_REQUEST_LATENCY, params);
+            }
+        }
+        catch (DataAccessException e)
+        {
+            logger.error("Ошибка обновления сводки ответов аудита.", e);
+        }
+    }
+
+    /**
+     * Обработка записей аудита, добавленных после отметки сводной таблицы в audit_rollup_state.
+     * Записи обрабатываются интервалами audit.rollup.window, каждый интервал и отметка сохраняются
+     * в одной транзакции. Записи последних audit.rollup.lag мс не обрабатываются, чтобы не пропустить
+     * записи, зафиксированные с опозданием
+     * @param name название отметки
+     * @param sql SQL обработки записей, записанных в интервале (:from, :to]
+     */
+    private void refreshRollup(String name, String sql)
+    {
+        LocalDateTime upper = LocalDateTime.now().minus(Duration.ofMillis(rollupLag));
+        Boolean next;
+        do
+        {
+            next = transaction.execute(status -> refreshRollupWindow(name, sql, upper));
+        }
+        while (Boolean.TRUE.equals(next));
+    }
+
+    /**
+     * Обработка одного интервала записей аудита после отметки сводной таблицы, выполняется в транзакции.
+     * Сводные таблицы обновляются прибавлением, поэтому интервал обрабатывает только узел, получивший
+     * блокировку отметки; отметка читается после получения блокировки
+     * @param name название отметки
+     * @param sql SQL обработки записей, записанных в интервале (:from, :to]
+     * @param upper время записи, до которого обрабатываются записи
+     * @return true - есть следующий интервал
+     */
+    private boolean refreshRollupWindow(String name, String sql, LocalDateTime upper)
+    {
+        MapSqlParameterSource params = new MapSqlParameterSource("name", name);
+        if (!jdbcTemplate.queryForObject(SQL_TRY_ROLLUP_LOCK, params, Boolean.class))
+        {
+            // сводную таблицу обновляет другой узел
+            return false;
+        }
+        List<Timestamp> marks = jdbcTemplate.queryForList(SQL_GET_ROLLUP_MARK, params, Timestamp.class);
+        LocalDateTime from;
+        if (marks.isEmpty())
+        {
+            Timestamp first = jdbcTemplate.getJdbcOperations().queryForObject(SQL_FIRST_AUDIT_TIME, Timestamp.class);
+            if (first == null)
+            {
+                return false;
+            }
+            // нижняя граница интервала не включается
+            from = first.toLocalDateTime().minusNanos(1000);
+        }
+        else
+        {
+            from = marks.get(0).toLocalDateTime();
+        }
+        if (!from.isBefore(upper))
+        {
+            return false;
+        }
+        LocalDateTime to = from.plus(Duration.ofMillis(rollupWindow));
+        if (to.isAfter(upper))
+        {
+            to = upper;
+        }
+        params.addValue("from", Timestamp.valueOf(from)).addValue("to", Timestamp.valueOf(to));
+        jdbcTemplate.update(sql, params);
+        jdbcTemplate.update(SQL_SAVE_ROLLUP_MARK, params);
+        return to.isBefore(upper);
+    }
+
+    @Override
+    public List<RequestMetrics> getRequestMetrics(Map<String, Object> params, Duration bucket)
+    {
+        Map<String, Object> queryParams = new HashMap<>(params);
+        queryParams.put(BUCKET, bucket.getSeconds());
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        String query = String.format(QUERY_REQUEST_METRICS.build(params.keySet()).getSelect(), "all", 0);
+        return jdbcTemplate.query(query, queryParams, (ResultSet rs, int rowNum) ->
+            new RequestMetrics()
+                .setStartTime(rs.getTimestamp("bucket_start", utc).toInstant())
+                .setMethod(rs.getString("method"))
+                .setPath(rs.getString("path"))
+                .setStatusClass(rs.getInt("status_class") + "xx")
+                .setRequests(rs.getLong("requests"))
+                .setDurationSum(rs.getLong("duration_sum"))
+                .setDurationMax(rs.getInt("duration_max")));
+    }
+
+    @Override
+    public List<LatencyPercentiles> getLatencyPercentiles(Map<String, Object> params)
+    {
+        // гистограммы интервалов периода объединяются в запросе, строки упорядочены по методу и пути
+        Map<List<String>, LatencyHistogram> histograms = new LinkedHashMap<>();
+        jdbcTemplate.query(String.format(QUERY_REQUEST_LATENCY.build(params.keySet()).getSelect(), "all", 0), params,
+            (ResultSet rs) ->
+            {
+                histograms.computeIfAbsent(Arrays.asList(rs.getString("method"), rs.getString("path")),
+                    key -> new LatencyHistogram()).add(rs.getInt("bucket"), rs.getLong("requests"));
+            });
+        Map<List<String>, Integer> max = new HashMap<>();
+        jdbcTemplate.query(String.format(QUERY_REQUEST_LATENCY_MAX.build(params.keySet()).getSelect(), "all", 0), params,
+            (ResultSet rs) ->
+            {
+                max.put(Arrays.asList(rs.getString("method"), rs.getString("path")), rs.getInt("duration_max"));
+            });
+        List<LatencyPercentiles> result = new ArrayList<>(histograms.size());
+        histograms.forEach((key, histogram) ->
+        {
+            // процентиль не больше точной наибольшей длительности из сводки ответов
+            int maxDuration = max.getOrDefault(key, histogram.getValueAtPercentile(100));
+            result.add(new LatencyPercentiles()
+                .setMethod(key.get(0))
+                .setPath(key.get(1))
+                .setRequests(histogram.getTotalCount())
+                .setP50(Math.min(histogram.getValueAtPercentile(50), maxDuration))
+                .setP90(Math.min(histogram.getValueAtPercentile(90), maxDuration))
+                .setP99(Math.min(histogram.getValueAtPercentile(99), maxDuration))
+                .setMax(maxDuration));
         });
+        return result;
+    }
 
-        return map.values().stream().sorted(Comparator.comparing(ActiveUser::getStartTime)).
-                collect(Collectors.toList());
+    @Override
+    public void requests(Map<String, Object> params, int pageNumber, int pageSize, String continuation,
+                         AuditCountMode countMode, AuditTableWriter writer) throws IOException
+    {
+        select(getRequestsQuery(), params, pageNumber, pageSize, continuation, countMode, writer);
     }
 
     @Override
-    public Table requests(Map<String, Object> params, int pageNumber, int pageSize)
+    public void exportRequests(Map<String, Object> params, int limit, AuditTableWriter writer) throws IOException
+    {
+        export(getRequestsQuery(), params, limit, writer);
+    }
+
+    /**
+     * Возвращает запрос запросов с ответами: по типизированным колонкам, если они заполнены у всех ответов,
+     * иначе - по json ответов
+     * @return построитель запроса
+     */
+    private AuditQueryBuilder getRequestsQuery()
     {
-        return executeSQL(SQL_REQUESTS, params, pageNumber, pageSize).setCountRows((Integer)jdbcTemplate.queryForObject(
-            SQL_COUNT_REQUESTS, params, Integer.class));
+        return backfillDone ? QUERY_REQUESTS : QUERY_REQUESTS_JSON;
     }
 }
@@ -0,0 +1,121 @@
+package com.common.services.management.beans.audit.database;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * AuditPartitionInterval.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Интервал секций таблицы аудита, секционированной по времени записи.
+ * Секция интервала, начинающегося с даты start, называется audit_p + start в формате интервала
+ */
+public enum AuditPartitionInterval
+{
+    DAY("yyyyMMdd")
+    {
+        @Override
+        public LocalDate getStart(LocalDate date)
+        {
+            return date;
+        }
+
+        @Override
+        public LocalDate getNext(LocalDate start)
+        {
+            return start.plusDays(1);
+        }
+
+        @Override
+        LocalDate parseStart(String suffix)
+        {
+            return LocalDate.parse(suffix, formatter);
+        }
+    },
+    MONTH("yyyyMM")
+    {
+        @Override
+        public LocalDate getStart(LocalDate date)
+        {
+            return date.withDayOfMonth(1);
+        }
+
+        @Override
+        public LocalDate getNext(LocalDate start)
+        {
+            return start.plusMonths(1);
+        }
+
+        @Override
+        LocalDate parseStart(String suffix)
+        {
+            return YearMonth.parse(suffix, formatter).atDay(1);
+        }
+    };
+
+    /**
+     * Префикс названий секций
+     */
+    private static final String PARTITION_PREFIX = "audit_p";
+
+    protected final DateTimeFormatter formatter;
+
+    AuditPartitionInterval(String pattern)
+    {
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+    }
+
+    /**
+     * Возвращает начало интервала, содержащего дату
+     * @param date дата
+     * @return начало интервала
+     */
+    public abstract LocalDate getStart(LocalDate date);
+
+    /**
+     * Возвращает начало следующего интервала
+     * @param start начало интервала
+     * @return начало следующего интервала, оно же граница интервала (не включая)
+     */
+    public abstract LocalDate getNext(LocalDate start);
+
+    abstract LocalDate parseStart(String suffix);
+
+    /**
+     * Возвращает название секции интервала
+     * @param start начало интервала
+     * @return название секции
+     */
+    public String getPartitionName(LocalDate start)
+    {
+        return PARTITION_PREFIX + formatter.format(start);
+    }
+
+    /**
+     * Возвращает начало интервала секции по ее названию
+     * @param partitionName название секции
+     * @return начало интервала, null если секция создана не для этого интервала (например, audit_default)
+     */
+    public LocalDate getPartitionStart(String partitionName)
+    {
+        if (!partitionName.startsWith(PARTITION_PREFIX))
+        {
+            return null;
+        }
+        String suffix = partitionName.substring(PARTITION_PREFIX.length());
+        if (suffix.length() != formatter.format(LocalDate.now()).length())
+        {
+            return null;
+        }
+        try
+        {
+            return parseStart(suffix);
+        }
+        catch (DateTimeParseException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.common.services.management.beans.audit.database;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * AuditQueryBuilder.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Построитель запросов к таблице аудита. В условие запроса попадают только фильтры,
+ * параметры которых переданы клиентом, что позволяет планировщику использовать индекс audit_index
+ * и отсекать секции. Текст запроса строится один раз для каждого набора переданных фильтров.
+ * Сортировка задается ключами, по которым также выполняется выборка страницы после токена продолжения
+ */
+public final class AuditQueryBuilder
+{
+    /**
+     * Текст запроса данных и запроса количества строк
+     */
+    public static final class Query
+    {
+        private final String select;
+        private final String count;
+        private final String estimate;
+        private final String keysetSelect;
+        private final String keysetNextSelect;
+
+        private Query(String select, String count, String estimate, String keysetSelect, String keysetNextSelect)
+        {
+            this.select = select;
+            this.count = count;
+            this.estimate = estimate;
+            this.keysetSelect = keysetSelect;
+            this.keysetNextSelect = keysetNextSelect;
+        }
+
+        /**
+         * Возвращает запрос данных
+         * @return текст запроса с форматом limit %s offset %d (all - без ограничения)
+         */
+        public String getSelect()
+        {
+            return select;
+        }
+
+        /**
+         * Возвращает запрос количества строк
+         * @return текст запроса
+         */
+        public String getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Возвращает запрос плана выборки для оценки количества строк
+         * @return текст запроса, результат - план в формате json
+         */
+        public String getEstimate()
+        {
+            return estimate;
+        }
+
+        /**
+         * Возвращает запрос данных с ключами сортировки в последних колонках (key0, key1, ...)
+         * @param next true - выборка строк после ключей :key0, :key1, ... последней строки предыдущей страницы
+         * @return текст запроса с параметром :limit
+         */
+        public String getKeysetSelect(boolean next)
+        {
+            return next ? keysetNextSelect : keysetSelect;
+        }
+    }
+
+    /**
+     * Ключ сортировки
+     */
+    private static final class Key
+    {
+        private final String expression;
+        private final String type;
+
+        private Key(String expression, String type)
+        {
+            this.expression = expression;
+            this.type = type;
+        }
+    }
+
+    private final String columns;
+    private final String from;
+    private final List<Key> keys = new ArrayList<>();
+    private final List<String> conditions = new ArrayList<>();
+    private String groupBy = "";
+    /**
+     * Условия фильтров по названию параметра, порядок определяет бит фильтра в ключе кэша
+     */
+    private final Map<String, String> filters = new LinkedHashMap<>();
+    private final List<String> filterParams = new ArrayList<>();
+    private final ConcurrentMap<Long, Query> queries = new ConcurrentHashMap<>();
+
+    /**
+     * @param columns колонки запроса данных
+     * @param from    таблица
+     */
+    public AuditQueryBuilder(String columns, String from)
+    {
+        this.columns = columns;
+        this.from = from;
+    }
+
+    /**
+     * Добавляет ключ сортировки по возрастанию. Ключи должны однозначно определять строку
+     * @param expression выражение ключа
+     * @param type       SQL тип ключа, значение ключа в токене продолжения хранится строкой
+     * @return построитель
+     */
+    public AuditQueryBuilder orderBy(String expression, String type)
+    {
+        keys.add(new Key(expression, type));
+        return this;
+    }
+
+    /**
+     * Возвращает описание сортировки для проверки токена продолжения
+     * @return описание сортировки
+     */
+    public String getSort()
+    {
+        StringJoiner sort = new StringJoiner(",", from + ":", "");
+        keys.forEach(key -> sort.add(key.expression));
+        return sort.toString();
+    }
+
+    /**
+     * Возвращает количество ключей сортировки
+     * @return количество ключей
+     */
+    public int getKeyCount()
+    {
+        return keys.size();
+    }
+
+    /**
+     * Задает группировку запроса данных, количество строк считается по группам
+     * (выборка по токену продолжения для группированного запроса не поддерживается)
+     * @param expressions выражения группировки
+     * @return построитель
+     */
+    public AuditQueryBuilder groupBy(String expressions)
+    {
+        groupBy = " group by " + expressions;
+        return this;
+    }
+
+    /**
+     * Добавляет условие, входящее в каждый запрос
+     * @param condition условие
+     * @return построитель
+     */
+    public AuditQueryBuilder where(String condition)
+    {
+        conditions.add(condition);
+        return this;
+    }
+
+    /**
+     * Добавляет фильтр, входящий в запрос, если передан параметр
+     * @param param     название параметра
+     * @param condition условие фильтра
+     * @return построитель
+     */
+    public AuditQueryBuilder filter(String param, String condition)
+    {
+        if (filters.put(param, condition) == null)
+        {
+            filterParams.add(param);
+        }
+        return this;
+    }
+
+    /**
+     * Возвращает запрос с фильтрами переданных параметров
+     * @param params названия переданных параметров, параметры без фильтров не учитываются
+     * @return запрос
+     */
+    public Query build(Collection<String> params)
+    {
+        long shape = 0;
+        for (int i = 0; i < filterParams.size(); i++)
+        {
+            if (params.contains(filterParams.get(i)))
+            {
+                shape |= 1L << i;
+            }
+        }
+        return queries.computeIfAbsent(shape, this::createQuery);
+    }
+
+    private Query createQuery(long shape)
+    {
+        StringJoiner where = new StringJoiner(" and ", " where ", "").setEmptyValue("");
+        conditions.forEach(where::add);
+        for (int i = 0; i < filterParams.size(); i++)
+        {
+            if ((shape & 1L << i) != 0)
+            {
+                where.add(filters.get(filterParams.get(i)));
+            }
+        }
+        StringJoiner orderBy = new StringJoiner(", ", " order by ", "");
+        StringJoiner keyColumns = new StringJoiner("");
+        StringJoiner keyExpressions = new StringJoiner(", ", "(", ")");
+        StringJoiner keyParams = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i < keys.size(); i++)
+        {
+            Key key = keys.get(i);
+            orderBy.add(key.expression);
+            keyColumns.add(", cast(" + key.expression + " as text) as key" + i);
+            keyExpressions.add(key.expression);
+            keyParams.add("cast(:key" + i + " as " + key.type + ")");
+        }
+        String seek = keyExpressions + " > " + keyParams;
+        String nextWhere = where.length() == 0 ? " where " + seek : where + " and " + seek;
+        return new Query(
+            "select " + columns + " from " + from + where + groupBy + orderBy + " limit %s offset %d",
+            groupBy.isEmpty() ? "select count(*) from " + from + where
+                : "select count(*) from (select 1 from " + from + where + groupBy + ") g",
+            "explain (format json) select 1 from " + from + where + groupBy,
+            "select " + columns + keyColumns + " from " + from + where + groupBy + orderBy + " limit :limit",
+            "select " + columns + keyColumns + " from " + from + nextWhere + groupBy + orderBy + " limit :limit");
+    }
+}
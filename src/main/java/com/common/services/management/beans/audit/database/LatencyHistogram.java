@@ -0,0 +1,95 @@
+package com.common.services.management.beans.audit.database;
+
+/**
+ * LatencyHistogram.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Гистограмма длительности ответов в мс с логарифмически-линейными корзинами: до 64 мс корзины
+ * шириной 1 мс, далее в каждом интервале [2^e, 2^(e+1)) по 32 корзины одинаковой ширины. Погрешность
+ * процентилей не более 1/32 значения. Гистограммы объединяются суммированием корзин, номера корзин
+ * совпадают с функцией audit_latency_bucket таблицы audit_request_latency
+ */
+public final class LatencyHistogram
+{
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKETS = 32;
+    /**
+     * Количество корзин для длительностей до Integer.MAX_VALUE
+     */
+    public static final int BUCKET_COUNT = getBucket(Integer.MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+
+    /**
+     * Возвращает номер корзины длительности
+     * @param duration длительность, мс
+     * @return номер корзины
+     */
+    public static int getBucket(int duration)
+    {
+        if (duration < LINEAR_BUCKETS)
+        {
+            return Math.max(duration, 0);
+        }
+        int e = 31 - Integer.numberOfLeadingZeros(duration);
+        return LINEAR_BUCKETS + (e - 6) * SUB_BUCKETS + (duration >> (e - 5)) - SUB_BUCKETS;
+    }
+
+    /**
+     * Возвращает наибольшую длительность корзины
+     * @param bucket номер корзины
+     * @return длительность, мс
+     */
+    public static int getHighestValue(int bucket)
+    {
+        if (bucket < LINEAR_BUCKETS)
+        {
+            return bucket;
+        }
+        int k = bucket - LINEAR_BUCKETS;
+        int shift = k / SUB_BUCKETS + 1;
+        return (int)(((long)(SUB_BUCKETS + k % SUB_BUCKETS + 1) << shift) - 1);
+    }
+
+    /**
+     * Добавляет количество ответов в корзину
+     * @param bucket номер корзины
+     * @param count  количество ответов
+     */
+    public void add(int bucket, long count)
+    {
+        counts[bucket] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Возвращает количество ответов
+     * @return количество ответов
+     */
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Возвращает длительность, не меньше которой длительность указанной доли ответов
+     * (наибольшая длительность корзины, в которую попадает процентиль)
+     * @param percentile процентиль от 0 до 100
+     * @return длительность, мс; 0 - гистограмма пуста
+     */
+    public int getValueAtPercentile(double percentile)
+    {
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * totalCount));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            count += counts[i];
+            if (count >= rank)
+            {
+                return getHighestValue(i);
+            }
+        }
+        return 0;
+    }
+}
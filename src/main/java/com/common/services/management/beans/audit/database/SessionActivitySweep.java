@@ -0,0 +1,136 @@
+package com.common.services.management.beans.audit.database;
+
+import com.common.services.management.beans.audit.model.users.SessionActivity;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * SessionActivitySweep.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Расчет активности сессий по интервалам периода. Сессия активна в интервале, если начата
+ * до его окончания и продолжалась после его начала. Наибольшее количество одновременных сессий
+ * рассчитывается проходом по упорядоченным началам и окончаниям сессий
+ */
+public final class SessionActivitySweep
+{
+    private final long from;
+    private final long to;
+    private final long bucket;
+    private final int[] sessions;
+    private final List<Set<String>> users;
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    private int count;
+
+    /**
+     * @param from   начало периода
+     * @param to     окончание периода (включая)
+     * @param bucket длительность интервала
+     */
+    public SessionActivitySweep(Instant from, Instant to, Duration bucket)
+    {
+        this.from = from.toEpochMilli();
+        this.to = to.toEpochMilli();
+        this.bucket = bucket.toMillis();
+        int buckets = getBucketCount(from, to, bucket);
+        sessions = new int[buckets];
+        users = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++)
+        {
+            users.add(new HashSet<>());
+        }
+    }
+
+    /**
+     * Возвращает количество интервалов периода, последний интервал может быть короче
+     * @param from   начало периода
+     * @param to     окончание периода (включая)
+     * @param bucket длительность интервала
+     * @return количество интервалов
+     */
+    public static int getBucketCount(Instant from, Instant to, Duration bucket)
+    {
+        long length = Math.max(0, to.toEpochMilli() - from.toEpochMilli());
+        return (int)Math.min(Integer.MAX_VALUE, Math.max(1, (length + bucket.toMillis() - 1) / bucket.toMillis()));
+    }
+
+    /**
+     * Добавляет сессию, часть сессии вне периода не учитывается
+     * @param user      пользователь сессии
+     * @param firstSeen время первого запроса сессии
+     * @param lastSeen  время последнего запроса сессии
+     */
+    public void add(String user, Instant firstSeen, Instant lastSeen)
+    {
+        long first = Math.max(firstSeen.toEpochMilli(), from);
+        long last = Math.min(lastSeen.toEpochMilli(), to);
+        if (first > last)
+        {
+            return;
+        }
+        for (int i = getBucket(first), end = getBucket(last); i <= end; i++)
+        {
+            sessions[i]++;
+            if (user != null)
+            {
+                users.get(i).add(user);
+            }
+        }
+        if (count == starts.length)
+        {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = first;
+        ends[count] = last;
+        count++;
+    }
+
+    /**
+     * Возвращает активность сессий по интервалам
+     * @return активность сессий в порядке интервалов
+     */
+    public List<SessionActivity> getActivity()
+    {
+        Arrays.sort(starts, 0, count);
+        Arrays.sort(ends, 0, count);
+        List<SessionActivity> result = new ArrayList<>(sessions.length);
+        int current = 0;
+        int s = 0;
+        int e = 0;
+        for (int i = 0; i < sessions.length; i++)
+        {
+            long end = i == sessions.length - 1 ? Long.MAX_VALUE : from + bucket * (i + 1);
+            // сессии, продолжающиеся с предыдущего интервала, активны в начале интервала
+            int peak = current;
+            while (s < count && starts[s] < end || e < count && ends[e] < end)
+            {
+                // при совпадении времени начало сессии учитывается раньше окончания другой
+                if (s < count && starts[s] < end && starts[s] <= ends[e])
+                {
+                    peak = Math.max(peak, ++current);
+                    s++;
+                }
+                else
+                {
+                    current--;
+                    e++;
+                }
+            }
+            result.add(new SessionActivity()
+                .setStartTime(Instant.ofEpochMilli(from + bucket * i))
+                .setSessions(sessions[i])
+                .setUsers(users.get(i).size())
+                .setPeakSessions(peak));
+        }
+        return result;
+    }
+
+    private int getBucket(long time)
+    {
+        return (int)Math.min(sessions.length - 1, (time - from) / bucket);
+    }
+}
@@ -0,0 +1,100 @@
+package com.common.services.management.beans.audit.export;
+
+import com.common.services.management.beans.audit.model.AuditCountMode;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * AuditTableWriter.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Запись выборки из таблицы аудита в поток вывода в формате Table (headers, rows, countRows,
+ * countType, continuation) по мере чтения строк из БД. Строки не накапливаются в памяти
+ */
+public class AuditTableWriter
+{
+    private final JsonGenerator generator;
+    /**
+     * Количество записанных строк
+     */
+    private int rowCount;
+
+    /**
+     * @param out        поток вывода, не закрывается
+     * @param jsonMapper объект для записи json
+     * @throws IOException ошибка записи
+     */
+    public AuditTableWriter(OutputStream out, ObjectMapper jsonMapper) throws IOException
+    {
+        generator = jsonMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Записывает названия колонок, вызывается перед записью строк
+     * @param headers названия колонок
+     * @throws IOException ошибка записи
+     */
+    public void writeHeaders(String[] headers) throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("headers");
+        for (String header : headers)
+        {
+            generator.writeString(header);
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("rows");
+    }
+
+    /**
+     * Записывает текущую строку выборки, null значения записываются пустой строкой
+     * @param rs      выборка
+     * @param columns количество записываемых колонок с начала строки
+     * @throws SQLException ошибка чтения выборки
+     * @throws IOException  ошибка записи
+     */
+    public void writeRow(ResultSet rs, int columns) throws SQLException, IOException
+    {
+        generator.writeStartArray();
+        for (int i = 1; i <= columns; ++i)
+        {
+            String value = rs.getString(i);
+            generator.writeString(value == null ? "" : value);
+        }
+        generator.writeEndArray();
+        rowCount++;
+    }
+
+    /**
+     * Возвращает количество записанных строк
+     * @return количество строк
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Записывает количество строк и токен продолжения и дописывает буферизованные данные в поток вывода
+     * @param countRows    общее количество строк
+     * @param countType    способ подсчета количества строк
+     * @param continuation токен продолжения, null если страница последняя
+     * @throws IOException ошибка записи
+     */
+    public void finish(int countRows, AuditCountMode countType, String continuation) throws IOException
+    {
+        generator.writeEndArray();
+        generator.writeNumberField("countRows", countRows);
+        generator.writeStringField("countType", countType.name());
+        generator.writeStringField("continuation", continuation);
+        generator.writeEndObject();
+        generator.close();
+    }
+}
@@ -0,0 +1,23 @@
+package com.common.services.management.beans.audit.model;
+
+/**
+ * AuditCountMode.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Способ подсчета общего количества строк выборки из таблицы аудита
+ */
+public enum AuditCountMode
+{
+    /**
+     * Количество не считается
+     */
+    NONE,
+    /**
+     * Оценка количества планировщиком запросов, без чтения строк
+     */
+    ESTIMATE,
+    /**
+     * Точное количество (count по всей выборке)
+     */
+    EXACT
+}
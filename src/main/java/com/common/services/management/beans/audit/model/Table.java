@@ -22,6 +22,14 @@ public class Table
      * Общее количество строк
      */
     private int countRows;
+    /**
+     * Способ подсчета общего количества строк
+     */
+    private AuditCountMode countType = AuditCountMode.EXACT;
+    /**
+     * Токен продолжения для получения следующей страницы, null если страница последняя
+     */
+    private String continuation;
     /**
      * Определить список названий столбцов
      * @param заголовки
@@ -58,4 +66,26 @@ public class Table
         this.countRows = countRows;
         return this;
     }
+
+    public AuditCountMode getCountType()
+    {
+        return countType;
+    }
+
+    public Table setCountType(AuditCountMode countType)
+    {
+        this.countType = countType;
+        return this;
+    }
+
+    public String getContinuation()
+    {
+        return continuation;
+    }
+
+    public Table setContinuation(String continuation)
+    {
+        this.continuation = continuation;
+        return this;
+    }
 }
@@ -0,0 +1,116 @@
+package com.common.services.management.beans.audit.model.metrics;
+
+/**
+ * LatencyPercentiles.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Процентили длительности ответов за период по методу и шаблону пути
+ */
+public class LatencyPercentiles
+{
+    /**
+     * Метод запроса
+     */
+    private String method;
+    /**
+     * Шаблон пути запроса, числовые и uuid сегменты заменены на {id}
+     */
+    private String path;
+    /**
+     * Количество ответов
+     */
+    private long requests;
+    /**
+     * Медиана длительности ответа, мс
+     */
+    private int p50;
+    /**
+     * 90-й процентиль длительности ответа, мс
+     */
+    private int p90;
+    /**
+     * 99-й процентиль длительности ответа, мс
+     */
+    private int p99;
+    /**
+     * Наибольшая длительность ответа, мс
+     */
+    private int max;
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public LatencyPercentiles setMethod(String method)
+    {
+        this.method = method;
+        return this;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public LatencyPercentiles setPath(String path)
+    {
+        this.path = path;
+        return this;
+    }
+
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    public LatencyPercentiles setRequests(long requests)
+    {
+        this.requests = requests;
+        return this;
+    }
+
+    public int getP50()
+    {
+        return p50;
+    }
+
+    public LatencyPercentiles setP50(int p50)
+    {
+        this.p50 = p50;
+        return this;
+    }
+
+    public int getP90()
+    {
+        return p90;
+    }
+
+    public LatencyPercentiles setP90(int p90)
+    {
+        this.p90 = p90;
+        return this;
+    }
+
+    public int getP99()
+    {
+        return p99;
+    }
+
+    public LatencyPercentiles setP99(int p99)
+    {
+        this.p99 = p99;
+        return this;
+    }
+
+    public int getMax()
+    {
+        return max;
+    }
+
+    public LatencyPercentiles setMax(int max)
+    {
+        this.max = max;
+        return this;
+    }
+}
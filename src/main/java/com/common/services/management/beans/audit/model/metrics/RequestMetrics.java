@@ -0,0 +1,118 @@
+package com.common.services.management.beans.audit.model.metrics;
+
+import java.time.Instant;
+
+/**
+ * RequestMetrics.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Сводка ответов за интервал времени по методу, шаблону пути и классу статуса
+ */
+public class RequestMetrics
+{
+    /**
+     * Начало интервала
+     */
+    private Instant startTime;
+    /**
+     * Метод запроса
+     */
+    private String method;
+    /**
+     * Шаблон пути запроса, числовые и uuid сегменты заменены на {id}
+     */
+    private String path;
+    /**
+     * Класс статуса ответа (2xx, 4xx, ...)
+     */
+    private String statusClass;
+    /**
+     * Количество ответов
+     */
+    private long requests;
+    /**
+     * Суммарная длительность ответов, мс
+     */
+    private long durationSum;
+    /**
+     * Наибольшая длительность ответа, мс
+     */
+    private int durationMax;
+
+    public Instant getStartTime()
+    {
+        return startTime;
+    }
+
+    public RequestMetrics setStartTime(Instant startTime)
+    {
+        this.startTime = startTime;
+        return this;
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public RequestMetrics setMethod(String method)
+    {
+        this.method = method;
+        return this;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public RequestMetrics setPath(String path)
+    {
+        this.path = path;
+        return this;
+    }
+
+    public String getStatusClass()
+    {
+        return statusClass;
+    }
+
+    public RequestMetrics setStatusClass(String statusClass)
+    {
+        this.statusClass = statusClass;
+        return this;
+    }
+
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    public RequestMetrics setRequests(long requests)
+    {
+        this.requests = requests;
+        return this;
+    }
+
+    public long getDurationSum()
+    {
+        return durationSum;
+    }
+
+    public RequestMetrics setDurationSum(long durationSum)
+    {
+        this.durationSum = durationSum;
+        return this;
+    }
+
+    public int getDurationMax()
+    {
+        return durationMax;
+    }
+
+    public RequestMetrics setDurationMax(int durationMax)
+    {
+        this.durationMax = durationMax;
+        return this;
+    }
+}
@@ -12,20 +12,11 @@ public class SQLStatementParameter
      * Название параметра
      */
     private String param;
-    /**
-     * Название признака, использовать ли параметр в select запросе
-     */
-    private String paramSign;
-    /**
-     * Значение параметра по умолчанию
-     */
-    protected String defaultValue = "";
     
-    public SQLStatementParameter(String param, String paramSign)
+    public SQLStatementParameter(String param)
     {
         super();
         this.param = param;
-        this.paramSign = paramSign;
     }
 
     public String getParam()
@@ -33,16 +24,6 @@ public class SQLStatementParameter
         return param;
     }
 
-    public String getParamSign()
-    {
-        return paramSign;
-    }
-
-    public String getDefaultValue()
-    {
-        return defaultValue;
-    }
-    
     public Object getObject(String value)
     {
         return value;
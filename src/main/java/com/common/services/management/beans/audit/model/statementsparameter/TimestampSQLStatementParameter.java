@@ -11,10 +11,9 @@ import java.sql.Timestamp;
 public class TimestampSQLStatementParameter
     extends SQLStatementParameter
 {
-    public TimestampSQLStatementParameter(String param, String paramSign)
+    public TimestampSQLStatementParameter(String param)
     {
-        super(param, paramSign);
-        defaultValue = "1970-01-01 00:00:00";
+        super(param);
     }
 
     @Override
@@ -12,9 +12,9 @@ public class UserSQLStatementParameter
     extends SQLStatementParameter
 {
 
-    public UserSQLStatementParameter(String param, String paramSign)
+    public UserSQLStatementParameter(String param)
     {
-        super(param, paramSign);
+        super(param);
     }
 
     @Override
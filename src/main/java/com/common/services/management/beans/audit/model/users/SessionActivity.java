@@ -0,0 +1,73 @@
+package com.common.services.management.beans.audit.model.users;
+
+import java.time.Instant;
+
+/**
+ * SessionActivity.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Активность сессий пользователей за интервал времени
+ */
+public class SessionActivity
+{
+    /**
+     * Начало интервала
+     */
+    private Instant startTime;
+    /**
+     * Количество сессий, активных в интервале
+     */
+    private int sessions;
+    /**
+     * Количество разных пользователей сессий, активных в интервале
+     */
+    private int users;
+    /**
+     * Наибольшее количество одновременно активных сессий в интервале
+     */
+    private int peakSessions;
+
+    public Instant getStartTime()
+    {
+        return startTime;
+    }
+
+    public SessionActivity setStartTime(Instant startTime)
+    {
+        this.startTime = startTime;
+        return this;
+    }
+
+    public int getSessions()
+    {
+        return sessions;
+    }
+
+    public SessionActivity setSessions(int sessions)
+    {
+        this.sessions = sessions;
+        return this;
+    }
+
+    public int getUsers()
+    {
+        return users;
+    }
+
+    public SessionActivity setUsers(int users)
+    {
+        this.users = users;
+        return this;
+    }
+
+    public int getPeakSessions()
+    {
+        return peakSessions;
+    }
+
+    public SessionActivity setPeakSessions(int peakSessions)
+    {
+        this.peakSessions = peakSessions;
+        return this;
+    }
+}
@@ -0,0 +1,68 @@
+package com.common.services.management.beans.management.access;
+
+import com.common.services.management.beans.management.model.Permission;
+import com.common.services.management.beans.management.model.Role;
+import org.springframework.http.HttpMethod;
+
+import java.util.*;
+
+/**
+ * AccessRules.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Скомпилированные правила доступа - дерево путей пермиссий для каждого http метода
+ */
+public class AccessRules
+{
+    private final Map<HttpMethod, PathTrie> tries = new EnumMap<>(HttpMethod.class);
+
+    /**
+     * Компилирует правила доступа по ролям с их пермиссиями
+     * @param roles роли с пермиссиями
+     * @return правила доступа
+     */
+    public static AccessRules compile(Collection<Role> roles)
+    {
+        // Соберем роли каждой пермиссии, чтобы каждый шаблон попал в дерево один раз
+        Map<HttpMethod, Map<String, Set<String>>> patterns = new EnumMap<>(HttpMethod.class);
+        for (Role role : roles)
+        {
+            if (role.getPermissions() == null)
+            {
+                continue;
+            }
+            for (Permission permission : role.getPermissions())
+            {
+                if (permission.getMethod() == null || permission.getPath() == null)
+                {
+                    continue;
+                }
+                patterns.computeIfAbsent(permission.getMethod(), method -> new HashMap<>())
+                        .computeIfAbsent(permission.getPath(), path -> new HashSet<>())
+                        .add(role.getName());
+            }
+        }
+
+        AccessRules rules = new AccessRules();
+        patterns.forEach((method, paths) ->
+        {
+            PathTrie trie = new PathTrie();
+            paths.forEach(trie::add);
+            rules.tries.put(method, trie);
+        });
+        return rules;
+    }
+
+    /**
+     * Проверяет доступ к пути
+     * @param method http метод запроса
+     * @param path   путь запроса
+     * @param roles  роли пользователя
+     * @return true если хотя бы одной из ролей разрешен доступ
+     */
+    public boolean isAllowed(HttpMethod method, String path, Set<String> roles)
+    {
+        PathTrie trie = method == null ? null : tries.get(method);
+        return trie != null && trie.isAllowed(path, roles);
+    }
+}
@@ -0,0 +1,177 @@
+package com.common.services.management.beans.management.access;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+
+import java.util.*;
+
+/**
+ * PathTrie.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Дерево сегментов путей пермиссий для одного http метода.
+ * Сегменты без шаблонов хранятся как точные узлы, сегменты с '*', '?' или '{переменная}' - как узел любого
+ * одного сегмента, '**' - как узел любого количества сегментов. Обход дерева отбирает кандидатов,
+ * окончательная проверка кандидата выполняется {@link AntPathMatcher}, поэтому результат совпадает
+ * с линейной проверкой всех шаблонов.
+ */
+public class PathTrie
+{
+    private static final String SEPARATOR = "/";
+    private static final String MULTI_SEGMENT = "**";
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Узел дерева
+     */
+    private static class Node
+    {
+        private Map<String, Node> literals;
+        private Node single;
+        private Node multi;
+        private List<Rule> rules;
+    }
+
+    /**
+     * Шаблон пути с ролями, которым он разрешен
+     */
+    private static class Rule
+    {
+        private final String pattern;
+        private final Set<String> roles;
+
+        private Rule(String pattern, Set<String> roles)
+        {
+            this.pattern = pattern;
+            this.roles = roles;
+        }
+    }
+
+    /**
+     * Добавляет шаблон пути
+     * @param pattern шаблон пути в формате {@link AntPathMatcher}
+     * @param roles   роли, которым разрешен путь
+     */
+    public void add(String pattern, Set<String> roles)
+    {
+        Node node = root;
+        for (String segment : tokenize(pattern))
+        {
+            if (MULTI_SEGMENT.equals(segment))
+            {
+                if (node.multi == null)
+                {
+                    node.multi = new Node();
+                }
+                node = node.multi;
+            }
+            else if (isPattern(segment))
+            {
+                if (node.single == null)
+                {
+                    node.single = new Node();
+                }
+                node = node.single;
+            }
+            else
+            {
+                if (node.literals == null)
+                {
+                    node.literals = new HashMap<>();
+                }
+                node = node.literals.computeIfAbsent(segment, key -> new Node());
+            }
+        }
+        if (node.rules == null)
+        {
+            node.rules = new ArrayList<>(1);
+        }
+        node.rules.add(new Rule(pattern, roles));
+        size++;
+    }
+
+    /**
+     * Возвращает количество шаблонов в дереве
+     * @return количество шаблонов
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Проверяет, разрешен ли путь хотя бы одной из ролей
+     * @param path  путь запроса
+     * @param roles роли пользователя
+     * @return true если путь разрешен
+     */
+    public boolean isAllowed(String path, Set<String> roles)
+    {
+        if (path == null || roles.isEmpty())
+        {
+            return false;
+        }
+        return walk(root, tokenize(path), 0, path, roles);
+    }
+
+    private boolean walk(Node node, String[] segments, int index, String path, Set<String> roles)
+    {
+        if (index == segments.length && check(node.rules, path, roles))
+        {
+            return true;
+        }
+        if (node.multi != null)
+        {
+            // '**' поглощает от нуля до всех оставшихся сегментов
+            for (int i = index; i <= segments.length; i++)
+            {
+                if (walk(node.multi, segments, i, path, roles))
+                {
+                    return true;
+                }
+            }
+        }
+        if (index == segments.length)
+        {
+            return false;
+        }
+        if (node.literals != null)
+        {
+            Node next = node.literals.get(segments[index]);
+            if (next != null && walk(next, segments, index + 1, path, roles))
+            {
+                return true;
+            }
+        }
+        return node.single != null && walk(node.single, segments, index + 1, path, roles);
+    }
+
+    private boolean check(List<Rule> rules, String path, Set<String> roles)
+    {
+        if (rules == null)
+        {
+            return false;
+        }
+        for (Rule rule : rules)
+        {
+            if (!Collections.disjoint(rule.roles, roles) && matcher.match(rule.pattern, path))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] tokenize(String path)
+    {
+        return StringUtils.tokenizeToStringArray(path, SEPARATOR, false, true);
+    }
+
+    private static boolean isPattern(String segment)
+    {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+    }
+}
@@ -0,0 +1,94 @@
+package com.common.services.management.beans.management.database;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * IndexedRowMapper.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Базовый класс объектов преобразования строк выборки, которые определяют индексы колонок
+ * по первой строке выборки, а не по названию колонки для каждого значения каждой строки.
+ * Объект запоминает индексы колонок своей выборки, поэтому для каждого запроса создается новый объект
+ * @param <T> тип объекта строки
+ * @param <C> тип индексов колонок
+ */
+abstract class IndexedRowMapper<T, C>
+        implements RowMapper<T>
+{
+    /**
+     * Префикс названий колонок, например для колонок соединенной таблицы
+     */
+    private final String prefix;
+    /**
+     * Индексы колонок выборки, определяются при преобразовании первой строки
+     */
+    private C columns;
+
+    IndexedRowMapper(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public T mapRow(ResultSet rs, int rowNum) throws SQLException
+    {
+        if (columns == null)
+        {
+            columns = resolve(rs);
+        }
+        return mapRow(rs, columns);
+    }
+
+    /**
+     * Определяет индексы колонок выборки
+     * @param rs выборка
+     * @return индексы колонок
+     * @throws SQLException в выборке нет обязательной колонки
+     */
+    protected abstract C resolve(ResultSet rs) throws SQLException;
+
+    /**
+     * Преобразует текущую строку выборки
+     * @param rs      выборка
+     * @param columns индексы колонок выборки
+     * @return объект строки
+     * @throws SQLException ошибка чтения выборки
+     */
+    protected abstract T mapRow(ResultSet rs, C columns) throws SQLException;
+
+    /**
+     * Возвращает индекс обязательной колонки
+     * @param rs   выборка
+     * @param name название колонки без префикса
+     * @return индекс колонки
+     * @throws SQLException колонки нет в выборке
+     */
+    protected int column(ResultSet rs, String name) throws SQLException
+    {
+        return rs.findColumn(prefix + name);
+    }
+
+    /**
+     * Возвращает индекс необязательной колонки
+     * @param rs   выборка
+     * @param name название колонки без префикса
+     * @return индекс колонки, 0 если колонки нет в выборке
+     * @throws SQLException ошибка чтения описания выборки
+     */
+    protected int optionalColumn(ResultSet rs, String name) throws SQLException
+    {
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++)
+        {
+            if (metaData.getColumnLabel(i).equalsIgnoreCase(prefix + name))
+            {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,84 @@
+package com.common.services.management.beans.management.database;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.*;
+
+/**
+ * LdapGroupRoleIndex.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Индекс связей LDAP групп и ролей (таблица ldap_roles) для расчета ролей пользователей при синхронизации.
+ * Группа в ldap_roles может быть указана полным DN или названием (значение первого RDN, обычно cn),
+ * сравнение без учета регистра
+ */
+final class LdapGroupRoleIndex
+{
+    private final Map<String, Set<String>> rolesByGroup = new HashMap<>();
+    private final Set<String> roles = new HashSet<>();
+
+    /**
+     * Добавляет связь группы и роли
+     * @param group LDAP группа
+     * @param role  роль
+     */
+    void add(String group, String role)
+    {
+        rolesByGroup.computeIfAbsent(group.toLowerCase(), key -> new HashSet<>()).add(role);
+        roles.add(role);
+    }
+
+    /**
+     * Возвращает роли, назначаемые через LDAP группы. Остальные роли пользователя синхронизация не изменяет
+     * @return роли
+     */
+    Set<String> getRoles()
+    {
+        return roles;
+    }
+
+    /**
+     * Возвращает роли, назначаемые пользователю по его группам
+     * @param groups DN групп пользователя
+     * @return роли пользователя
+     */
+    Set<String> resolve(Collection<String> groups)
+    {
+        Set<String> result = new HashSet<>();
+        for (String group : groups)
+        {
+            String dn = group.toLowerCase();
+            result.addAll(rolesByGroup.getOrDefault(dn, Collections.emptySet()));
+            String name = getName(dn);
+            if (name != null)
+            {
+                result.addAll(rolesByGroup.getOrDefault(name, Collections.emptySet()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает название группы - значение первого RDN
+     * @param dn DN группы
+     * @return название группы, null если DN некорректный или не отличается от названия
+     */
+    private static String getName(String dn)
+    {
+        try
+        {
+            List<Rdn> rdns = new LdapName(dn).getRdns();
+            if (rdns.isEmpty())
+            {
+                return null;
+            }
+            String name = rdns.get(rdns.size() - 1).getValue().toString();
+            return name.equals(dn) ? null : name;
+        }
+        catch (InvalidNameException e)
+        {
+            return null;
+        }
+    }
+}
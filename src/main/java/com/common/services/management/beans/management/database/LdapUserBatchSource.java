@@ -0,0 +1,22 @@
+package com.common.services.management.beans.management.database;
+
+import com.common.services.management.beans.management.model.LdapUser;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * LdapUserBatchSource.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Источник пользователей LDAP с группами, передающий их порциями по мере постраничного чтения
+ */
+@FunctionalInterface
+public interface LdapUserBatchSource
+{
+    /**
+     * Читает пользователей и передает каждую прочитанную порцию обработчику
+     * @param consumer обработчик порции пользователей
+     */
+    void forEachBatch(Consumer<Collection<LdapUser>> consumer);
+}
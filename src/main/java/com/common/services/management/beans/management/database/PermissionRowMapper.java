@@ -0,0 +1,67 @@
+package com.common.services.management.beans.management.database;
+
+import com.common.services.management.beans.management.model.Permission;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * PermissionRowMapper.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Преобразование строки выборки в пермиссию.
+ * Колонки: id, description, path, method, необязательная json_data (строкой без разбора)
+ */
+public class PermissionRowMapper
+        extends IndexedRowMapper<Permission, PermissionRowMapper.PermissionColumns>
+{
+    static class PermissionColumns
+    {
+        private int id;
+        private int description;
+        private int path;
+        private int method;
+        private int jsonData;
+    }
+
+    public PermissionRowMapper()
+    {
+        this("");
+    }
+
+    /**
+     * Конструктор
+     * @param prefix префикс названий колонок
+     */
+    public PermissionRowMapper(String prefix)
+    {
+        super(prefix);
+    }
+
+    @Override
+    protected PermissionColumns resolve(ResultSet rs) throws SQLException
+    {
+        PermissionColumns columns = new PermissionColumns();
+        columns.id = column(rs, "id");
+        columns.description = column(rs, "description");
+        columns.path = column(rs, "path");
+        columns.method = column(rs, "method");
+        columns.jsonData = optionalColumn(rs, "json_data");
+        return columns;
+    }
+
+    @Override
+    protected Permission mapRow(ResultSet rs, PermissionColumns columns) throws SQLException
+    {
+        Permission permission = new Permission();
+        permission.setId(rs.getInt(columns.id));
+        permission.setDescription(rs.getString(columns.description));
+        permission.setPath(rs.getString(columns.path));
+        permission.setMethod(rs.getString(columns.method));
+        if (columns.jsonData > 0)
+        {
+            permission.setRawJsonData(rs.getString(columns.jsonData));
+        }
+        return permission;
+    }
+}
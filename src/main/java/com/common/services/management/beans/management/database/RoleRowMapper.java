@@ -0,0 +1,58 @@
+package com.common.services.management.beans.management.database;
+
+import com.common.services.management.beans.management.model.Role;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * RoleRowMapper.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Преобразование строки выборки в роль.
+ * Колонки: name, description, json_data (строкой без разбора)
+ */
+public class RoleRowMapper
+        extends IndexedRowMapper<Role, RoleRowMapper.RoleColumns>
+{
+    static class RoleColumns
+    {
+        private int name;
+        private int description;
+        private int jsonData;
+    }
+
+    public RoleRowMapper()
+    {
+        this("");
+    }
+
+    /**
+     * Конструктор
+     * @param prefix префикс названий колонок
+     */
+    public RoleRowMapper(String prefix)
+    {
+        super(prefix);
+    }
+
+    @Override
+    protected RoleColumns resolve(ResultSet rs) throws SQLException
+    {
+        RoleColumns columns = new RoleColumns();
+        columns.name = column(rs, "name");
+        columns.description = column(rs, "description");
+        columns.jsonData = column(rs, "json_data");
+        return columns;
+    }
+
+    @Override
+    protected Role mapRow(ResultSet rs, RoleColumns columns) throws SQLException
+    {
+        Role role = new Role();
+        role.setName(rs.getString(columns.name));
+        role.setDescription(rs.getString(columns.description));
+        role.setRawJsonData(rs.getString(columns.jsonData));
+        return role;
+    }
+}
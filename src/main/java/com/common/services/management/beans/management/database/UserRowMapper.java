@@ -0,0 +1,83 @@
+package com.common.services.management.beans.management.database;
+
+import com.common.services.management.beans.management.model.Role;
+import com.common.services.management.beans.management.model.User;
+import com.common.services.management.libs.RawJson;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UserRowMapper.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Преобразование строки выборки в пользователя.
+ * Колонки: user_id, username, enabled, email, ldap, json_data (строкой без разбора),
+ * необязательная roles - json массив ролей пользователя
+ */
+public class UserRowMapper
+        extends IndexedRowMapper<User, UserRowMapper.UserColumns>
+{
+    private static final ObjectReader ROLES_READER = RawJson.readerFor(new TypeReference<List<Role>>(){});
+
+    static class UserColumns
+    {
+        private int id;
+        private int name;
+        private int enabled;
+        private int email;
+        private int ldap;
+        private int jsonData;
+        private int roles;
+    }
+
+    public UserRowMapper()
+    {
+        this("");
+    }
+
+    /**
+     * Конструктор
+     * @param prefix префикс названий колонок
+     */
+    public UserRowMapper(String prefix)
+    {
+        super(prefix);
+    }
+
+    @Override
+    protected UserColumns resolve(ResultSet rs) throws SQLException
+    {
+        UserColumns columns = new UserColumns();
+        columns.id = column(rs, "user_id");
+        columns.name = column(rs, "username");
+        columns.enabled = column(rs, "enabled");
+        columns.email = column(rs, "email");
+        columns.ldap = column(rs, "ldap");
+        columns.jsonData = column(rs, "json_data");
+        columns.roles = optionalColumn(rs, "roles");
+        return columns;
+    }
+
+    @Override
+    protected User mapRow(ResultSet rs, UserColumns columns) throws SQLException
+    {
+        User user = new User();
+        user.setId(rs.getInt(columns.id));
+        user.setName(rs.getString(columns.name));
+        user.setEnabled(rs.getBoolean(columns.enabled));
+        user.setEmail(rs.getString(columns.email));
+        user.setLdap(rs.getBoolean(columns.ldap));
+        user.setRawJsonData(rs.getString(columns.jsonData));
+        if (columns.roles > 0)
+        {
+            List<Role> roles = RawJson.parse(ROLES_READER, rs.getString(columns.roles));
+            user.setRoles(roles == null ? new ArrayList<>() : roles);
+        }
+        return user;
+    }
+}
@@ -0,0 +1,21 @@
+package com.common.services.management.beans.management.database;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * UsernameBatchSource.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Источник логинов пользователей, передающий их порциями по мере чтения,
+ * например, постраничное чтение пользователей LDAP
+ */
+@FunctionalInterface
+public interface UsernameBatchSource
+{
+    /**
+     * Читает логины и передает каждую прочитанную порцию обработчику
+     * @param consumer обработчик порции логинов
+     */
+    void forEachBatch(Consumer<Collection<String>> consumer);
+}
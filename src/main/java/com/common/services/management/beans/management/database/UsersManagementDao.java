@@ -3,8 +3,11 @@ package com.common.services.management.beans.management.database;
 import com.common.services.management.beans.management.model.*;
 import com.common.services.management.filters.UsersFilter;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * UsersManagementDao.java
@@ -28,6 +31,14 @@ public interface UsersManagementDao
      */
     User getUser(int id);
 
+    /**
+     * Возвращает данные пользователя с указанным id вместе с его ролями одним запросом
+     * @param id              id пользователя
+     * @param withPermissions true - роли возвращаются с их пермиссиями
+     * @return возвращает данные пользователя со списком ролей, отсортированным по названию
+     */
+    User getFullUser(int id, boolean withPermissions);
+
     /**
      * Добавляет пользователя
      * Пользователя с указанным логином не должно быть в БД
@@ -86,6 +97,24 @@ public interface UsersManagementDao
      */
     List<User> getAllUsers(boolean withRoles, UsersFilter filter, Pageable pageable);
 
+    /**
+     * Возвращает страницу списка пользователей, следующую за строкой из токена продолжения.
+     * В отличие от выборки со смещением, время получения страницы не зависит от ее номера
+     * @param filter фильтр пользователей
+     * @param sort   сортировка пользователей
+     * @param size   количество пользователей на странице
+     * @param token  токен продолжения из предыдущей страницы, null - первая страница
+     * @return страница пользователей с токеном продолжения для следующей страницы
+     */
+    UsersPage getUsersPage(UsersFilter filter, Sort sort, int size, String token);
+
+    /**
+     * Передает всех пользователей по порядку id обработчику строк по мере чтения из БД.
+     * Колонки выборки: user_id, username, enabled, email, ldap, json_data
+     * @param handler обработчик строк выборки
+     */
+    void exportUsers(RowCallbackHandler handler);
+
     /**
      * Обновляет данные роли
      * Роль с указанным названием должна существовать в БД
@@ -231,6 +260,49 @@ public interface UsersManagementDao
      */
     void setUserEnabled(int userId, boolean enabled);
 
+    /**
+     * Синхронизирует пользователей БД со списком пользователей LDAP в одной транзакции:
+     * добавляет отсутствующих пользователей, открывает доступ и ставит метку ldap существующим,
+     * закрывает доступ LDAP пользователям, которых нет в списке
+     * Логины читаются из источника порциями внутри транзакции и в памяти не накапливаются.
+     * Пользователям с прочитанными группами назначаются роли LDAP групп (ldap_roles), записываются только
+     * отличия от текущих ролей
+     * @param source источник LDAP пользователей, логины приведены к нижнему регистру
+     * @param full   true - источник содержит всех пользователей LDAP, отсутствующим в нем закрывается доступ;
+     *               false - источник содержит только измененных пользователей
+     * @return количество добавленных, включенных и отключенных пользователей, назначенных и снятых ролей
+     */
+    LdapSyncResult synchronizeLdapUsers(LdapUserBatchSource source, boolean full);
+
+    /**
+     * Синхронизация БД с пользователями каталога LDAP под advisory блокировкой каталога: одновременно
+     * каталог синхронизирует не более одного узла сервиса. Отметка синхронизации сохраняется в той же транзакции
+     * @param directory каталог LDAP
+     * @param source    источник LDAP пользователей, логины приведены к нижнему регистру
+     * @param mark      отметка синхронизации, запрашивается после чтения всех пользователей источника
+     * @param full      true - источник содержит всех пользователей LDAP, отсутствующим в нем закрывается доступ;
+     *                  false - источник содержит только измененных пользователей
+     * @return результат синхронизации, null если каталог синхронизирует другой узел сервиса
+     */
+    LdapSyncResult synchronizeLdapDirectory(String directory, LdapUserBatchSource source, Supplier<String> mark,
+                                            boolean full);
+
+    /**
+     * Возвращает отметку последней синхронизации с каталогом LDAP: наибольшее значение
+     * modifyTimestamp (или uSNChanged) прочитанных записей
+     * @param directory каталог LDAP
+     * @return отметка, null если синхронизация не выполнялась
+     */
+    String getLdapSyncMark(String directory);
+
+    /**
+     * Сохраняет отметку синхронизации с каталогом LDAP и время синхронизации
+     * @param directory каталог LDAP
+     * @param mark      отметка, null - отметка не изменяется
+     * @param full      true - выполнена полная синхронизация
+     */
+    void saveLdapSyncMark(String directory, String mark, boolean full);
+
     /**
      * Возвращает пароль указанного пользователя
      * @param userId id пользователя
@@ -1,16 +1,24 @@
 package com.common.services.management.beans.management.database;
 
 import com.common.services.management.beans.management.model.*;
+import com.common.services.management.beans.management.snapshot.AuthChangeNotifier;
+import com.common.services.management.beans.management.snapshot.AuthDataChangedEvent;
 import com.common.services.management.beans.serv.exceptions.NotFoundException;
 import com.common.services.management.beans.serv.exceptions.ServiceException;
 import com.common.services.management.beans.serv.exceptions.UserNotFoundException;
 import com.common.services.management.datasource.DataSourceManager;
 import com.common.services.management.filters.UsersFilter;
+import com.common.services.management.libs.ContinuationToken;
+import com.common.services.management.libs.RawJson;
 import com.common.services.management.logging.Logger;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -19,10 +27,14 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
 import org.springframework.jdbc.datasource.init.ScriptUtils;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -38,12 +50,17 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import static com.common.services.management.beans.management.service.UsersManagementService.*;
+import static com.common.services.management.beans.management.snapshot.AuthDataChangedEvent.Entity.*;
 import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
@@ -64,7 +81,14 @@ public class UsersManagementDaoImpl
      */
     public static final String DB_CONFIG_NAME = "auth";
     private static final String RESOURCE_CREATE_TABLES = "/db_auth_create_tables.sql";
+    private static final String RESOURCE_MIGRATE_JSONB = "/db_auth_migrate_jsonb.sql";
 
+    private static final String SQL_JSON_DATA_TYPE = "SELECT data_type FROM information_schema.columns " +
+            "WHERE table_schema = current_schema() AND table_name = 'users' AND column_name = 'json_data'";
+
+    private static final String SQL_CREATE_LDAP_SYNC_STATE = "CREATE TABLE IF NOT EXISTS ldap_sync_state (" +
+            "directory varchar(1024) PRIMARY KEY, mark varchar(64), last_full_sync timestamp, " +
+            "last_delta_sync timestamp)";
     private static final String SQL_VALIDATE_USERS = "SELECT username FROM users LIMIT 1";
     private static final String SQL_VALIDATE_ROLES = "SELECT name FROM roles LIMIT 1";
     private static final String SQL_VALIDATE_PERMISSIONS = "SELECT id FROM permissions LIMIT 1";
@@ -79,6 +103,39 @@ public class UsersManagementDaoImpl
 
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    /**
+     * Шаблон запросов выгрузки, строки читаются из БД порциями по exportFetchSize
+     */
+    private JdbcTemplate exportJdbcTemplate;
+
+    @Value("${users.export.fetch.size:1000}")
+    private int exportFetchSize;
+
+    /**
+     * Перевод json_data в jsonb при запуске. Перевод перезаписывает таблицы под блокировкой, поэтому выключен
+     * по умолчанию: выполняется скриптом db_auth_migrate_jsonb.sql в окно обслуживания или запуском одного узла
+     * с этим параметром
+     */
+    @Value("${auth.jsonb.enabled:false}")
+    private boolean jsonbEnabled;
+
+    /**
+     * Часто используемые для сортировки поля jsonData пользователей, для них создаются индексы
+     */
+    @Value("${auth.jsonb.sort-keys:}")
+    private String[] jsonSortKeys;
+
+    /**
+     * Количество логинов, передаваемых в БД одним массивом при синхронизации с LDAP
+     */
+    @Value("${ldap.sync.batch.size:5000}")
+    private int ldapSyncBatchSize;
+
+    /**
+     * true если json_data пользователей хранится в jsonb
+     */
+    private boolean jsonb;
+
     @Autowired
     private ObjectMapper jsonMapper;
 
@@ -104,6 +161,15 @@ public class UsersManagementDaoImpl
     private static final String ERROR_ROLE_FROM_LIST_NOT__EXIST = "error.auth.roleFromListNotExist";
     private static final String ERROR_ROLE_LDAP_GROUP_NOT_EXIST = "error.auth.roleLDAPGroupNotExist";
     private static final String ERROR_GET_USERS_INVALID_FILTER = "error.auth.getUsersInvalidFilter";
+    private static final String ERROR_INVALID_CONTINUATION_TOKEN = "error.auth.invalidContinuationToken";
+    private static final String ERROR_INVALID_SORT_FIELD = "error.auth.invalidSortField";
+
+    /**
+     * Допустимые названия полей jsonData для сортировки по токену продолжения
+     */
+    private static final Pattern JSON_FIELD_PATTERN = Pattern.compile("[\\w.-]+");
+
+    private static final ObjectReader JSON_MAP_READER = RawJson.readerFor(new TypeReference<Map<String, Object>>(){});
 
     /**
      * Объект для генерации исключения
@@ -118,6 +184,12 @@ public class UsersManagementDaoImpl
     @Autowired
     private Logger logger;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private AuthChangeNotifier authChangeNotifier;
+
     /**
      * Подключение менеджера конфигураций БД
      */
@@ -141,7 +213,84 @@ public class UsersManagementDaoImpl
     public void init()
     {
         jdbcTemplate = new NamedParameterJdbcTemplate(getDataSource());
+        exportJdbcTemplate = new JdbcTemplate(getDataSource());
+        exportJdbcTemplate.setFetchSize(exportFetchSize);
         initTables();
+        initLdapSyncState();
+        initJsonb();
+        initJsonSortIndexes();
+    }
+
+    /**
+     * Создает таблицу состояния синхронизации с LDAP в БД, созданных до ее появления
+     */
+    private void initLdapSyncState()
+    {
+        try
+        {
+            jdbcTemplate.getJdbcOperations().execute(SQL_CREATE_LDAP_SYNC_STATE);
+        }
+        catch (DataAccessException e)
+        {
+            logger.error("Ошибка создания таблицы состояния синхронизации с LDAP", e);
+        }
+    }
+
+    /**
+     * Определяет тип json_data и переводит его в jsonb, если это разрешено и еще не выполнено.
+     * Скрипт перевода выполняется под advisory блокировкой и пропускает уже переведенные таблицы,
+     * поэтому узлы, запущенные одновременно, не переводят таблицы повторно
+     */
+    private void initJsonb()
+    {
+        try
+        {
+            jsonb = "jsonb".equals(jdbcTemplate.getJdbcOperations().queryForObject(SQL_JSON_DATA_TYPE, String.class));
+            if (!jsonb && jsonbEnabled)
+            {
+                logger.debug("Перевод данных пользователей, ролей и пермиссий в jsonb");
+                executeSqlFromFile(RESOURCE_MIGRATE_JSONB);
+                jsonb = "jsonb".equals(jdbcTemplate.getJdbcOperations().queryForObject(SQL_JSON_DATA_TYPE, String.class));
+            }
+        }
+        catch (IOException | DataAccessException e)
+        {
+            logger.error("Ошибка перевода данных пользователей, ролей и пермиссий в jsonb", e);
+        }
+    }
+
+    /**
+     * Создает индексы по выражениям сортировки для часто используемых полей jsonData пользователей:
+     * для выборки со смещением и для выборки по токену продолжения
+     */
+    private void initJsonSortIndexes()
+    {
+        for (String key : jsonSortKeys)
+        {
+            key = key.trim();
+            if (key.isEmpty())
+            {
+                continue;
+            }
+            if (!JSON_FIELD_PATTERN.matcher(key).matches())
+            {
+                logger.debug("Недопустимое поле jsonData для индекса сортировки: " + key);
+                continue;
+            }
+            String name = key.toLowerCase().replaceAll("[^a-z0-9_]", "_");
+            name = "users_json_" + (name.length() > 40 ? name.substring(0, 40) : name);
+            try
+            {
+                jdbcTemplate.getJdbcOperations().execute("CREATE INDEX IF NOT EXISTS " + name + "_idx ON users " +
+                        "((json_data ->> '" + key + "'))");
+                jdbcTemplate.getJdbcOperations().execute("CREATE INDEX IF NOT EXISTS " + name + "_seek_idx ON users " +
+                        "((COALESCE(json_data ->> '" + key + "', '')), user_id)");
+            }
+            catch (DataAccessException e)
+            {
+                logger.error("Ошибка создания индекса сортировки по полю jsonData " + key, e);
+            }
+        }
     }
 
 
@@ -207,6 +356,19 @@ public class UsersManagementDaoImpl
         jdbcTemplate.getJdbcOperations().execute(query);
     }
 
+    /**
+     * Оповещает об изменении данных в БД текущий и остальные узлы сервиса.
+     * Внутри транзакции обработчики событий вызываются, а уведомления доставляются после ее фиксации
+     * @param entity тип измененной сущности
+     * @param key    ключ измененной сущности, null - изменено несколько сущностей
+     */
+    private void publishChange(AuthDataChangedEvent.Entity entity, Object key)
+    {
+        AuthDataChangedEvent event = new AuthDataChangedEvent(entity, key);
+        authChangeNotifier.notify(event);
+        eventPublisher.publishEvent(event);
+    }
+
     /**
      * Возвращает данные пользователя с указанным логином
      * @param username логин пользователя
@@ -220,32 +382,7 @@ public class UsersManagementDaoImpl
             final String SQL_GET_USER_BY_NAME =
                     "SELECT username, user_id, enabled, email, json_data, ldap FROM users WHERE username = :username";
             final SqlParameterSource params = new MapSqlParameterSource("username", username);
-            return jdbcTemplate.queryForObject(SQL_GET_USER_BY_NAME, params, new RowMapper<User>()
-            {
-                @Override
-                public User mapRow(ResultSet rs, int rowNum) throws SQLException
-                {
-                    User user = new User();
-                    user.setId(rs.getInt("user_id"));
-                    user.setName(rs.getString("username"));
-                    user.setEnabled(rs.getBoolean("enabled"));
-                    user.setEmail(rs.getString("email"));
-                    user.setLdap(rs.getBoolean("ldap"));
-
-                    String jsonString = rs.getString("json_data");
-                    try
-                    {
-                        TypeReference<Map<String, Object>> typeRef = new TypeReference<Map<String, Object>>(){};
-                        Map<String, Object> jsonData = jsonMapper.readValue(jsonString, typeRef);
-                        user.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                    return user;
-                }
-            });
+            return jdbcTemplate.queryForObject(SQL_GET_USER_BY_NAME, params, new UserRowMapper());
         }
         catch (EmptyResultDataAccessException e)
         {
@@ -266,32 +403,23 @@ public class UsersManagementDaoImpl
             final String SQL_GET_USER_BY_NAME =
                     "SELECT username, user_id, enabled, email, json_data, ldap FROM users WHERE user_id = :id";
             final SqlParameterSource params = new MapSqlParameterSource("id", id);
-            return jdbcTemplate.queryForObject(SQL_GET_USER_BY_NAME, params, new RowMapper<User>()
-            {
-                @Override
-                public User mapRow(ResultSet rs, int rowNum) throws SQLException
-                {
-                    User user = new User();
-                    user.setId(rs.getInt("user_id"));
-                    user.setName(rs.getString("username"));
-                    user.setEnabled(rs.getBoolean("enabled"));
-                    user.setEmail(rs.getString("email"));
-                    user.setLdap(rs.getBoolean("ldap"));
-
-                    String jsonString = rs.getString("json_data");
-                    try
-                    {
-                        TypeReference<Map<String, Object>> typeRef = new TypeReference<Map<String, Object>>(){};
-                        Map<String, Object> jsonData = jsonMapper.readValue(jsonString, typeRef);
-                        user.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                    return user;
-                }
-            });
+            return jdbcTemplate.queryForObject(SQL_GET_USER_BY_NAME, params, new UserRowMapper());
+        }
+        catch (EmptyResultDataAccessException e)
+        {
+            throw notFoundException.applyParameters(ERROR_USER_ID_NOT_EXIST, id);
+        }
+    }
+
+    @Override
+    public User getFullUser(int id, boolean withPermissions)
+    {
+        final String SQL_GET_FULL_USER = "SELECT u.username, u.user_id, u.enabled, u.email, u.json_data, u.ldap, " +
+                toRolesJsonColumn("u.username", withPermissions) + " FROM users AS u WHERE u.user_id = :id";
+        try
+        {
+            return jdbcTemplate.queryForObject(SQL_GET_FULL_USER, new MapSqlParameterSource("id", id),
+                    new UserRowMapper());
         }
         catch (EmptyResultDataAccessException e)
         {
@@ -299,6 +427,24 @@ public class UsersManagementDaoImpl
         }
     }
 
+    /**
+     * Возвращает подзапрос, собирающий роли пользователя в json массив, отсортированный по названию роли.
+     * Роли и пермиссии ролей собираются на стороне БД, чтобы не выполнять отдельные запросы
+     * @param usernameColumn  колонка с логином пользователя во внешнем запросе
+     * @param withPermissions true - роли собираются с их пермиссиями
+     * @return подзапрос колонки roles
+     */
+    private static String toRolesJsonColumn(String usernameColumn, boolean withPermissions)
+    {
+        String permissions = withPermissions ? ", 'permissions', (SELECT COALESCE(json_agg(" +
+                "json_build_object('id', p.id, 'description', p.description, 'path', p.path, 'method', p.method) " +
+                "ORDER BY p.id), '[]'::json) FROM role_permissions AS rp JOIN permissions AS p " +
+                "ON p.id = rp.id_permission WHERE rp.role = r.name)" : "";
+        return "(SELECT COALESCE(json_agg(json_build_object('name', r.name, 'description', r.description, " +
+                "'jsonData', r.json_data" + permissions + ") ORDER BY r.name), '[]'::json) FROM user_roles AS ur " +
+                "JOIN roles AS r ON r.name = ur.role WHERE ur.username = " + usernameColumn + ") AS roles";
+    }
+
     /**
      * Добавляет пользователя
      * Пользователя с указанным логином не должно быть в БД
@@ -330,7 +476,9 @@ public class UsersManagementDaoImpl
             params.addValue("jsonData", json);
             KeyHolder keyHolder = new GeneratedKeyHolder();
             jdbcTemplate.update(SQL_ADD_USER, params, keyHolder, new String[]{"user_id"});
-            return keyHolder.getKey().intValue();
+            int id = keyHolder.getKey().intValue();
+            publishChange(USER, id);
+            return id;
         }
         catch (DuplicateKeyException ex)
         {
@@ -374,6 +522,7 @@ public class UsersManagementDaoImpl
             {
                 throw serviceException.applyParameters(HttpStatus.NOT_FOUND, ERROR_USER_ID_NOT_EXIST, id);
             }
+            publishChange(USER, id);
         }
         catch (DuplicateKeyException ex)
         {
@@ -391,13 +540,18 @@ public class UsersManagementDaoImpl
         {
             throw serviceException.applyParameters(HttpStatus.NOT_FOUND, ERROR_USER_ID_NOT_EXIST, id);
         }
+        publishChange(USER, id);
     }
 
-    private List<User> getAllUsers(UsersFilter filter, Pageable pageable)
+    /**
+     * Формирует условие выборки пользователей по фильтру
+     * @param filter фильтр пользователей
+     * @param params параметры запроса, дополняются параметрами условия
+     * @return условие WHERE, пустая строка если фильтр не указан, null если по фильтру нет пользователей
+     */
+    private String toConditionUsers(UsersFilter filter, MapSqlParameterSource params)
     {
-        String sql = "SELECT username, user_id, enabled, email, json_data, ldap FROM users";
         String condition = "";
-        MapSqlParameterSource params = new MapSqlParameterSource();
         if (filter != null && !filter.isEmpty())
         {
             condition = " WHERE 1=1 ";
@@ -420,7 +574,7 @@ public class UsersManagementDaoImpl
                     if (filter.getIsIncludedUsers() == null || filter.getIsIncludedUsers())
                     {
                         // вернем пустой список для isIncludedUsers = true и пустого списка userIds
-                        return Collections.emptyList();
+                        return null;
                     }
                 }
             }
@@ -435,11 +589,107 @@ public class UsersManagementDaoImpl
                                 , entry.getKey());
                     }
                     String jsonField = entry.getKey();
-                    condition += " AND json_data ->> '" + jsonField + "' IN (:" + jsonField + ")";
-                    params.addValue(jsonField, entry.getValue());
+                    if (jsonb)
+                    {
+                        // условие вхождения обслуживается GIN индексом по json_data
+                        List<String> alternatives = new ArrayList<>();
+                        for (String document : toContainmentDocuments(jsonField, entry.getValue()))
+                        {
+                            String name = "jsonFilter" + params.getValues().size();
+                            params.addValue(name, document);
+                            alternatives.add("json_data @> CAST(:" + name + " AS jsonb)");
+                        }
+                        condition += alternatives.isEmpty() ? " AND FALSE" :
+                                " AND (" + String.join(" OR ", alternatives) + ")";
+                    }
+                    else
+                    {
+                        condition += " AND json_data ->> '" + jsonField + "' IN (:" + jsonField + ")";
+                        params.addValue(jsonField, entry.getValue());
+                    }
+                }
+            }
+        }
+        return condition;
+    }
+
+    /**
+     * Формирует json документы для проверки вхождения значений поля jsonData.
+     * Сравнение json_data ->> 'поле' выполнялось по тексту, поэтому число или логическое значение ищется
+     * также в виде строки, а строка с числом или логическим значением - также в виде этого значения
+     * @param field  название поля jsonData
+     * @param values значения поля
+     * @return json документы вида {"поле": значение}
+     */
+    private Set<String> toContainmentDocuments(String field, List<Object> values)
+    {
+        Set<String> documents = new LinkedHashSet<>();
+        try
+        {
+            for (Object value : values)
+            {
+                if (value == null)
+                {
+                    continue;
+                }
+                documents.add(jsonMapper.writeValueAsString(Collections.singletonMap(field, value)));
+                if (value instanceof Number || value instanceof Boolean)
+                {
+                    documents.add(jsonMapper.writeValueAsString(Collections.singletonMap(field, value.toString())));
+                }
+                else if (value instanceof String)
+                {
+                    JsonNode node = toScalarNode((String) value);
+                    if (node != null)
+                    {
+                        documents.add(jsonMapper.writeValueAsString(Collections.singletonMap(field, node)));
+                    }
                 }
             }
         }
+        catch (JsonProcessingException e)
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST, ERROR_GET_USERS_INVALID_FILTER, field);
+        }
+        return documents;
+    }
+
+    /**
+     * Возвращает число или логическое значение, записанное в строке
+     * @param value строка
+     * @return значение, null если строка не является числом или логическим значением
+     */
+    private JsonNode toScalarNode(String value)
+    {
+        try
+        {
+            JsonNode node = jsonMapper.readTree(value);
+            return node != null && (node.isNumber() || node.isBoolean()) && value.equals(node.asText()) ? node : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Возвращает список пользователей по фильтру. Фильтр, сортировка и страница применяются в БД,
+     * роли выбираются только для пользователей страницы
+     * @param filter    фильтр пользователей
+     * @param pageable  страница и сортировка, null - все пользователи по порядку id
+     * @param withRoles если флаг true данные пользователей будут содержать список их ролей
+     * @return список пользователей
+     */
+    private List<User> getAllUsers(UsersFilter filter, Pageable pageable, boolean withRoles)
+    {
+        String sql = "SELECT username, user_id, enabled, email, json_data, ldap"
+                + (withRoles ? ", " + toRolesJsonColumn("users.username", false) : "") + " FROM users";
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String condition = toConditionUsers(filter, params);
+        if (condition == null)
+        {
+            return Collections.emptyList();
+        }
 
         String order = "";
         String pagination = "";
@@ -460,36 +710,171 @@ public class UsersManagementDaoImpl
                 pagination += PAGINATION;
             }
         }
+        else if (withRoles)
+        {
+            order += " ORDER BY user_id ";
+        }
 
         sql += condition;
         sql += order;
         sql += pagination;
-        return jdbcTemplate.query(sql, params, new RowMapper<User>()
+        return jdbcTemplate.query(sql, params, new UserRowMapper());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportUsers(RowCallbackHandler handler)
+    {
+        // внутри транзакции драйвер PostgreSQL читает выборку курсором, а не целиком
+        exportJdbcTemplate.query("SELECT user_id, username, enabled, email, ldap, json_data FROM users " +
+                "ORDER BY user_id", handler);
+    }
+
+    @Override
+    public UsersPage getUsersPage(UsersFilter filter, Sort sort, int size, String token)
+    {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String condition = toConditionUsers(filter, params);
+        if (condition == null)
         {
-            @Override
-            public User mapRow(ResultSet rs, int rowNum) throws SQLException
+            return new UsersPage(Collections.emptyList(), null);
+        }
+        List<SortKey> keys = toSortKeysUsers(sort);
+        String signature = keys.stream().map(SortKey::toString).collect(joining(","));
+        if (!StringUtils.isEmpty(token))
+        {
+            ContinuationToken continuation = ContinuationToken.decode(jsonMapper, token);
+            if (continuation == null || !signature.equals(continuation.getSort())
+                    || continuation.getKeys().size() != keys.size())
             {
-                User user = new User();
-                user.setId(rs.getInt("user_id"));
-                user.setName(rs.getString("username"));
-                user.setEnabled(rs.getBoolean("enabled"));
-                user.setLdap(rs.getBoolean("ldap"));
-                user.setEmail(rs.getString("email"));
+                throw serviceException.applyParameters(HttpStatus.BAD_REQUEST, ERROR_INVALID_CONTINUATION_TOKEN);
+            }
+            condition += (condition.isEmpty() ? " WHERE " : " AND ") + toSeekConditionUsers(keys,
+                    continuation.getKeys(), params);
+        }
 
-                String jsonString = rs.getString("json_data");
-                try
-                {
-                    TypeReference<Map<String, Object>> typeRef = new TypeReference<Map<String, Object>>(){};
-                    Map<String, Object> jsonData = jsonMapper.readValue(jsonString, typeRef);
-                    user.setJsonData(jsonData);
-                }
-                catch (IOException e)
+        StringBuilder sql = new StringBuilder("SELECT username, user_id, enabled, email, json_data, ldap");
+        for (int i = 0; i < keys.size(); i++)
+        {
+            sql.append(", ").append(keys.get(i).expression).append(" AS sort_key_").append(i);
+        }
+        sql.append(" FROM users").append(condition).append(" ORDER BY ")
+           .append(keys.stream().map(key -> key.expression + " " + key.direction.name()).collect(joining(", ")))
+           .append(" LIMIT :pageSize");
+        // лишняя строка показывает, есть ли следующая страница
+        params.addValue("pageSize", size + 1);
+
+        List<List<Object>> rowKeys = new ArrayList<>();
+        UserRowMapper userRowMapper = new UserRowMapper();
+        List<User> users = jdbcTemplate.query(sql.toString(), params, (ResultSet rs, int rowNum) ->
+        {
+            List<Object> values = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++)
+            {
+                values.add(rs.getObject("sort_key_" + i));
+            }
+            rowKeys.add(values);
+            return userRowMapper.mapRow(rs, rowNum);
+        });
+        if (users.size() <= size)
+        {
+            return new UsersPage(users, null);
+        }
+        return new UsersPage(new ArrayList<>(users.subList(0, size)),
+                new ContinuationToken(signature, rowKeys.get(size - 1)).encode(jsonMapper));
+    }
+
+    /**
+     * Ключ сортировки пользователей для выборки по токену продолжения
+     */
+    private static class SortKey
+    {
+        private final String expression;
+        private final Sort.Direction direction;
+
+        private SortKey(String expression, Sort.Direction direction)
+        {
+            this.expression = expression;
+            this.direction = direction;
+        }
+
+        @Override
+        public String toString()
+        {
+            return expression + " " + direction.name();
+        }
+    }
+
+    /**
+     * Формирует ключи сортировки пользователей. Поля jsonData сортируются как строки, отсутствующие значения
+     * считаются пустой строкой, чтобы сравнение с ключом последней строки не давало NULL.
+     * Последним ключом всегда идет уникальный ключ пользователя
+     * @param sort сортировка из запроса
+     * @return ключи сортировки
+     */
+    private List<SortKey> toSortKeysUsers(Sort sort)
+    {
+        List<SortKey> keys = new ArrayList<>();
+        boolean unique = false;
+        for (Sort.Order order : sort)
+        {
+            String property = order.getProperty().trim();
+            if (property.equals("username") || property.equals("user_id"))
+            {
+                keys.add(new SortKey(property, order.getDirection()));
+                unique = true;
+                continue;
+            }
+            for (String field : property.split("\\s+"))
+            {
+                if (!JSON_FIELD_PATTERN.matcher(field).matches())
                 {
-                    logger.error(e);
+                    throw serviceException.applyParameters(HttpStatus.BAD_REQUEST, ERROR_INVALID_SORT_FIELD, field);
                 }
-                return user;
+                keys.add(new SortKey("COALESCE(json_data ->> '" + field + "', '')", order.getDirection()));
             }
-        });
+        }
+        if (!unique)
+        {
+            keys.add(new SortKey("user_id", Sort.Direction.ASC));
+        }
+        return keys;
+    }
+
+    /**
+     * Формирует условие выборки строк, следующих за строкой с указанными значениями ключей сортировки
+     * @param keys   ключи сортировки
+     * @param values значения ключей сортировки последней строки предыдущей страницы
+     * @param params параметры запроса, дополняются значениями ключей
+     * @return условие выборки
+     */
+    private String toSeekConditionUsers(List<SortKey> keys, List<Object> values, MapSqlParameterSource params)
+    {
+        for (int i = 0; i < keys.size(); i++)
+        {
+            params.addValue("sortKey" + i, values.get(i));
+        }
+        Sort.Direction direction = keys.get(0).direction;
+        if (keys.stream().allMatch(key -> key.direction == direction))
+        {
+            // при одном направлении сортировки используется сравнение строк, которое может обслужить индекс
+            String columns = keys.stream().map(key -> key.expression).collect(joining(", "));
+            String parameters = IntStream.range(0, keys.size()).mapToObj(i -> ":sortKey" + i).collect(joining(", "));
+            return "(" + columns + ") " + (direction.isAscending() ? ">" : "<") + " (" + parameters + ")";
+        }
+        List<String> alternatives = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            StringBuilder alternative = new StringBuilder("(");
+            for (int j = 0; j < i; j++)
+            {
+                alternative.append(keys.get(j).expression).append(" = :sortKey").append(j).append(" AND ");
+            }
+            alternative.append(keys.get(i).expression).append(keys.get(i).direction.isAscending() ? " > " : " < ")
+                       .append(":sortKey").append(i).append(")");
+            alternatives.add(alternative.toString());
+        }
+        return "(" + String.join(" OR ", alternatives) + ")";
     }
 
     private String toOrderByParametersUsers(Sort sort)
@@ -538,66 +923,7 @@ public class UsersManagementDaoImpl
     @Override
     public List<User> getAllUsers(boolean withRoles, UsersFilter filter, Pageable pageable)
     {
-        if (!withRoles)
-        {
-            return getAllUsers(filter, pageable);
-        }
-
-        final String SQL_GET_ALL_USERS_WITH_ROLES = "SELECT u.username, u.user_id, u.enabled, u.email, u" +
-                ".json_data, u.ldap, r.name AS role, r.description, r.json_data AS roleJson FROM users AS u LEFT JOIN" +
-                " user_roles AS ur ON u.username = ur.username LEFT JOIN roles AS r ON r.name = ur.role";
-        return jdbcTemplate.query(SQL_GET_ALL_USERS_WITH_ROLES, (ResultSet rs) ->
-        {
-            Map<String, User> map = new HashMap<>();
-            User user;
-            while (rs.next())
-            {
-                String username = rs.getString("username");
-                user = map.get(username);
-                if (user == null)
-                {
-                    user = new User();
-                    user.setId(rs.getInt("user_id"));
-                    user.setName(username);
-                    user.setEnabled(rs.getBoolean("enabled"));
-                    user.setLdap(rs.getBoolean("ldap"));
-                    user.setEmail(rs.getString("email"));
-
-                    String jsonString = rs.getString("json_data");
-                    try
-                    {
-                        TypeReference<Map<String, Object>> typeRef = new TypeReference<Map<String, Object>>(){};
-                        Map<String, Object> jsonData = jsonMapper.readValue(jsonString, typeRef);
-                        user.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                    user.setRoles(new ArrayList<>());
-                    map.put(username, user);
-                }
-                String roleName = rs.getString("role");
-                if (roleName != null)
-                {
-                    Role role = new Role();
-                    role.setName(roleName);
-                    role.setDescription(rs.getString("description"));
-                    String jsonString = rs.getString("roleJson");
-                    try
-                    {
-                        RoleJsonObject jsonData = jsonMapper.readValue(jsonString, RoleJsonObject.class);
-                        role.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                    user.getRoles().add(role);
-                }
-            }
-            return new ArrayList<>(map.values());
-        });
+        return getAllUsers(filter, pageable, withRoles);
     }
 
     /**
@@ -612,28 +938,7 @@ public class UsersManagementDaoImpl
         {
             final String SQL_GET_ROLE_BY_NAME = "SELECT name, description, json_data FROM roles WHERE name = :roleName";
             final SqlParameterSource params = new MapSqlParameterSource("roleName", roleName);
-            return jdbcTemplate.queryForObject(SQL_GET_ROLE_BY_NAME, params, new RowMapper<Role>()
-            {
-                @Override
-                public Role mapRow(ResultSet rs, int rowNum) throws SQLException
-                {
-                    Role role = new Role();
-                    role.setName(rs.getString("name"));
-                    role.setDescription(rs.getString("description"));
-
-                    String jsonString = rs.getString("json_data");
-                    try
-                    {
-                        RoleJsonObject jsonData = jsonMapper.readValue(jsonString, RoleJsonObject.class);
-                        role.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                    return role;
-                }
-            });
+            return jdbcTemplate.queryForObject(SQL_GET_ROLE_BY_NAME, params, new RoleRowMapper());
         }
         catch (EmptyResultDataAccessException e)
         {
@@ -667,6 +972,7 @@ public class UsersManagementDaoImpl
             params.addValue("description", role.getDescription());
             params.addValue("jsonData", json);
             jdbcTemplate.update(SQL_ADD_ROLE, params);
+            publishChange(ROLE, role.getName());
         }
         catch (DuplicateKeyException ex)
         {
@@ -706,6 +1012,7 @@ public class UsersManagementDaoImpl
             {
                 throw serviceException.applyParameters(HttpStatus.NOT_FOUND, ERROR_ROLE_NOT_EXIST, roleName);
             }
+            publishChange(ROLE, roleName);
         }
         catch (DuplicateKeyException e)
         {
@@ -727,33 +1034,13 @@ public class UsersManagementDaoImpl
         {
             throw serviceException.applyParameters(HttpStatus.NOT_FOUND, ERROR_ROLE_NOT_EXIST, roleName);
         }
+        publishChange(ROLE, roleName);
     }
 
     private List<Role> getAllRoles()
     {
         final String SQL_GET_ALL_ROLES = "SELECT name, description, json_data FROM roles";
-        return jdbcTemplate.query(SQL_GET_ALL_ROLES, new RowMapper<Role>()
-        {
-            @Override
-            public Role mapRow(ResultSet rs, int rowNum) throws SQLException
-            {
-                Role role = new Role();
-                role.setName(rs.getString("name"));
-                role.setDescription(rs.getString("description"));
-
-                String jsonString = rs.getString("json_data");
-                try
-                {
-                    RoleJsonObject jsonData = jsonMapper.readValue(jsonString, RoleJsonObject.class);
-                    role.setJsonData(jsonData);
-                }
-                catch (IOException e)
-                {
-                    logger.error(e);
-                }
-                return role;
-            }
-        });
+        return jdbcTemplate.query(SQL_GET_ALL_ROLES, new RoleRowMapper());
     }
 
     /**
@@ -768,46 +1055,29 @@ public class UsersManagementDaoImpl
         {
             return getAllRoles();
         }
-        final String SQL_GET_ALL_ROLES_WITH_PERMISSIONS = "SELECT r.name, r.description AS r_description, r.json_data "
-                + "AS r_json, p.id AS p_id, p.description AS p_description, p.path AS p_path, p.method AS " +
-                "p_method FROM roles AS r LEFT JOIN role_permissions AS rp ON r.name = rp.role LEFT JOIN permissions " +
+        final String SQL_GET_ALL_ROLES_WITH_PERMISSIONS = "SELECT r.name AS r_name, r.description AS r_description, "
+                + "r.json_data AS r_json_data, p.id AS p_id, p.description AS p_description, p.path AS p_path, " +
+                "p.method AS p_method FROM roles AS r LEFT JOIN role_permissions AS rp ON r.name = rp.role LEFT JOIN permissions " +
                 "AS p ON p.id = rp.id_permission";
         return jdbcTemplate.query(SQL_GET_ALL_ROLES_WITH_PERMISSIONS, (ResultSet rs) ->
         {
             Map<String, Role> map = new HashMap<>();
+            RoleRowMapper roleRowMapper = new RoleRowMapper("r_");
+            PermissionRowMapper permissionRowMapper = new PermissionRowMapper("p_");
             Role role;
             while (rs.next())
             {
-                String roleName = rs.getString("name");
+                String roleName = rs.getString("r_name");
                 role = map.get(roleName);
                 if (role == null)
                 {
-                    role = new Role();
-                    role.setName(roleName);
-                    role.setDescription(rs.getString("r_description"));
-
-                    String jsonString = rs.getString("r_json");
-                    try
-                    {
-                        RoleJsonObject jsonData = jsonMapper.readValue(jsonString, RoleJsonObject.class);
-                        role.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
+                    role = roleRowMapper.mapRow(rs, map.size());
                     role.setPermissions(new ArrayList<>());
                     map.put(roleName, role);
                 }
                 if (rs.getObject("p_id") != null)
                 {
-                    Permission permission = new Permission();
-                    permission.setId(rs.getInt("p_id"));
-                    permission.setDescription(rs.getString("p_description"));
-                    permission.setPath(rs.getString("p_path"));
-                    permission.setMethod(rs.getString("p_method"));
-
-                    role.getPermissions().add(permission);
+                    role.getPermissions().add(permissionRowMapper.mapRow(rs, role.getPermissions().size()));
                 }
             }
             return new ArrayList<>(map.values());
@@ -844,7 +1114,9 @@ public class UsersManagementDaoImpl
             params.addValue("jsonData", json);
             KeyHolder keyHolder = new GeneratedKeyHolder();
             jdbcTemplate.update(SQL_ADD_PERMISSION, params, keyHolder, new String[]{"id"});
-            return keyHolder.getKey().intValue();
+            int id = keyHolder.getKey().intValue();
+            publishChange(PERMISSION, id);
+            return id;
         }
         catch (DuplicateKeyException ex)
         {
@@ -867,6 +1139,7 @@ public class UsersManagementDaoImpl
         {
             throw serviceException.applyParameters(HttpStatus.NOT_FOUND, ERROR_PERMISSION_NOT_EXIST, id);
         }
+        publishChange(PERMISSION, id);
     }
 
     /**
@@ -882,30 +1155,7 @@ public class UsersManagementDaoImpl
             final String SQL_GET_PERMISSION_BY_ID = "SELECT id, description, path, method, json_data FROM " +
                     "permissions WHERE id = :id";
             final SqlParameterSource params = new MapSqlParameterSource("id", idPermission);
-            return jdbcTemplate.queryForObject(SQL_GET_PERMISSION_BY_ID, params, new RowMapper<Permission>()
-            {
-                @Override
-                public Permission mapRow(ResultSet rs, int rowNum) throws SQLException
-                {
-                    Permission permission = new Permission();
-                    permission.setId(rs.getInt("id"));
-                    permission.setDescription(rs.getString("description"));
-                    permission.setPath(rs.getString("path"));
-                    permission.setMethod(rs.getString("method"));
-
-                    String jsonString = rs.getString("json_data");
-                    try
-                    {
-                        PermissionJsonObject jsonData = jsonMapper.readValue(jsonString, PermissionJsonObject.class);
-                        permission.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                    return permission;
-                }
-            });
+            return jdbcTemplate.queryForObject(SQL_GET_PERMISSION_BY_ID, params, new PermissionRowMapper());
         }
         catch (EmptyResultDataAccessException e)
         {
@@ -921,33 +1171,7 @@ public class UsersManagementDaoImpl
     public List<Permission> getAllPermissions()
     {
         final String SQL_GET_ALL_PERMISSIONS = "SELECT id, description, path, method, json_data FROM permissions";
-        return jdbcTemplate.query(SQL_GET_ALL_PERMISSIONS, new RowMapper<Permission>()
-        {
-            @Override
-            public Permission mapRow(ResultSet rs, int rowNum) throws SQLException
-            {
-                Permission permission = new Permission();
-                permission.setId(rs.getInt("id"));
-                permission.setDescription(rs.getString("description"));
-                permission.setPath(rs.getString("path"));
-                permission.setMethod(rs.getString("method"));
-
-                String jsonString = rs.getString("json_data");
-                if (jsonString != null)
-                {
-                    try
-                    {
-                        PermissionJsonObject jsonData = jsonMapper.readValue(jsonString, PermissionJsonObject.class);
-                        permission.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
-                }
-                return permission;
-            }
-        });
+        return jdbcTemplate.query(SQL_GET_ALL_PERMISSIONS, new PermissionRowMapper());
     }
 
     /**
@@ -985,6 +1209,7 @@ public class UsersManagementDaoImpl
             {
                 throw serviceException.applyParameters(HttpStatus.NOT_FOUND, ERROR_PERMISSION_NOT_EXIST, idPermission);
             }
+            publishChange(PERMISSION, idPermission);
         }
         catch (DuplicateKeyException e)
         {
@@ -1020,6 +1245,7 @@ public class UsersManagementDaoImpl
                         idPermission, roles.getRoles().get(i));
             }
         }
+        publishChange(ROLE_PERMISSIONS, null);
     }
 
     private void clearPermissionRoles(int idPermission)
@@ -1027,6 +1253,7 @@ public class UsersManagementDaoImpl
         final String SQL_REMOVE_PERMISSION_FROM_ROLES = "DELETE FROM role_permissions WHERE id_permission=:id";
         SqlParameterSource params = new MapSqlParameterSource("id", idPermission);
         jdbcTemplate.update(SQL_REMOVE_PERMISSION_FROM_ROLES, params);
+        publishChange(ROLE_PERMISSIONS, null);
     }
 
     /**
@@ -1061,6 +1288,7 @@ public class UsersManagementDaoImpl
                 }
                 jdbcTemplate.batchUpdate(SQL_INSERT_PERMISSION_ROLES,
                         batchValues.toArray(new Map[roles.getRoles().size()]));
+                publishChange(ROLE_PERMISSIONS, null);
             }
             catch (DuplicateKeyException ex)
             {
@@ -1102,6 +1330,7 @@ public class UsersManagementDaoImpl
                         permissions.getIds().get(i));
             }
         }
+        publishChange(ROLE_PERMISSIONS, null);
     }
 
     private void clearRolePermissions(String role)
@@ -1109,6 +1338,7 @@ public class UsersManagementDaoImpl
         final String SQL_REMOVE_PERMISSION_FROM_ROLES = "DELETE FROM role_permissions WHERE role=:role";
         SqlParameterSource params = new MapSqlParameterSource("role", role);
         jdbcTemplate.update(SQL_REMOVE_PERMISSION_FROM_ROLES, params);
+        publishChange(ROLE_PERMISSIONS, null);
     }
 
     /**
@@ -1143,6 +1373,7 @@ public class UsersManagementDaoImpl
                 }
                 jdbcTemplate.batchUpdate(SQL_INSERT_PERMISSION_ROLES,
                         batchValues.toArray(new Map[permissions.getIds().size()]));
+                publishChange(ROLE_PERMISSIONS, null);
             }
             catch (DuplicateKeyException ex)
             {
@@ -1165,33 +1396,22 @@ public class UsersManagementDaoImpl
     @Override
     public List<Role> getPermissionRoles(int idPermission)
     {
-        final String SQL_GET_ALL_ROLES_BY_PERMISSION = "SELECT r.name, r.description AS r_description,r.json_data AS "
-                + "r_json " + "FROM roles AS r JOIN role_permissions AS rp ON r.name = rp.role JOIN permissions "
+        final String SQL_GET_ALL_ROLES_BY_PERMISSION = "SELECT r.name AS r_name, r.description AS r_description, "
+                + "r.json_data AS r_json_data FROM roles AS r JOIN role_permissions AS rp ON r.name = rp.role JOIN permissions "
                 + "AS p ON p.id = rp.id_permission WHERE p.id = :id";
         return jdbcTemplate.query(SQL_GET_ALL_ROLES_BY_PERMISSION, new MapSqlParameterSource("id", idPermission),
                 (ResultSet rs) ->
         {
             Map<String, Role> map = new HashMap<>();
+            RoleRowMapper roleRowMapper = new RoleRowMapper("r_");
             Role role;
             while (rs.next())
             {
-                String roleName = rs.getString("name");
+                String roleName = rs.getString("r_name");
                 role = map.get(roleName);
                 if (role == null)
                 {
-                    role = new Role();
-                    role.setName(roleName);
-                    role.setDescription(rs.getString("r_description"));
-                    String jsonString = rs.getString("r_json");
-                    try
-                    {
-                        RoleJsonObject jsonData = jsonMapper.readValue(jsonString, RoleJsonObject.class);
-                        role.setJsonData(jsonData);
-                    }
-                    catch (IOException e)
-                    {
-                        logger.error(e);
-                    }
+                    role = roleRowMapper.mapRow(rs, map.size());
                     map.put(roleName, role);
                 }
             }
@@ -1213,6 +1433,7 @@ public class UsersManagementDaoImpl
                 (ResultSet rs) ->
         {
             Map<Integer, Permission> map = new HashMap<>();
+            PermissionRowMapper permissionRowMapper = new PermissionRowMapper();
             Permission permission;
             while (rs.next())
             {
@@ -1220,11 +1441,7 @@ public class UsersManagementDaoImpl
                 permission = map.get(id);
                 if (permission == null)
                 {
-                    permission = new Permission();
-                    permission.setId(rs.getInt("id"));
-                    permission.setDescription(rs.getString("description"));
-                    permission.setPath(rs.getString("path"));
-                    permission.setMethod(rs.getString("method"));
+                    permission = permissionRowMapper.mapRow(rs, map.size());
                     map.put(id, permission);
                 }
             }
@@ -1242,32 +1459,8 @@ public class UsersManagementDaoImpl
     {
         final String SQL_GET_USERS_BY_ROLE = "SELECT u.username, u.user_id, u.enabled, u.email, u.json_data, u.ldap "
                 + "FROM users AS u JOIN user_roles AS ur ON u.username = ur.username JOIN roles AS r ON r.name = ur.role WHERE ur.role = :role";
-        return jdbcTemplate.query(SQL_GET_USERS_BY_ROLE, new MapSqlParameterSource("role", role), new RowMapper<User>()
-        {
-            @Override
-            public User mapRow(ResultSet rs, int rowNum) throws SQLException
-            {
-                User user = new User();
-                user.setId(rs.getInt("user_id"));
-                user.setName(rs.getString("username"));
-                user.setEnabled(rs.getBoolean("enabled"));
-                user.setLdap(rs.getBoolean("ldap"));
-                user.setEmail(rs.getString("email"));
-
-                String jsonString = rs.getString("json_data");
-                try
-                {
-                    TypeReference<Map<String, Object>> typeRef = new TypeReference<Map<String, Object>>(){};
-                    Map<String, Object> jsonData = jsonMapper.readValue(jsonString, typeRef);
-                    user.setJsonData(jsonData);
-                }
-                catch (IOException e)
-                {
-                    logger.error(e);
-                }
-                return user;
-            }
-        });
+        return jdbcTemplate.query(SQL_GET_USERS_BY_ROLE, new MapSqlParameterSource("role", role),
+                new UserRowMapper());
     }
 
     /**
@@ -1297,6 +1490,7 @@ public class UsersManagementDaoImpl
                         roles.getRoles().get(i));
             }
         }
+        publishChange(USER_ROLES, username);
     }
 
     private void clearUserRoles(String username)
@@ -1304,6 +1498,7 @@ public class UsersManagementDaoImpl
         final String SQL_REMOVE_ROLES_FROM_USER = "DELETE FROM user_roles WHERE username=:username";
         SqlParameterSource params = new MapSqlParameterSource("username", username);
         jdbcTemplate.update(SQL_REMOVE_ROLES_FROM_USER, params);
+        publishChange(USER_ROLES, username);
     }
 
     /**
@@ -1338,6 +1533,7 @@ public class UsersManagementDaoImpl
                     batchValues.add(new MapSqlParameterSource().addValue("role", role).addValue("username", username).getValues());
                 }
                 jdbcTemplate.batchUpdate(SQL_INSERT_USER_ROLES, batchValues.toArray(new Map[roles.getRoles().size()]));
+                publishChange(USER_ROLES, username);
             }
             catch (DuplicateKeyException ex)
             {
@@ -1363,28 +1559,7 @@ public class UsersManagementDaoImpl
         final String SQL_GET_ALL_ROLES_BY_USERNAME = "SELECT r.name, r.description, r.json_data FROM user_roles "
                 + "AS ur JOIN roles AS r ON r.name = ur.role WHERE ur.username = :username";
         List<Role> roles = jdbcTemplate.query(SQL_GET_ALL_ROLES_BY_USERNAME, new MapSqlParameterSource("username",
-                username), new RowMapper<Role>()
-        {
-            @Override
-            public Role mapRow(ResultSet rs, int rowNum) throws SQLException
-            {
-                Role role = new Role();
-                role.setName(rs.getString("name"));
-                role.setDescription(rs.getString("description"));
-
-                String jsonString = rs.getString("json_data");
-                try
-                {
-                    RoleJsonObject jsonData = jsonMapper.readValue(jsonString, RoleJsonObject.class);
-                    role.setJsonData(jsonData);
-                }
-                catch (IOException e)
-                {
-                    logger.error(e);
-                }
-                return role;
-            }
-        });
+                username), new RoleRowMapper());
         roles.sort(comparing(Role::getName));
         return roles;
     }
@@ -1401,6 +1576,166 @@ public class UsersManagementDaoImpl
         {
             throw notFoundException.applyParameters(HttpStatus.NOT_FOUND, ERROR_USER_ID_NOT_EXIST, userId);
         }
+        publishChange(USER, userId);
+    }
+
+    @Override
+    @Transactional
+    public LdapSyncResult synchronizeLdapUsers(LdapUserBatchSource source, boolean full)
+    {
+        final String SQL_CREATE_SYNC_TABLE = "CREATE TEMP TABLE ldap_sync_users (username varchar(320) PRIMARY KEY, "
+                + "groups_read boolean NOT NULL) ON COMMIT DROP";
+        final String SQL_CREATE_SYNC_ROLES_TABLE = "CREATE TEMP TABLE ldap_sync_roles (username varchar(320), "
+                + "role varchar(64), PRIMARY KEY (username, role)) ON COMMIT DROP";
+        final String SQL_INSERT_SYNC_USERS = "INSERT INTO ldap_sync_users SELECT * FROM unnest(:usernames, :groupsRead) "
+                + "ON CONFLICT DO NOTHING";
+        final String SQL_INSERT_SYNC_ROLES = "INSERT INTO ldap_sync_roles SELECT * FROM unnest(:usernames, :roles) "
+                + "ON CONFLICT DO NOTHING";
+        final String SQL_ENABLE_USERS = "UPDATE users AS u SET enabled = TRUE, ldap = TRUE FROM ldap_sync_users AS l "
+                + "WHERE u.username = l.username AND NOT (u.enabled AND u.ldap)";
+        final String SQL_ADD_USERS = "INSERT INTO users(username, password, enabled, ldap) "
+                + "SELECT username, '', TRUE, TRUE FROM ldap_sync_users ON CONFLICT (username) DO NOTHING";
+        final String SQL_DISABLE_USERS = "UPDATE users AS u SET enabled = FALSE WHERE u.ldap AND u.enabled "
+                + "AND NOT EXISTS (SELECT 1 FROM ldap_sync_users AS l WHERE l.username = u.username)";
+        final String SQL_GET_LDAP_ROLES = "SELECT ldap_group, role FROM ldap_roles";
+        final String SQL_COUNT_REWRITTEN_ROLES = "SELECT (SELECT count(*) FROM user_roles AS ur "
+                + "JOIN ldap_sync_users AS l ON l.username = ur.username AND l.groups_read "
+                + "WHERE ur.role = ANY(:ldapRoles)) + (SELECT count(*) FROM ldap_sync_roles)";
+        final String SQL_ADD_USER_ROLES = "INSERT INTO user_roles (username, role) "
+                + "SELECT username, role FROM ldap_sync_roles ON CONFLICT (username, role) DO NOTHING";
+        final String SQL_REMOVE_USER_ROLES = "DELETE FROM user_roles AS ur USING ldap_sync_users AS l "
+                + "WHERE l.username = ur.username AND l.groups_read AND ur.role = ANY(:ldapRoles) "
+                + "AND NOT EXISTS (SELECT 1 FROM ldap_sync_roles AS r WHERE r.username = ur.username AND r.role = ur.role)";
+
+        JdbcOperations operations = jdbcTemplate.getJdbcOperations();
+        LdapGroupRoleIndex index = new LdapGroupRoleIndex();
+        operations.query(SQL_GET_LDAP_ROLES, (RowCallbackHandler) rs -> index.add(rs.getString("ldap_group"),
+                rs.getString("role")));
+        boolean syncRoles = !index.getRoles().isEmpty();
+
+        operations.execute(SQL_CREATE_SYNC_TABLE);
+        operations.execute(SQL_CREATE_SYNC_ROLES_TABLE);
+        source.forEachBatch(users ->
+        {
+            List<LdapUser> values = new ArrayList<>(users);
+            for (int from = 0; from < values.size(); from += ldapSyncBatchSize)
+            {
+                List<LdapUser> batch = values.subList(from, Math.min(from + ldapSyncBatchSize, values.size()));
+                String[] usernames = new String[batch.size()];
+                Boolean[] groupsRead = new Boolean[batch.size()];
+                List<String> roleUsernames = new ArrayList<>();
+                List<String> roles = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    LdapUser user = batch.get(i);
+                    usernames[i] = user.getUsername();
+                    groupsRead[i] = syncRoles && user.getGroups() != null;
+                    if (groupsRead[i])
+                    {
+                        // роли пользователя рассчитываются по индексу в памяти, в БД передаются только пары логин-роль
+                        for (String role : index.resolve(user.getGroups()))
+                        {
+                            roleUsernames.add(user.getUsername());
+                            roles.add(role);
+                        }
+                    }
+                }
+                jdbcTemplate.update(SQL_INSERT_SYNC_USERS, new MapSqlParameterSource()
+                        .addValue("usernames", toSqlArray("varchar", usernames), Types.ARRAY)
+                        .addValue("groupsRead", toSqlArray("bool", groupsRead), Types.ARRAY));
+                if (!roles.isEmpty())
+                {
+                    jdbcTemplate.update(SQL_INSERT_SYNC_ROLES, new MapSqlParameterSource()
+                            .addValue("usernames", toSqlArray("varchar", roleUsernames.toArray(new String[0])), Types.ARRAY)
+                            .addValue("roles", toSqlArray("varchar", roles.toArray(new String[0])), Types.ARRAY));
+                }
+            }
+        });
+        // временные таблицы не анализируются автоматически, без статистики планировщик ошибается в размере
+        operations.execute("ANALYZE ldap_sync_users");
+        operations.execute("ANALYZE ldap_sync_roles");
+
+        int enabled = operations.update(SQL_ENABLE_USERS);
+        int added = operations.update(SQL_ADD_USERS);
+        // при чтении только измененных записей отсутствие пользователя в выборке не означает его удаление из LDAP
+        int disabled = full ? operations.update(SQL_DISABLE_USERS) : 0;
+        if (enabled + added + disabled > 0)
+        {
+            publishChange(USER, null);
+        }
+        LdapSyncResult result = new LdapSyncResult(added, enabled, disabled);
+        if (syncRoles)
+        {
+            // изменяются только роли, назначаемые через LDAP группы, и только отличающиеся от рассчитанных
+            MapSqlParameterSource params = new MapSqlParameterSource().addValue("ldapRoles",
+                    toSqlArray("varchar", index.getRoles().toArray(new String[0])), Types.ARRAY);
+            result.setRolesRewritten(jdbcTemplate.queryForObject(SQL_COUNT_REWRITTEN_ROLES, params, Integer.class));
+            result.setRolesRemoved(jdbcTemplate.update(SQL_REMOVE_USER_ROLES, params));
+            result.setRolesAdded(operations.update(SQL_ADD_USER_ROLES));
+            if (result.getRolesAdded() + result.getRolesRemoved() > 0)
+            {
+                publishChange(USER_ROLES, null);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public LdapSyncResult synchronizeLdapDirectory(String directory, LdapUserBatchSource source, Supplier<String> mark,
+                                                   boolean full)
+    {
+        final String SQL_TRY_SYNC_LOCK = "SELECT pg_try_advisory_xact_lock(hashtext('ldap_sync:' || :directory))";
+        // блокировка снимается при завершении транзакции
+        if (!jdbcTemplate.queryForObject(SQL_TRY_SYNC_LOCK, new MapSqlParameterSource("directory", directory),
+                Boolean.class))
+        {
+            return null;
+        }
+        LdapSyncResult result = synchronizeLdapUsers(source, full);
+        saveLdapSyncMark(directory, mark.get(), full);
+        return result;
+    }
+
+    @Override
+    public String getLdapSyncMark(String directory)
+    {
+        final String SQL_GET_MARK = "SELECT mark FROM ldap_sync_state WHERE directory = :directory";
+        List<String> marks = jdbcTemplate.queryForList(SQL_GET_MARK, new MapSqlParameterSource("directory", directory),
+                String.class);
+        return marks.isEmpty() ? null : marks.get(0);
+    }
+
+    @Override
+    public void saveLdapSyncMark(String directory, String mark, boolean full)
+    {
+        final String SQL_SAVE_MARK = "INSERT INTO ldap_sync_state (directory, mark, last_full_sync, last_delta_sync) "
+                + "VALUES (:directory, :mark, CASE WHEN :full THEN now() END, CASE WHEN :full THEN NULL ELSE now() END) "
+                + "ON CONFLICT (directory) DO UPDATE SET mark = COALESCE(EXCLUDED.mark, ldap_sync_state.mark), "
+                + "last_full_sync = COALESCE(EXCLUDED.last_full_sync, ldap_sync_state.last_full_sync), "
+                + "last_delta_sync = COALESCE(EXCLUDED.last_delta_sync, ldap_sync_state.last_delta_sync)";
+        jdbcTemplate.update(SQL_SAVE_MARK, new MapSqlParameterSource()
+                .addValue("directory", directory)
+                .addValue("mark", mark)
+                .addValue("full", full));
+    }
+
+    /**
+     * Возвращает значение параметра запроса - массив, создаваемый на соединении запроса
+     * @param elementType тип элементов массива в БД
+     * @param values      элементы массива
+     * @return значение параметра
+     */
+    private static AbstractSqlTypeValue toSqlArray(String elementType, Object[] values)
+    {
+        return new AbstractSqlTypeValue()
+        {
+            @Override
+            protected Object createTypeValue(Connection con, int sqlType, String typeName) throws SQLException
+            {
+                return con.createArrayOf(elementType, values);
+            }
+        };
     }
 
     @Override
@@ -1435,6 +1770,7 @@ public class UsersManagementDaoImpl
         {
             throw notFoundException.applyParameters(HttpStatus.NOT_FOUND, ERROR_USER_ID_NOT_EXIST, userId);
         }
+        publishChange(USER, userId);
     }
 
     @Override
@@ -1516,6 +1852,7 @@ public class UsersManagementDaoImpl
                     batchValues.add(new MapSqlParameterSource().addValue("role", role).addValue("group", group).getValues());
                 }
                 jdbcTemplate.batchUpdate(SQL_INSERT_LDAP_GROUP_ROLES, batchValues.toArray(new Map[roles.size()]));
+                publishChange(LDAP_GROUP, group);
             }
             catch (DuplicateKeyException ex)
             {
@@ -1547,6 +1884,7 @@ public class UsersManagementDaoImpl
         final String SQL_REMOVE_ROLES_FROM_LDAP_GROUPS = "DELETE FROM ldap_roles WHERE ldap_group=:group";
         SqlParameterSource params = new MapSqlParameterSource("group", group);
         jdbcTemplate.update(SQL_REMOVE_ROLES_FROM_LDAP_GROUPS, params);
+        publishChange(LDAP_GROUP, group);
     }
 
     @SuppressWarnings("unchecked")
@@ -1585,6 +1923,7 @@ public class UsersManagementDaoImpl
             }
             int[] result = jdbcTemplate.batchUpdate(SQL_ADD_PERMISSION,
                     batchValues.toArray(new Map[permissions.size()]));
+            publishChange(PERMISSION, null);
             // Количество добавленных записей
             return (int) Arrays
                     .stream(result)
@@ -1616,6 +1955,7 @@ public class UsersManagementDaoImpl
             jdbcTemplate
                     .getJdbcOperations()
                     .execute(query.toString());
+            publishChange(PERMISSION, null);
         }
         return permissions.size();
     }
@@ -1624,30 +1964,7 @@ public class UsersManagementDaoImpl
     public List<Permission> getUnlinkedPermissions()
     {
         final String SQL_GET_ALL_PERMISSIONS = "SELECT id, description, path, method, json_data FROM permissions AS p LEFT JOIN role_permissions AS rp ON p.id = rp.id_permission WHERE rp.role IS NULL";
-        return jdbcTemplate.query(SQL_GET_ALL_PERMISSIONS, new RowMapper<Permission>()
-        {
-            @Override
-            public Permission mapRow(ResultSet rs, int rowNum) throws SQLException
-            {
-                Permission permission = new Permission();
-                permission.setId(rs.getInt("id"));
-                permission.setDescription(rs.getString("description"));
-                permission.setPath(rs.getString("path"));
-                permission.setMethod(rs.getString("method"));
-
-                String jsonString = rs.getString("json_data");
-                try
-                {
-                    PermissionJsonObject jsonData = jsonMapper.readValue(jsonString, PermissionJsonObject.class);
-                    permission.setJsonData(jsonData);
-                }
-                catch (IOException e)
-                {
-                    logger.error(e);
-                }
-                return permission;
-            }
-        });
+        return jdbcTemplate.query(SQL_GET_ALL_PERMISSIONS, new PermissionRowMapper());
     }
 
     @Override
@@ -1674,8 +1991,7 @@ public class UsersManagementDaoImpl
                 String jsonString = rs.getString("json_data");
                 try
                 {
-                    TypeReference<Map<String, Object>> typeRef = new TypeReference<Map<String, Object>>(){};
-                    Map<String, Object> jsonData = jsonMapper.readValue(jsonString, typeRef);
+                    Map<String, Object> jsonData = JSON_MAP_READER.readValue(jsonString);
                     for (Map.Entry<String, Object> entry : jsonData.entrySet())
                     {
                         if (entry.getKey().equals(FIRST_NAME))
@@ -1735,5 +2051,6 @@ public class UsersManagementDaoImpl
                         roles.get(i), group);
             }
         }
+        publishChange(LDAP_GROUP, group);
     }
 }
@@ -0,0 +1,82 @@
+package com.common.services.management.beans.management.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * CsvUsersExportWriter.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Выгрузка пользователей в формате CSV (RFC 4180) с заголовком
+ */
+public class CsvUsersExportWriter
+        extends UsersExportWriter
+{
+    private static final String HEADER = "id,name,enabled,email,ldap,jsonData";
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final Writer writer;
+
+    CsvUsersExportWriter(OutputStream out) throws IOException
+    {
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write(LINE_SEPARATOR);
+    }
+
+    @Override
+    protected void writeRow(ResultSet rs) throws SQLException, IOException
+    {
+        writer.write(Integer.toString(rs.getInt("user_id")));
+        writer.write(',');
+        writeValue(rs.getString("username"));
+        writer.write(',');
+        writer.write(Boolean.toString(rs.getBoolean("enabled")));
+        writer.write(',');
+        writeValue(rs.getString("email"));
+        writer.write(',');
+        writer.write(Boolean.toString(rs.getBoolean("ldap")));
+        writer.write(',');
+        writeValue(rs.getString("json_data"));
+        writer.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Записывает значение, заключая его в кавычки при наличии разделителей
+     * @param value значение, null записывается пустым полем
+     * @throws IOException ошибка записи
+     */
+    private void writeValue(String value) throws IOException
+    {
+        if (value == null)
+        {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++)
+        {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote)
+        {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    @Override
+    public void finish() throws IOException
+    {
+        writer.flush();
+    }
+}
@@ -0,0 +1,66 @@
+package com.common.services.management.beans.management.export;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * NdjsonUsersExportWriter.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Выгрузка пользователей в формате NDJSON, по одному json объекту на строку
+ */
+public class NdjsonUsersExportWriter
+        extends UsersExportWriter
+{
+    private final ObjectMapper jsonMapper;
+    private final JsonGenerator generator;
+
+    NdjsonUsersExportWriter(OutputStream out, ObjectMapper jsonMapper) throws IOException
+    {
+        this.jsonMapper = jsonMapper;
+        generator = jsonMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // строки разделяются переводом строки, который записывается после каждого объекта
+        generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    protected void writeRow(ResultSet rs) throws SQLException, IOException
+    {
+        generator.writeStartObject();
+        generator.writeNumberField("id", rs.getInt("user_id"));
+        generator.writeStringField("name", rs.getString("username"));
+        generator.writeBooleanField("enabled", rs.getBoolean("enabled"));
+        generator.writeStringField("email", rs.getString("email"));
+        generator.writeBooleanField("ldap", rs.getBoolean("ldap"));
+        generator.writeFieldName("jsonData");
+        String jsonData = rs.getString("json_data");
+        if (jsonData == null)
+        {
+            generator.writeNull();
+        }
+        else if (jsonData.indexOf('\n') < 0 && jsonData.indexOf('\r') < 0)
+        {
+            generator.writeRawValue(jsonData);
+        }
+        else
+        {
+            // json тип хранит исходный текст, перевод строки нарушит формат NDJSON
+            generator.writeTree(jsonMapper.readTree(jsonData));
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void finish() throws IOException
+    {
+        generator.close();
+    }
+}
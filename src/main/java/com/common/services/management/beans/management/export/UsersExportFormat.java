@@ -0,0 +1,48 @@
+package com.common.services.management.beans.management.export;
+
+/**
+ * UsersExportFormat.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Форматы выгрузки пользователей
+ */
+public enum UsersExportFormat
+{
+    /**
+     * Один json объект пользователя на строку
+     */
+    NDJSON("application/x-ndjson"),
+    /**
+     * Таблица CSV с заголовком, jsonData выгружается строкой json
+     */
+    CSV("text/csv");
+
+    private final String contentType;
+
+    UsersExportFormat(String contentType)
+    {
+        this.contentType = contentType;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    /**
+     * Возвращает формат по названию без учета регистра
+     * @param name название формата
+     * @return формат, null если формат не поддерживается
+     */
+    public static UsersExportFormat resolve(String name)
+    {
+        for (UsersExportFormat format : values())
+        {
+            if (format.name().equalsIgnoreCase(name))
+            {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.common.services.management.beans.management.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * UsersExportWriter.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Запись строк выборки пользователей в поток вывода по мере их получения из БД.
+ * Строки не накапливаются в памяти, jsonData записывается без разбора, если это позволяет формат.
+ * Ожидаемые колонки выборки: user_id, username, enabled, email, ldap, json_data
+ */
+public abstract class UsersExportWriter
+        implements RowCallbackHandler
+{
+    /**
+     * Создает объект записи в указанном формате
+     * @param format     формат выгрузки
+     * @param out        поток вывода, не закрывается
+     * @param jsonMapper объект для записи json
+     * @return объект записи
+     * @throws IOException ошибка записи
+     */
+    public static UsersExportWriter create(UsersExportFormat format, OutputStream out, ObjectMapper jsonMapper)
+            throws IOException
+    {
+        switch (format)
+        {
+            case CSV:
+                return new CsvUsersExportWriter(out);
+            default:
+                return new NdjsonUsersExportWriter(out, jsonMapper);
+        }
+    }
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException
+    {
+        try
+        {
+            writeRow(rs);
+        }
+        catch (IOException e)
+        {
+            // например, клиент закрыл подключение - прерываем выборку
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Записывает текущую строку выборки
+     * @param rs выборка пользователей
+     * @throws SQLException ошибка чтения выборки
+     * @throws IOException  ошибка записи
+     */
+    protected abstract void writeRow(ResultSet rs) throws SQLException, IOException;
+
+    /**
+     * Дописывает буферизованные данные в поток вывода
+     * @throws IOException ошибка записи
+     */
+    public abstract void finish() throws IOException;
+}
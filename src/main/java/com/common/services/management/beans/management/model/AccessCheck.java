@@ -0,0 +1,54 @@
+package com.common.services.management.beans.management.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import org.springframework.http.HttpMethod;
+
+/**
+ * AccessCheck.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Проверка доступа к пути сервиса
+ */
+@ApiModel(description = "Проверка доступа к пути сервиса")
+public class AccessCheck
+{
+    @ApiModelProperty("Http метод запроса")
+    private HttpMethod method;
+
+    @ApiModelProperty("Путь запроса")
+    private String path;
+
+    @ApiModelProperty(value = "Результат проверки", notes = "Заполняется сервисом")
+    private Boolean allowed;
+
+    public HttpMethod getMethod()
+    {
+        return method;
+    }
+
+    public void setMethod(HttpMethod method)
+    {
+        this.method = method;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public void setPath(String path)
+    {
+        this.path = path;
+    }
+
+    public Boolean getAllowed()
+    {
+        return allowed;
+    }
+
+    public void setAllowed(Boolean allowed)
+    {
+        this.allowed = allowed;
+    }
+}
@@ -0,0 +1,42 @@
+package com.common.services.management.beans.management.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.List;
+
+/**
+ * AccessCheckRequest.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Пакетная проверка доступа пользователя к путям сервисов
+ */
+@ApiModel(description = "Пакетная проверка доступа пользователя")
+public class AccessCheckRequest
+{
+    @ApiModelProperty(value = "Id пользователя", notes = "Если не указан, используется id из заголовка userId")
+    private Integer userId;
+
+    @ApiModelProperty("Список проверяемых путей")
+    private List<AccessCheck> checks;
+
+    public Integer getUserId()
+    {
+        return userId;
+    }
+
+    public void setUserId(Integer userId)
+    {
+        this.userId = userId;
+    }
+
+    public List<AccessCheck> getChecks()
+    {
+        return checks;
+    }
+
+    public void setChecks(List<AccessCheck> checks)
+    {
+        this.checks = checks;
+    }
+}
@@ -0,0 +1,210 @@
+package com.common.services.management.beans.management.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LdapSyncJob.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Задание синхронизации LDAP пользователей с БД, выполняемое в фоне.
+ * Состояние задания изменяется потоком синхронизации и читается при запросе хода выполнения
+ */
+@ApiModel(description = "Задание синхронизации LDAP пользователей с БД")
+public class LdapSyncJob
+{
+    /**
+     * Этапы выполнения задания
+     */
+    public enum Phase
+    {
+        /**
+         * Ожидает свободного потока
+         */
+        QUEUED,
+        /**
+         * Чтение пользователей LDAP во временную таблицу
+         */
+        READING,
+        /**
+         * Применение изменений к пользователям БД
+         */
+        APPLYING,
+        COMPLETED,
+        FAILED,
+        CANCELLED,
+        /**
+         * Каталог синхронизирует другой узел сервиса, изменения не применялись
+         */
+        SKIPPED;
+
+        public boolean isFinished()
+        {
+            return this == COMPLETED || this == FAILED || this == CANCELLED || this == SKIPPED;
+        }
+    }
+
+    @ApiModelProperty("id задания")
+    private final String id;
+
+    @ApiModelProperty("Каталог LDAP (адрес сервера и база)")
+    private final String directory;
+
+    @ApiModelProperty("Режим синхронизации. Если предыдущей синхронизации каталога не было, " +
+            "вместо DELTA выполняется FULL")
+    private final LdapSyncMode mode;
+
+    @ApiModelProperty("Этап выполнения")
+    private volatile Phase phase = Phase.QUEUED;
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    @ApiModelProperty("Время создания задания")
+    private final Date submitted = new Date();
+
+    private volatile long started;
+    private volatile long finished;
+    private volatile boolean cancelRequested;
+    private volatile LdapSyncResult result;
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    public LdapSyncJob(String id, String directory, LdapSyncMode mode)
+    {
+        this.id = id;
+        this.directory = directory;
+        this.mode = mode;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getDirectory()
+    {
+        return directory;
+    }
+
+    public LdapSyncMode getMode()
+    {
+        return mode;
+    }
+
+    public Phase getPhase()
+    {
+        return phase;
+    }
+
+    public void setPhase(Phase phase)
+    {
+        this.phase = phase;
+    }
+
+    @ApiModelProperty("Количество прочитанных пользователей LDAP")
+    public int getProcessed()
+    {
+        return processed.get();
+    }
+
+    public void addProcessed(int count)
+    {
+        processed.addAndGet(count);
+    }
+
+    public Date getSubmitted()
+    {
+        return submitted;
+    }
+
+    @ApiModelProperty("Время начала выполнения")
+    public Date getStarted()
+    {
+        return started == 0 ? null : new Date(started);
+    }
+
+    public void start()
+    {
+        started = System.currentTimeMillis();
+        phase = Phase.READING;
+    }
+
+    @ApiModelProperty("Время завершения")
+    public Date getFinished()
+    {
+        return finished == 0 ? null : new Date(finished);
+    }
+
+    /**
+     * Завершает задание
+     * @param phase завершающий этап
+     */
+    public void finish(Phase phase)
+    {
+        finished = System.currentTimeMillis();
+        this.phase = phase;
+    }
+
+    /**
+     * Возвращает время завершения задания в миллисекундах
+     * @return время завершения, 0 если задание не завершено
+     */
+    @JsonIgnore
+    public long getFinishedMillis()
+    {
+        return finished;
+    }
+
+    @ApiModelProperty("Скорость чтения пользователей LDAP, пользователей в секунду")
+    public double getThroughput()
+    {
+        if (started == 0)
+        {
+            return 0;
+        }
+        long elapsed = (finished == 0 ? System.currentTimeMillis() : finished) - started;
+        return elapsed <= 0 ? 0 : processed.get() * 1000.0 / elapsed;
+    }
+
+    @ApiModelProperty("Запрошена отмена задания")
+    public boolean isCancelRequested()
+    {
+        return cancelRequested;
+    }
+
+    public void requestCancel()
+    {
+        cancelRequested = true;
+    }
+
+    @ApiModelProperty("Результат синхронизации, указывается после завершения")
+    public LdapSyncResult getResult()
+    {
+        return result;
+    }
+
+    public void setResult(LdapSyncResult result)
+    {
+        this.result = result;
+    }
+
+    @ApiModelProperty("Ошибки выполнения")
+    public List<String> getErrors()
+    {
+        synchronized (errors)
+        {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public void addError(String error)
+    {
+        errors.add(error);
+    }
+}
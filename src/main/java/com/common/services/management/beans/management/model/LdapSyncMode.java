@@ -0,0 +1,20 @@
+package com.common.services.management.beans.management.model;
+
+/**
+ * LdapSyncMode.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Режимы синхронизации LDAP пользователей с БД
+ */
+public enum LdapSyncMode
+{
+    /**
+     * Чтение всего каталога, пользователям, отсутствующим в LDAP, закрывается доступ
+     */
+    FULL,
+    /**
+     * Чтение только пользователей, измененных после предыдущей синхронизации.
+     * Удаленные из LDAP пользователи обнаруживаются только полной синхронизацией
+     */
+    DELTA
+}
@@ -0,0 +1,111 @@
+package com.common.services.management.beans.management.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * LdapSyncResult.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Результат синхронизации пользователей БД с пользователями LDAP
+ */
+@ApiModel(description = "Результат синхронизации LDAP пользователей с БД")
+public class LdapSyncResult
+{
+    @ApiModelProperty("Количество добавленных пользователей")
+    private int added;
+
+    @ApiModelProperty(value = "Количество пользователей, которым открыт доступ",
+            notes = "Включая существующих пользователей, получивших метку ldap")
+    private int enabled;
+
+    @ApiModelProperty("Количество LDAP пользователей, отсутствующих в LDAP, которым закрыт доступ")
+    private int disabled;
+
+    @ApiModelProperty("Количество назначенных пользователям ролей LDAP групп")
+    private int rolesAdded;
+
+    @ApiModelProperty("Количество снятых с пользователей ролей LDAP групп")
+    private int rolesRemoved;
+
+    @ApiModelProperty(value = "Количество изменений ролей при удалении и повторном назначении всех ролей LDAP групп",
+            notes = "Для сравнения с rolesAdded + rolesRemoved")
+    private int rolesRewritten;
+
+    public LdapSyncResult()
+    {
+    }
+
+    public LdapSyncResult(int added, int enabled, int disabled)
+    {
+        this.added = added;
+        this.enabled = enabled;
+        this.disabled = disabled;
+    }
+
+    public int getAdded()
+    {
+        return added;
+    }
+
+    public void setAdded(int added)
+    {
+        this.added = added;
+    }
+
+    public int getEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(int enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public int getDisabled()
+    {
+        return disabled;
+    }
+
+    public void setDisabled(int disabled)
+    {
+        this.disabled = disabled;
+    }
+
+    public int getRolesAdded()
+    {
+        return rolesAdded;
+    }
+
+    public void setRolesAdded(int rolesAdded)
+    {
+        this.rolesAdded = rolesAdded;
+    }
+
+    public int getRolesRemoved()
+    {
+        return rolesRemoved;
+    }
+
+    public void setRolesRemoved(int rolesRemoved)
+    {
+        this.rolesRemoved = rolesRemoved;
+    }
+
+    public int getRolesRewritten()
+    {
+        return rolesRewritten;
+    }
+
+    public void setRolesRewritten(int rolesRewritten)
+    {
+        this.rolesRewritten = rolesRewritten;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "added=" + added + ", enabled=" + enabled + ", disabled=" + disabled;
+    }
+}
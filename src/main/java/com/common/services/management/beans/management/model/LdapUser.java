@@ -0,0 +1,38 @@
+package com.common.services.management.beans.management.model;
+
+import java.util.Collection;
+
+/**
+ * LdapUser.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Пользователь LDAP, прочитанный при синхронизации: логин и группы, в которые он входит
+ */
+public class LdapUser
+{
+    /**
+     * Логин пользователя
+     */
+    private final String username;
+
+    /**
+     * DN групп пользователя (атрибут ldap.group.attribute), null если группы не читались
+     */
+    private final Collection<String> groups;
+
+    public LdapUser(String username, Collection<String> groups)
+    {
+        this.username = username;
+        this.groups = groups;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public Collection<String> getGroups()
+    {
+        return groups;
+    }
+}
@@ -1,5 +1,9 @@
 package com.common.services.management.beans.management.model;
 
+import com.common.services.management.libs.RawJson;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.http.HttpMethod;
 
 import java.util.ArrayList;
@@ -14,11 +18,17 @@ import java.util.List;
  */
 public class Permission
 {
+    private static final ObjectReader JSON_DATA_READER = RawJson.readerFor(PermissionJsonObject.class);
+
     private Integer id;
     private String description;
     private String path;
     private HttpMethod method;
-    private PermissionJsonObject jsonData;
+    private volatile PermissionJsonObject jsonData;
+    /**
+     * json объект пермиссии строкой из БД, разбирается при первом обращении к jsonData
+     */
+    private volatile String rawJsonData;
     private List<Role> roles = Collections.emptyList();
 
     public Permission()
@@ -37,9 +47,24 @@ public class Permission
      *
      * @return возвращяет json объект пермиссии
      */
+    @JsonIgnore
     public PermissionJsonObject getJsonData()
     {
-        return jsonData;
+        // объект может разбираться одновременно в нескольких потоках (объекты снимка прав общие): разобранный
+        // объект публикуется до сброса строки, поэтому поток, увидевший сброшенную строку, видит и объект
+        PermissionJsonObject data = jsonData;
+        if (data == null)
+        {
+            String raw = rawJsonData;
+            if (raw == null)
+            {
+                return jsonData;
+            }
+            data = RawJson.parse(JSON_DATA_READER, raw);
+            jsonData = data;
+            rawJsonData = null;
+        }
+        return data;
     }
 
     /**
@@ -47,9 +72,45 @@ public class Permission
      *
      * @param jsonData json объект пермиссии
      */
+    @JsonProperty("jsonData")
     public void setJsonData(PermissionJsonObject jsonData)
     {
         this.jsonData = jsonData;
+        rawJsonData = null;
+    }
+
+    /**
+     * Возвращает json объект пермиссии для сериализации: строку из БД без разбора, если объект не разбирался
+     *
+     * @return json объект пермиссии
+     */
+    @JsonProperty("jsonData")
+    public Object getJsonDataValue()
+    {
+        return RawJson.toValue(rawJsonData, jsonData);
+    }
+
+    /**
+     * Возвращает json объект пермиссии строкой из БД
+     *
+     * @return json строка, null если json объект разобран или установлен
+     */
+    @JsonIgnore
+    public String getRawJsonData()
+    {
+        return rawJsonData;
+    }
+
+    /**
+     * Устанавливает json объект пермиссии строкой из БД
+     *
+     * @param rawJsonData json строка
+     */
+    @JsonIgnore
+    public void setRawJsonData(String rawJsonData)
+    {
+        this.rawJsonData = rawJsonData;
+        jsonData = null;
     }
 
     /**
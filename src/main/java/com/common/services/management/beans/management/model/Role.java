@@ -1,5 +1,10 @@
 package com.common.services.management.beans.management.model;
 
+import com.common.services.management.libs.RawJson;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+
 import java.util.List;
 
 /**
@@ -10,9 +15,15 @@ import java.util.List;
  */
 public class Role
 {
+    private static final ObjectReader JSON_DATA_READER = RawJson.readerFor(RoleJsonObject.class);
+
     private String name;
     private String description;
-    private RoleJsonObject jsonData;
+    private volatile RoleJsonObject jsonData;
+    /**
+     * json объект роли строкой из БД, разбирается при первом обращении к jsonData
+     */
+    private volatile String rawJsonData;
     private List<Permission> permissions;
 
     /**
@@ -40,9 +51,24 @@ public class Role
      *
      * @return возвращает json объект роли
      */
+    @JsonIgnore
     public RoleJsonObject getJsonData()
     {
-        return jsonData;
+        // объект может разбираться одновременно в нескольких потоках (объекты снимка прав общие): разобранный
+        // объект публикуется до сброса строки, поэтому поток, увидевший сброшенную строку, видит и объект
+        RoleJsonObject data = jsonData;
+        if (data == null)
+        {
+            String raw = rawJsonData;
+            if (raw == null)
+            {
+                return jsonData;
+            }
+            data = RawJson.parse(JSON_DATA_READER, raw);
+            jsonData = data;
+            rawJsonData = null;
+        }
+        return data;
     }
 
     /**
@@ -50,9 +76,45 @@ public class Role
      *
      * @param jsonData json объект роли
      */
+    @JsonProperty("jsonData")
     public void setJsonData(RoleJsonObject jsonData)
     {
         this.jsonData = jsonData;
+        rawJsonData = null;
+    }
+
+    /**
+     * Возвращает json объект роли для сериализации: строку из БД без разбора, если объект не разбирался
+     *
+     * @return json объект роли
+     */
+    @JsonProperty("jsonData")
+    public Object getJsonDataValue()
+    {
+        return RawJson.toValue(rawJsonData, jsonData);
+    }
+
+    /**
+     * Возвращает json объект роли строкой из БД
+     *
+     * @return json строка, null если json объект разобран или установлен
+     */
+    @JsonIgnore
+    public String getRawJsonData()
+    {
+        return rawJsonData;
+    }
+
+    /**
+     * Устанавливает json объект роли строкой из БД
+     *
+     * @param rawJsonData json строка
+     */
+    @JsonIgnore
+    public void setRawJsonData(String rawJsonData)
+    {
+        this.rawJsonData = rawJsonData;
+        jsonData = null;
     }
 
     /**
@@ -1,5 +1,10 @@
 package com.common.services.management.beans.management.model;
 
+import com.common.services.management.libs.RawJson;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -12,12 +17,18 @@ import java.util.Map;
  */
 public class User
 {
+    private static final ObjectReader JSON_DATA_READER = RawJson.readerFor(Map.class);
+
     private Integer id;
     private String name;
     private String password;
     private Boolean enabled;
     private String email;
-    private Map<String, Object> jsonData;
+    private volatile Map<String, Object> jsonData;
+    /**
+     * json объект пользователя строкой из БД, разбирается при первом обращении к jsonData
+     */
+    private volatile String rawJsonData;
     private List<Role> roles = Collections.emptyList();
     // Флаг является ли пользователь LDAP пользователем
     private Boolean ldap;
@@ -54,18 +65,69 @@ public class User
      * Возвращает json объект пользователя
      * @return возвращает json объект пользователя
      */
+    @JsonIgnore
     public Map<String, Object> getJsonData()
     {
-        return jsonData;
+        // объект может разбираться одновременно в нескольких потоках (объекты снимка прав общие): разобранный
+        // объект публикуется до сброса строки, поэтому поток, увидевший сброшенную строку, видит и объект
+        Map<String, Object> data = jsonData;
+        if (data == null)
+        {
+            String raw = rawJsonData;
+            if (raw == null)
+            {
+                return jsonData;
+            }
+            data = RawJson.parse(JSON_DATA_READER, raw);
+            jsonData = data;
+            rawJsonData = null;
+        }
+        return data;
     }
 
     /**
      * Устанавливает json объект пользователя
      * @param jsonData json объект пользователя
      */
+    @JsonProperty("jsonData")
     public void setJsonData(Map<String, Object> jsonData)
     {
         this.jsonData = jsonData;
+        rawJsonData = null;
+    }
+
+    /**
+     * Возвращает json объект пользователя для сериализации: строку из БД без разбора, если объект не разбирался
+     *
+     * @return json объект пользователя
+     */
+    @JsonProperty("jsonData")
+    public Object getJsonDataValue()
+    {
+        return RawJson.toValue(rawJsonData, jsonData);
+    }
+
+    /**
+     * Возвращает json объект пользователя строкой из БД
+     *
+     * @return json строка, null если json объект разобран или установлен
+     */
+    @JsonIgnore
+    public String getRawJsonData()
+    {
+        return rawJsonData;
+    }
+
+    /**
+     * Устанавливает json объект пользователя строкой из БД
+     *
+     * @param rawJsonData json строка
+     */
+    @JsonIgnore
+    public void setRawJsonData(String rawJsonData)
+    {
+        this.rawJsonData = rawJsonData;
+        jsonData = null;
     }
 
     /**
@@ -0,0 +1,53 @@
+package com.common.services.management.beans.management.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.List;
+
+/**
+ * UsersPage.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Страница списка пользователей при выборке по токену продолжения
+ */
+@ApiModel(description = "Страница списка пользователей")
+public class UsersPage
+{
+    @ApiModelProperty("Пользователи страницы")
+    private List<User> users;
+
+    @ApiModelProperty(value = "Токен продолжения для получения следующей страницы",
+            notes = "Не указан, если страница последняя")
+    private String nextToken;
+
+    public UsersPage()
+    {
+    }
+
+    public UsersPage(List<User> users, String nextToken)
+    {
+        this.users = users;
+        this.nextToken = nextToken;
+    }
+
+    public List<User> getUsers()
+    {
+        return users;
+    }
+
+    public void setUsers(List<User> users)
+    {
+        this.users = users;
+    }
+
+    public String getNextToken()
+    {
+        return nextToken;
+    }
+
+    public void setNextToken(String nextToken)
+    {
+        this.nextToken = nextToken;
+    }
+}
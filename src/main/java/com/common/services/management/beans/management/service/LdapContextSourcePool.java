@@ -0,0 +1,269 @@
+package com.common.services.management.beans.management.service;
+
+import com.common.services.management.logging.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * LdapContextSourcePool.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Пулы подключений к LDAP, по одному на сервер, базу, пользователя подключения и пароль.
+ * Подключения переиспользуются между синхронизациями и запросами к LDAP, простаивающие подключения
+ * проверяются и закрываются фоновой задачей пула. Количество пулов ограничено, при превышении
+ * вытесняется пул, который дольше всех не использовался. Вытесненный пул закрывается после возврата
+ * всех подключений, чтобы не прерывать выполняемые через него чтения
+ */
+@Component
+public class LdapContextSourcePool
+{
+    @Value("${ldap.pool.enabled:true}")
+    private boolean enabled;
+    @Value("${ldap.pool.max-total-per-key:8}")
+    private int maxTotalPerKey;
+    @Value("${ldap.pool.max-idle-per-key:4}")
+    private int maxIdlePerKey;
+    @Value("${ldap.pool.max-wait:10000}")
+    private long maxWaitMillis;
+    /**
+     * Время простоя, после которого подключение закрывается
+     */
+    @Value("${ldap.pool.min-evictable-idle-time:300000}")
+    private long minEvictableIdleTimeMillis;
+    @Value("${ldap.pool.eviction-interval:60000}")
+    private long evictionIntervalMillis;
+    /**
+     * Наибольшее количество пулов
+     */
+    @Value("${ldap.pool.max-pools:16}")
+    private int maxPools;
+
+    @Autowired
+    private Logger logger;
+
+    /**
+     * Пулы в порядке использования, первым - дольше всех не использовавшийся
+     */
+    private final LinkedHashMap<PoolKey, PooledContextSource> pools = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Вытесненные пулы с активными подключениями, ожидающие закрытия
+     */
+    private final List<PooledContextSource> retired = new ArrayList<>();
+
+    /**
+     * Ключ пула подключений. Пароль хранится в виде хеша SHA-256
+     */
+    private static class PoolKey
+    {
+        private final String url;
+        private final String base;
+        private final String userDn;
+        private final String passwordHash;
+
+        PoolKey(String url, String base, String userDn, String passwordHash)
+        {
+            this.url = url;
+            this.base = base;
+            this.userDn = userDn;
+            this.passwordHash = passwordHash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass())
+            {
+                return false;
+            }
+            PoolKey key = (PoolKey) o;
+            return Objects.equals(url, key.url) && Objects.equals(base, key.base) && Objects.equals(userDn, key.userDn)
+                    && Objects.equals(passwordHash, key.passwordHash);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(url, base, userDn, passwordHash);
+        }
+    }
+
+    /**
+     * Возвращает источник подключений к LDAP из пула.
+     * Пулы с разными паролями одного пользователя не пересекаются: подключение с неверным паролем не выполняется
+     * через ранее открытые подключения и не закрывает пул с верным паролем
+     * @param url      адрес сервера
+     * @param base     база
+     * @param userDn   пользователь подключения
+     * @param password пароль пользователя
+     * @return источник подключений
+     */
+    public ContextSource getContextSource(String url, String base, String userDn, String password)
+    {
+        if (!enabled)
+        {
+            return createContextSource(url, base, userDn, password);
+        }
+
+        PoolKey key = new PoolKey(url, base, userDn, hash(password));
+        PooledContextSource pool;
+        synchronized (pools)
+        {
+            pool = pools.get(key);
+            if (pool != null)
+            {
+                return pool;
+            }
+            pool = createPool(createContextSource(url, base, userDn, password), base);
+            pools.put(key, pool);
+            Iterator<PooledContextSource> iterator = pools.values().iterator();
+            while (pools.size() > maxPools)
+            {
+                retired.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        closeRetiredPools();
+        return pool;
+    }
+
+    /**
+     * Закрывает вытесненные пулы, все подключения которых возвращены
+     */
+    @Scheduled(initialDelayString = "${ldap.pool.eviction-interval:60000}",
+            fixedDelayString = "${ldap.pool.eviction-interval:60000}")
+    public void closeRetiredPools()
+    {
+        List<PooledContextSource> idle = new ArrayList<>();
+        synchronized (pools)
+        {
+            Iterator<PooledContextSource> iterator = retired.iterator();
+            while (iterator.hasNext())
+            {
+                PooledContextSource pool = iterator.next();
+                if (pool.getNumActive() == 0)
+                {
+                    idle.add(pool);
+                    iterator.remove();
+                }
+            }
+        }
+        idle.forEach(this::destroy);
+    }
+
+    private static LdapContextSource createContextSource(String url, String base, String userDn, String password)
+    {
+        LdapContextSource target = new LdapContextSource();
+        target.setUrl(url);
+        target.setBase(base);
+        target.setUserDn(userDn);
+        target.setPassword(password);
+        target.afterPropertiesSet();
+        return target;
+    }
+
+    private static String hash(String password)
+    {
+        if (password == null)
+        {
+            return null;
+        }
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PooledContextSource createPool(LdapContextSource target, String base)
+    {
+        PoolConfig config = new PoolConfig();
+        config.setMaxTotalPerKey(maxTotalPerKey);
+        config.setMaxIdlePerKey(maxIdlePerKey);
+        config.setMaxWaitMillis(maxWaitMillis);
+        config.setTestOnBorrow(true);
+        config.setTestWhileIdle(true);
+        config.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+        config.setTimeBetweenEvictionRunsMillis(evictionIntervalMillis);
+        config.setJmxEnabled(false);
+
+        PooledContextSource pool = new PooledContextSource(config);
+        pool.setContextSource(target);
+        DefaultDirContextValidator validator = new DefaultDirContextValidator();
+        validator.setBase(base);
+        pool.setDirContextValidator(validator);
+        return pool;
+    }
+
+    /**
+     * Возвращает статистику пулов подключений
+     * @return для каждого пула: адрес, база и пользователь подключения, количество активных, простаивающих
+     * подключений и ожидающих подключения потоков
+     */
+    public List<Map<String, Object>> getStatistics()
+    {
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        synchronized (pools)
+        {
+            pools.forEach((key, contextSource) ->
+            {
+                Map<String, Object> pool = new LinkedHashMap<>();
+                pool.put("url", key.url);
+                pool.put("base", key.base);
+                pool.put("userDn", key.userDn);
+                pool.put("active", contextSource.getNumActive());
+                pool.put("idle", contextSource.getNumIdle());
+                pool.put("waiters", contextSource.getNumWaiters());
+                pool.put("maxTotal", contextSource.getPoolConfig().getMaxTotalPerKey());
+                statistics.add(pool);
+            });
+        }
+        return statistics;
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        List<PooledContextSource> entries;
+        synchronized (pools)
+        {
+            entries = new ArrayList<>(pools.values());
+            entries.addAll(retired);
+            pools.clear();
+            retired.clear();
+        }
+        entries.forEach(this::destroy);
+    }
+
+    private void destroy(PooledContextSource contextSource)
+    {
+        try
+        {
+            contextSource.destroy();
+        }
+        catch (Exception e)
+        {
+            logger.error(e);
+        }
+    }
+}
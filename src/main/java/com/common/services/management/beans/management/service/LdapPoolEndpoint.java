@@ -0,0 +1,29 @@
+package com.common.services.management.beans.management.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LdapPoolEndpoint.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Actuator endpoint со статистикой пулов подключений к LDAP (/actuator/ldappool)
+ */
+@Component
+@Endpoint(id = "ldappool")
+public class LdapPoolEndpoint
+{
+    @Autowired
+    private LdapContextSourcePool ldapContextSourcePool;
+
+    @ReadOperation
+    public List<Map<String, Object>> pools()
+    {
+        return ldapContextSourcePool.getStatistics();
+    }
+}
@@ -1,18 +1,32 @@
 package com.common.services.management.beans.management.service;
 
 import com.common.services.management.beans.management.model.LdapPermissions;
+import com.common.services.management.beans.management.model.LdapUser;
 import com.common.services.management.beans.serv.exceptions.ServiceException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
-import org.springframework.ldap.core.LdapTemplate;
-import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.ldap.filter.AndFilter;
+import org.springframework.ldap.filter.EqualsFilter;
+import org.springframework.ldap.filter.GreaterThanOrEqualsFilter;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
-import javax.naming.directory.Attributes;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-
-import static org.springframework.ldap.query.LdapQueryBuilder.query;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * LdapService.java
@@ -24,27 +38,72 @@ import static org.springframework.ldap.query.LdapQueryBuilder.query;
 public class LdapService
 {
     private static final String ERROR_LDAP_CONNECTION = "error.ldap.connectionError";
+    private static final String ATTRIBUTE_OBJECT_CLASS = "objectclass";
+    private static final String OBJECT_CLASS_PERSON = "person";
+    private static final String ATTRIBUTE_UID = "uid";
+
+    /**
+     * Ошибка обработчика страницы, передается вызывающему без изменений
+     */
+    @SuppressWarnings("serial")
+    private static class ConsumerException extends RuntimeException
+    {
+        ConsumerException(RuntimeException cause)
+        {
+            super(cause);
+        }
+
+        @Override
+        public synchronized RuntimeException getCause()
+        {
+            return (RuntimeException) super.getCause();
+        }
+    }
+
     @Value("${ldap.url:}")
     private String url;
     @Value("${ldap.base:}")
     private String base;
+    /**
+     * Количество пользователей на странице постраничного чтения (RFC 2696)
+     */
+    @Value("${ldap.page.size:1000}")
+    private int pageSize;
+    /**
+     * Атрибут отметки изменения записи для чтения только измененных пользователей:
+     * modifyTimestamp или uSNChanged (Active Directory)
+     */
+    @Value("${ldap.delta.attribute:modifyTimestamp}")
+    private String markAttribute;
+    /**
+     * Атрибут пользователя со списком DN его групп для назначения ролей LDAP групп (memberOf), пустое значение -
+     * группы не читаются и роли при синхронизации не изменяются. Задается только для каталогов, которые
+     * заполняют атрибут (overlay memberOf в OpenLDAP, Active Directory)
+     */
+    @Value("${ldap.group.attribute:}")
+    private String groupAttribute;
     @Autowired
     private ServiceException serviceException;
+    @Autowired
+    private LdapContextSourcePool ldapContextSourcePool;
 
     /**
      * Подключение к LDAP
      * @param ldap параметры подключения
-     * @return LdapTemplate объект
+     * @return источник подключений из пула подключений пользователя
      */
-    private LdapTemplate configureLdapTemplate(LdapPermissions ldap)
+    private ContextSource configureContextSource(LdapPermissions ldap)
     {
-        LdapContextSource contextSource = new LdapContextSource();
-        contextSource.setUrl(url);
-        contextSource.setBase(base);
-        contextSource.setUserDn(ldap.getUserDn());
-        contextSource.setPassword(ldap.getPassword());
-        contextSource.afterPropertiesSet();
-        return new LdapTemplate(contextSource);
+        return ldapContextSourcePool.getContextSource(url, base, ldap.getUserDn(), ldap.getPassword());
+    }
+
+    /**
+     * Возвращает каталог LDAP, с которым работает сервис
+     * @return адрес сервера и база
+     */
+    public String getDirectory()
+    {
+        return url + "/" + base;
     }
 
     /**
@@ -54,23 +113,172 @@ public class LdapService
      */
     public List<String> getAllUsers(LdapPermissions ldapPermissions)
     {
+        List<String> usernames = new ArrayList<>();
+        readUsers(ldapPermissions, usernames::addAll);
+        return usernames;
+    }
+
+    /**
+     * Постранично читает логины всех пользователей и передает каждую страницу обработчику
+     * @param ldapPermissions параметры подключения
+     * @param consumer        обработчик страницы логинов
+     */
+    public void readUsers(LdapPermissions ldapPermissions, Consumer<Collection<String>> consumer)
+    {
+        readUsers(ldapPermissions, null, consumer);
+    }
+
+    /**
+     * Постранично читает логины пользователей, измененных начиная с указанной отметки, и передает каждую
+     * страницу обработчику. Страницы читаются на одном подключении, в памяти находится только текущая страница
+     * @param ldapPermissions параметры подключения
+     * @param since           отметка изменения (значение атрибута ldap.delta.attribute), null - читаются все
+     *                        пользователи
+     * @param consumer        обработчик страницы логинов
+     * @return наибольшая отметка изменения прочитанных пользователей, since если пользователи не прочитаны
+     */
+    public String readUsers(LdapPermissions ldapPermissions, String since, Consumer<Collection<String>> consumer)
+    {
+        return readLdapUsers(ldapPermissions, since, page -> consumer.accept(page.stream()
+                                                                              .map(LdapUser::getUsername)
+                                                                              .collect(Collectors.toList())));
+    }
+
+    /**
+     * Постранично читает пользователей с их группами, измененных начиная с указанной отметки, и передает каждую
+     * страницу обработчику. Логины и группы читаются за один проход по каталогу. Если атрибут групп не задан
+     * ни у одного пользователя страницы, каталог его, вероятно, не заполняет: группы пользователей страницы
+     * считаются непрочитанными, чтобы синхронизация не сняла роли LDAP групп
+     * @param ldapPermissions параметры подключения
+     * @param since           отметка изменения (значение атрибута ldap.delta.attribute), null - читаются все
+     *                        пользователи
+     * @param consumer        обработчик страницы пользователей
+     * @return наибольшая отметка изменения прочитанных пользователей, since если пользователи не прочитаны
+     */
+    public String readLdapUsers(LdapPermissions ldapPermissions, String since, Consumer<List<LdapUser>> consumer)
+    {
+        boolean readGroups = !StringUtils.isEmpty(groupAttribute);
+        AndFilter filter = new AndFilter().and(new EqualsFilter(ATTRIBUTE_OBJECT_CLASS, OBJECT_CLASS_PERSON));
+        if (since != null)
+        {
+            filter.and(new GreaterThanOrEqualsFilter(markAttribute, since));
+        }
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        // атрибуты отметки изменения операционные и возвращаются только по явному запросу
+        controls.setReturningAttributes(readGroups ? new String[]{ATTRIBUTE_UID, markAttribute, groupAttribute}
+                                                   : new String[]{ATTRIBUTE_UID, markAttribute});
+        AtomicReference<String> mark = new AtomicReference<>(since);
+        AttributesMapper<LdapUser> mapper = attributes ->
+        {
+            Attribute modified = attributes.get(markAttribute);
+            if (modified != null)
+            {
+                mark.accumulateAndGet(modified.get().toString(), LdapService::maxMark);
+            }
+            Attribute uid = attributes.get(ATTRIBUTE_UID);
+            if (uid == null)
+            {
+                return null;
+            }
+            List<String> groups = null;
+            Attribute memberOf = readGroups ? attributes.get(groupAttribute) : null;
+            if (memberOf != null)
+            {
+                groups = new ArrayList<>();
+                for (int i = 0; i < memberOf.size(); i++)
+                {
+                    groups.add(memberOf.get(i).toString());
+                }
+            }
+            return new LdapUser(uid.get().toString(), groups);
+        };
         try
         {
-            LdapTemplate ldapTemplate = configureLdapTemplate(ldapPermissions);
-            return ldapTemplate.search(query().where("objectclass").is("person"), new AttributesMapper<String>()
+            // cookie постраничного чтения действует только в рамках подключения
+            SingleContextSource.doWithSingleContext(configureContextSource(ldapPermissions), operations ->
             {
-                @Override
-                public String mapFromAttributes(Attributes attributes) throws javax.naming.NamingException
+                PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(pageSize);
+                try
                 {
-                    String username = attributes.get("uid").get().toString();
-                    return username;
+                    do
+                    {
+                        List<LdapUser> page = operations.search("", filter.encode(), controls, mapper, processor);
+                        page.removeIf(Objects::isNull);
+                        if (page.stream().anyMatch(user -> user.getGroups() != null))
+                        {
+                            // каталог заполняет атрибут групп, пользователи без атрибута не входят в группы
+                            page.replaceAll(user -> user.getGroups() != null ? user
+                                : new LdapUser(user.getUsername(), Collections.emptyList()));
+                        }
+                        try
+                        {
+                            consumer.accept(page);
+                        }
+                        catch (RuntimeException e)
+                        {
+                            throw new ConsumerException(e);
+                        }
+                    }
+                    while (processor.hasMore());
                 }
+                finally
+                {
+                    // подключение возвращается в пул, следующие запросы не должны отправлять control страниц
+                    operations.executeReadOnly(LdapService::resetRequestControls);
+                }
+                return null;
             });
         }
-        catch (Throwable e)
+        catch (ConsumerException e)
+        {
+            throw e.getCause();
+        }
+        catch (RuntimeException e)
         {
+            // ошибки подключения, получения подключения из пула и чтения LDAP
             throw serviceException.applyParameters(ERROR_LDAP_CONNECTION, e);
         }
+        return mark.get();
+    }
+
+    /**
+     * Возвращает большую из отметок изменения. Числовые отметки (uSNChanged) сравниваются как числа,
+     * отметки времени (modifyTimestamp в формате GeneralizedTime) - как строки
+     * @param first  отметка, может быть null
+     * @param second отметка, может быть null
+     * @return большая отметка
+     */
+    static String maxMark(String first, String second)
+    {
+        if (first == null || second == null)
+        {
+            return first == null ? second : first;
+        }
+        int compare = isNumber(first) && isNumber(second)
+                ? first.length() != second.length() ? Integer.compare(first.length(), second.length())
+                                                    : first.compareTo(second)
+                : first.compareTo(second);
+        return compare >= 0 ? first : second;
+    }
+
+    private static boolean isNumber(String value)
+    {
+        return !value.isEmpty() && value.chars().allMatch(Character::isDigit);
     }
-}
 
+    /**
+     * Удаляет controls запросов, установленные на подключении
+     * @param context подключение
+     * @return null
+     * @throws javax.naming.NamingException ошибка LDAP
+     */
+    private static Object resetRequestControls(DirContext context) throws javax.naming.NamingException
+    {
+        if (context instanceof LdapContext)
+        {
+            ((LdapContext) context).setRequestControls(null);
+        }
+        return null;
+    }
+}
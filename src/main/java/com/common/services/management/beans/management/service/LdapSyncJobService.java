@@ -0,0 +1,226 @@
+package com.common.services.management.beans.management.service;
+
+import com.common.services.management.beans.management.model.LdapPermissions;
+import com.common.services.management.beans.management.model.LdapSyncJob;
+import com.common.services.management.beans.management.model.LdapSyncJob.Phase;
+import com.common.services.management.beans.management.model.LdapSyncMode;
+import com.common.services.management.beans.management.model.LdapSyncResult;
+import com.common.services.management.beans.serv.exceptions.NotFoundException;
+import com.common.services.management.beans.serv.exceptions.ServiceException;
+import com.common.services.management.logging.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * LdapSyncJobService.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Фоновое выполнение синхронизации LDAP пользователей с БД.
+ * Задания выполняются ограниченным пулом потоков, для одного каталога LDAP одновременно выполняется
+ * не более одного задания на узле. Между узлами сервиса синхронизация каталога исключается advisory
+ * блокировкой в БД, задание, не получившее блокировку, завершается без изменений (SKIPPED).
+ * Завершенные задания хранятся ldap.sync.jobs.retention миллисекунд
+ */
+@Component
+public class LdapSyncJobService
+{
+    private static final String ERROR_SYNC_JOB_NOT_FOUND = "error.ldap.syncJobNotFound";
+    private static final String ERROR_SYNC_RUNNING = "error.ldap.syncRunning";
+    private static final String ERROR_SYNC_QUEUE_FULL = "error.ldap.syncQueueFull";
+
+    @Value("${ldap.sync.jobs.threads:2}")
+    private int threads;
+    @Value("${ldap.sync.jobs.queue:10}")
+    private int queueCapacity;
+    @Value("${ldap.sync.jobs.retention:3600000}")
+    private long retentionMillis;
+
+    @Autowired
+    private LdapService ldapService;
+    @Autowired
+    private UsersManagementService usersManagementService;
+    @Autowired
+    private ServiceException serviceException;
+    @Autowired
+    private NotFoundException notFoundException;
+    @Autowired
+    private Logger logger;
+
+    private final Map<String, LdapSyncJob> jobs = new ConcurrentHashMap<>();
+    /**
+     * Незавершенные задания по каталогу LDAP
+     */
+    private final Map<String, LdapSyncJob> activeJobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Отмена задания по запросу пользователя
+     */
+    @SuppressWarnings("serial")
+    private static class JobCancelledException extends RuntimeException
+    {
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable ->
+        {
+            Thread thread = new Thread(runnable, "ldap-sync-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        jobs.values().forEach(LdapSyncJob::requestCancel);
+        executor.shutdown();
+    }
+
+    /**
+     * Ставит полную синхронизацию в очередь выполнения
+     * @param ldap параметры подключения к LDAP
+     * @return задание синхронизации
+     */
+    public LdapSyncJob submit(LdapPermissions ldap)
+    {
+        return submit(ldap, LdapSyncMode.FULL);
+    }
+
+    /**
+     * Ставит синхронизацию в очередь выполнения.
+     * Синхронизация DELTA читает пользователей, измененных начиная с отметки предыдущей синхронизации
+     * каталога, если отметки нет - выполняется полная синхронизация
+     * @param ldap параметры подключения к LDAP
+     * @param mode режим синхронизации
+     * @return задание синхронизации
+     */
+    public LdapSyncJob submit(LdapPermissions ldap, LdapSyncMode mode)
+    {
+        removeExpiredJobs();
+        String directory = ldapService.getDirectory();
+        String since = mode == LdapSyncMode.DELTA ? usersManagementService.getLdapSyncMark(directory) : null;
+        LdapSyncJob job = new LdapSyncJob(UUID.randomUUID().toString(), directory,
+                since == null ? LdapSyncMode.FULL : LdapSyncMode.DELTA);
+        LdapSyncJob active = activeJobs.putIfAbsent(directory, job);
+        if (active != null)
+        {
+            throw serviceException.applyParameters(HttpStatus.CONFLICT, ERROR_SYNC_RUNNING, active.getId());
+        }
+        jobs.put(job.getId(), job);
+        try
+        {
+            executor.execute(() -> run(job, ldap, since));
+        }
+        catch (RejectedExecutionException e)
+        {
+            jobs.remove(job.getId());
+            activeJobs.remove(directory, job);
+            throw serviceException.applyParameters(HttpStatus.SERVICE_UNAVAILABLE, ERROR_SYNC_QUEUE_FULL);
+        }
+        return job;
+    }
+
+    /**
+     * Возвращает задание синхронизации
+     * @param id id задания
+     * @return задание синхронизации
+     */
+    public LdapSyncJob getJob(String id)
+    {
+        LdapSyncJob job = jobs.get(id);
+        if (job == null)
+        {
+            throw notFoundException.applyParameters(ERROR_SYNC_JOB_NOT_FOUND, id);
+        }
+        return job;
+    }
+
+    /**
+     * Отменяет задание синхронизации. Ожидающее задание не будет выполнено, выполняемое прерывается
+     * после чтения текущей страницы LDAP с откатом транзакции. Задание на этапе применения изменений
+     * завершается полностью
+     * @param id id задания
+     * @return задание синхронизации
+     */
+    public LdapSyncJob cancel(String id)
+    {
+        LdapSyncJob job = getJob(id);
+        if (!job.getPhase().isFinished())
+        {
+            job.requestCancel();
+        }
+        return job;
+    }
+
+    private void run(LdapSyncJob job, LdapPermissions ldap, String since)
+    {
+        boolean full = job.getMode() == LdapSyncMode.FULL;
+        AtomicReference<String> mark = new AtomicReference<>(since);
+        try
+        {
+            if (job.isCancelRequested())
+            {
+                job.finish(Phase.CANCELLED);
+                return;
+            }
+            job.start();
+            // отметка сохраняется в транзакции применения изменений, при ошибке следующая синхронизация
+            // повторно прочитает тех же пользователей
+            LdapSyncResult result = usersManagementService.synchronizeLdapDirectory(job.getDirectory(), consumer ->
+            {
+                mark.set(ldapService.readLdapUsers(ldap, since, batch ->
+                {
+                    if (job.isCancelRequested())
+                    {
+                        throw new JobCancelledException();
+                    }
+                    job.addProcessed(batch.size());
+                    consumer.accept(batch);
+                }));
+                job.setPhase(Phase.APPLYING);
+            }, mark::get, full);
+            if (result == null)
+            {
+                job.finish(Phase.SKIPPED);
+                return;
+            }
+            job.setResult(result);
+            job.finish(Phase.COMPLETED);
+        }
+        catch (JobCancelledException e)
+        {
+            job.finish(Phase.CANCELLED);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error(e);
+            job.addError(e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+            job.finish(Phase.FAILED);
+        }
+        finally
+        {
+            activeJobs.remove(job.getDirectory(), job);
+        }
+    }
+
+    private void removeExpiredJobs()
+    {
+        long expired = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.getPhase().isFinished() && job.getFinishedMillis() < expired);
+    }
+}
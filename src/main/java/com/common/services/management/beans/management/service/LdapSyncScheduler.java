@@ -0,0 +1,69 @@
+package com.common.services.management.beans.management.service;
+
+import com.common.services.management.beans.management.model.LdapPermissions;
+import com.common.services.management.beans.management.model.LdapSyncJob;
+import com.common.services.management.beans.management.model.LdapSyncMode;
+import com.common.services.management.beans.serv.exceptions.ServiceException;
+import com.common.services.management.logging.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * LdapSyncScheduler.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Периодическая синхронизация LDAP пользователей с БД.
+ * Частая синхронизация DELTA читает только измененных пользователей, редкая полная синхронизация
+ * закрывает доступ удаленным из LDAP пользователям. Выполняется, если указан пользователь ldap.sync.user-dn
+ */
+@Component
+public class LdapSyncScheduler
+{
+    @Value("${ldap.sync.user-dn:}")
+    private String userDn;
+    @Value("${ldap.sync.password:}")
+    private String password;
+
+    @Autowired
+    private LdapSyncJobService ldapSyncJobService;
+    @Autowired
+    private Logger logger;
+
+    @Scheduled(initialDelayString = "${ldap.sync.delta.interval:300000}",
+            fixedDelayString = "${ldap.sync.delta.interval:300000}")
+    public void synchronizeDelta()
+    {
+        submit(LdapSyncMode.DELTA);
+    }
+
+    @Scheduled(initialDelayString = "${ldap.sync.full.interval:86400000}",
+            fixedDelayString = "${ldap.sync.full.interval:86400000}")
+    public void synchronizeFull()
+    {
+        submit(LdapSyncMode.FULL);
+    }
+
+    private void submit(LdapSyncMode mode)
+    {
+        if (StringUtils.isEmpty(userDn))
+        {
+            return;
+        }
+        LdapPermissions ldap = new LdapPermissions();
+        ldap.setUserDn(userDn);
+        ldap.setPassword(password);
+        try
+        {
+            LdapSyncJob job = ldapSyncJobService.submit(ldap, mode);
+            logger.debug("LDAP scheduled synchronization " + job.getMode() + ": " + job.getId());
+        }
+        catch (ServiceException e)
+        {
+            // синхронизация каталога уже выполняется или очередь заполнена, попытка будет повторена по расписанию
+            logger.debug("LDAP scheduled synchronization " + mode + " skipped: " + e.getMessage());
+        }
+    }
+}
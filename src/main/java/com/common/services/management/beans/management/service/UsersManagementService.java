@@ -1,10 +1,16 @@
 package com.common.services.management.beans.management.service;
 
+import com.common.services.management.beans.management.database.LdapUserBatchSource;
+import com.common.services.management.beans.management.database.UsernameBatchSource;
+import com.common.services.management.beans.management.export.UsersExportFormat;
 import com.common.services.management.beans.management.model.*;
 import com.common.services.management.filters.UsersFilter;
 import org.springframework.data.domain.Pageable;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * UsersManagementService.java
@@ -57,6 +63,23 @@ public interface UsersManagementService
      */
     List<User> getAllUsers(boolean withRoles, UsersFilter filter, Pageable pageable);
 
+    /**
+     * Возвращает страницу списка пользователей по токену продолжения
+     * @param filter   фильтр пользователей
+     * @param pageable размер страницы и сортировка, номер страницы не используется
+     * @param token    токен продолжения из предыдущей страницы, null - первая страница
+     * @return страница пользователей с токеном продолжения для следующей страницы
+     */
+    UsersPage getUsersPage(UsersFilter filter, Pageable pageable, String token);
+
+    /**
+     * Выгружает всех пользователей в поток вывода без накопления списка пользователей в памяти
+     * @param format формат выгрузки
+     * @param out    поток вывода, не закрывается
+     * @throws IOException ошибка записи в поток вывода
+     */
+    void exportUsers(UsersExportFormat format, OutputStream out) throws IOException;
+
     /**
      * Возвращает информацию об указанной роли
      * @param role название роли
@@ -233,11 +256,74 @@ public interface UsersManagementService
      */
     User getFullUserInfo(int id);
 
+    /**
+     * Пакетная проверка доступа пользователя к путям сервисов
+     * @param userId id пользователя
+     * @param checks список проверяемых http методов и путей
+     * @return список проверок с заполненным результатом
+     */
+    List<AccessCheck> checkAccess(int userId, List<AccessCheck> checks);
+
     /**
      * Синхронизация БД с пользователями LDAP
      * @param usernames список логинов LDAP пользователей
+     * @return количество добавленных, включенных и отключенных пользователей
+     */
+    LdapSyncResult updateUsersFromLdap(List<String> usernames);
+
+    /**
+     * Синхронизация БД с пользователями LDAP, логины читаются из источника порциями
+     * @param source источник логинов LDAP пользователей
+     * @return количество добавленных, включенных и отключенных пользователей
+     */
+    LdapSyncResult updateUsersFromLdap(UsernameBatchSource source);
+
+    /**
+     * Синхронизация БД с пользователями LDAP, логины читаются из источника порциями
+     * @param source источник логинов LDAP пользователей
+     * @param full   true - источник содержит всех пользователей LDAP, отсутствующим закрывается доступ;
+     *               false - источник содержит только измененных пользователей
+     * @return количество добавленных, включенных и отключенных пользователей
+     */
+    LdapSyncResult updateUsersFromLdap(UsernameBatchSource source, boolean full);
+
+    /**
+     * Синхронизация БД с пользователями LDAP и назначение ролей по LDAP группам пользователей.
+     * Пользователи читаются из источника порциями
+     * @param source источник LDAP пользователей с группами
+     * @param full   true - источник содержит всех пользователей LDAP, отсутствующим закрывается доступ;
+     *               false - источник содержит только измененных пользователей
+     * @return количество добавленных, включенных и отключенных пользователей, назначенных и снятых ролей
+     */
+    LdapSyncResult synchronizeLdapUsers(LdapUserBatchSource source, boolean full);
+
+    /**
+     * Синхронизация БД с пользователями каталога LDAP и сохранение отметки синхронизации в одной транзакции.
+     * Одновременно каталог синхронизирует не более одного узла сервиса
+     * @param directory каталог LDAP
+     * @param source    источник LDAP пользователей с группами
+     * @param mark      отметка синхронизации, запрашивается после чтения всех пользователей источника
+     * @param full      true - источник содержит всех пользователей LDAP, отсутствующим закрывается доступ;
+     *                  false - источник содержит только измененных пользователей
+     * @return результат синхронизации, null если каталог синхронизирует другой узел сервиса
+     */
+    LdapSyncResult synchronizeLdapDirectory(String directory, LdapUserBatchSource source, Supplier<String> mark,
+                                            boolean full);
+
+    /**
+     * Возвращает отметку последней синхронизации с каталогом LDAP
+     * @param directory каталог LDAP
+     * @return отметка, null если синхронизация не выполнялась
+     */
+    String getLdapSyncMark(String directory);
+
+    /**
+     * Сохраняет отметку синхронизации с каталогом LDAP
+     * @param directory каталог LDAP
+     * @param mark      отметка, null - отметка не изменяется
+     * @param full      true - выполнена полная синхронизация
      */
-    void updateUsersFromLdap(List<String> usernames);
+    void saveLdapSyncMark(String directory, String mark, boolean full);
 
     /**
      * Изменение доступа пользователя к системе
@@ -1,11 +1,18 @@
 package com.common.services.management.beans.management.service;
 
+import com.common.services.management.beans.management.access.AccessRules;
+import com.common.services.management.beans.management.database.LdapUserBatchSource;
+import com.common.services.management.beans.management.database.UsernameBatchSource;
 import com.common.services.management.beans.management.database.UsersManagementDao;
+import com.common.services.management.beans.management.export.UsersExportFormat;
+import com.common.services.management.beans.management.export.UsersExportWriter;
 import com.common.services.management.beans.management.model.*;
+import com.common.services.management.beans.management.snapshot.AuthSnapshot;
+import com.common.services.management.beans.management.snapshot.AuthSnapshotManager;
 import com.common.services.management.beans.serv.exceptions.ServiceException;
-import com.common.services.management.beans.serv.exceptions.UserNotFoundException;
 import com.common.services.management.filters.UsersFilter;
 import com.common.services.management.logging.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
@@ -14,13 +21,14 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
-import java.util.Arrays;
-import java.util.Base64;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.common.services.management.beans.management.service.UserManagementHelper.*;
@@ -47,28 +55,30 @@ public class UsersManagementServiceImpl
     private static final String ERROR_PERMISSIONS_EMPTY = "error.auth.permissionsEmpty";
     private static final String ERROR_EMPTY_USER_PASSWORD = "error.auth.emptyUserPassword";
     private static final String ERROR_NOT_VALID_USER_PASSWORD = "error.auth.notValidUserPassword";
+    private static final String ERROR_ACCESS_CHECKS_EMPTY = "error.auth.accessChecksEmpty";
 
     @Autowired
     private UsersManagementDao usersManagementDao;
 
+    @Autowired
+    private AuthSnapshotManager authSnapshotManager;
+
     @Autowired
     private ServiceException serviceException;
 
     @Autowired
     private Logger logger;
 
+    @Autowired
+    private ObjectMapper jsonMapper;
+
     @Value("${ldap.groups.page.size:50}")
     protected int pageSize;
 
     @Override
     public User getUser(int id)
     {
-        User user = usersManagementDao.getUser(id);
-        if (user != null)
-        {
-            user.setRoles(usersManagementDao.getUserRoles(user.getName()));
-        }
-        return user;
+        return usersManagementDao.getFullUser(id, false);
     }
 
     @Override
@@ -175,13 +185,29 @@ public class UsersManagementServiceImpl
     @Override
     public List<User> getAllUsers(boolean withRoles, UsersFilter filter, Pageable pageable)
     {
-        List<User> users = usersManagementDao.getAllUsers(withRoles, filter, pageable);
-        if (withRoles)
+        // сортировка пользователей и их ролей выполняется в БД
+        return usersManagementDao.getAllUsers(withRoles, filter, pageable);
+    }
+
+    @Override
+    public UsersPage getUsersPage(UsersFilter filter, Pageable pageable, String token)
+    {
+        return usersManagementDao.getUsersPage(filter, pageable.getSort(), pageable.getPageSize(), token);
+    }
+
+    @Override
+    public void exportUsers(UsersExportFormat format, OutputStream out) throws IOException
+    {
+        UsersExportWriter writer = UsersExportWriter.create(format, out, jsonMapper);
+        try
         {
-            users.forEach(user -> user.getRoles().sort(comparing(Role::getName)));
-            users.sort(comparing(User::getId));
+            usersManagementDao.exportUsers(writer);
         }
-        return users;
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        writer.finish();
     }
 
     @Override
@@ -392,51 +418,123 @@ public class UsersManagementServiceImpl
     @Override
     public User getFullUserInfo(int id)
     {
-        User user = usersManagementDao.getUser(id);
+        if (authSnapshotManager.isEnabled())
+        {
+            User user = authSnapshotManager.getFullUserInfo(id);
+            if (user != null)
+            {
+                return user;
+            }
+        }
+        return usersManagementDao.getFullUser(id, true);
+    }
+
+    @Override
+    public List<AccessCheck> checkAccess(int userId, List<AccessCheck> checks)
+    {
+        if (checks == null || checks.isEmpty())
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST, ERROR_ACCESS_CHECKS_EMPTY);
+        }
+        AuthSnapshot snapshot = authSnapshotManager.getBuiltSnapshot();
+        User user = snapshot == null ? null : snapshot.getUser(userId);
+        AccessRules rules;
         if (user != null)
         {
-            user.setRoles(usersManagementDao.getUserRoles(user.getName()));
-            user.getRoles().forEach(role -> role.setPermissions(usersManagementDao.getRolePermissions(role.getName())));
+            rules = snapshot.getAccessRules();
         }
-        return user;
+        else
+        {
+            // снимок выключен, не построен или не содержит пользователя: правила по набору ролей пользователя
+            // строятся один раз и сбрасываются при изменении ролей и пермиссий
+            long readVersion = authSnapshotManager.getVersion();
+            user = usersManagementDao.getFullUser(userId, true);
+            rules = authSnapshotManager.getAccessRules(user.getRoles(), readVersion);
+        }
+        Set<String> roles = Boolean.TRUE.equals(user.isEnabled())
+                ? user.getRoles().stream().map(Role::getName).collect(Collectors.toSet())
+                : Collections.emptySet();
+        checks.forEach(check -> check.setAllowed(rules.isAllowed(check.getMethod(), check.getPath(), roles)));
+        return checks;
+    }
+
+    @Override
+    public LdapSyncResult updateUsersFromLdap(List<String> usernames)
+    {
+        return updateUsersFromLdap(consumer -> consumer.accept(usernames));
+    }
+
+    @Override
+    public LdapSyncResult updateUsersFromLdap(UsernameBatchSource source)
+    {
+        return updateUsersFromLdap(source, true);
+    }
+
+    @Override
+    public LdapSyncResult updateUsersFromLdap(UsernameBatchSource source, boolean full)
+    {
+        return synchronizeLdapUsers(consumer -> source.forEachBatch(batch -> consumer.accept(batch.stream()
+                .map(name -> new LdapUser(name, null))
+                .collect(Collectors.toList()))), full);
     }
 
     @Override
-    public void updateUsersFromLdap(List<String> usernames)
+    public LdapSyncResult synchronizeLdapUsers(LdapUserBatchSource source, boolean full)
     {
-        for (String username : usernames)
+        LdapSyncResult result = usersManagementDao.synchronizeLdapUsers(prepareLdapUsers(source), full);
+        logLdapSyncResult(result, full);
+        return result;
+    }
+
+    @Override
+    public LdapSyncResult synchronizeLdapDirectory(String directory, LdapUserBatchSource source, Supplier<String> mark,
+                                                   boolean full)
+    {
+        LdapSyncResult result = usersManagementDao.synchronizeLdapDirectory(directory, prepareLdapUsers(source), mark,
+                full);
+        if (result == null)
         {
-            try
-            {
-                User user = usersManagementDao.getUser(prepareUserName(username));
-                if (user.getLdap())
-                {
-                    if (!user.isEnabled())
-                    {
-                        // откроем пользователю доступ
-                        user.setEnabled(true);
-                        updateUser(user.getId(), user);
-                    }
-                }
-                else
-                {
-                    // установим пользователю метку ldap
-                    user.setLdap(true);
-                    user.setEnabled(true);
-                    updateUser(user.getId(), user);
-                }
-            }
-            catch (UserNotFoundException e)
-            {
-                // пользователь не найден
-                User user = new User();
-                user.setName(username);
-                user.setEnabled(true);
-                user.setLdap(true);
-                addUser(user);
-            }
+            logger.debug("LDAP " + (full ? "full" : "delta") + " synchronization of " + directory
+                    + " skipped: directory is synchronized by another node");
         }
-        disableMissingLdapUsers(usernames.stream().map(String::toLowerCase).collect(Collectors.toList()));
+        else
+        {
+            logLdapSyncResult(result, full);
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает источник LDAP пользователей с непустыми логинами, приведенными к нижнему регистру
+     * @param source источник LDAP пользователей
+     * @return источник подготовленных пользователей
+     */
+    private LdapUserBatchSource prepareLdapUsers(LdapUserBatchSource source)
+    {
+        return consumer -> source.forEachBatch(batch ->
+                consumer.accept(batch.stream()
+                                     .filter(user -> !StringUtils.isEmpty(user.getUsername()))
+                                     .map(user -> new LdapUser(prepareUserName(user.getUsername()), user.getGroups()))
+                                     .collect(Collectors.toList())));
+    }
+
+    private void logLdapSyncResult(LdapSyncResult result, boolean full)
+    {
+        logger.debug("LDAP " + (full ? "full" : "delta") + " synchronization: " + result + ", roles added="
+                + result.getRolesAdded() + ", removed=" + result.getRolesRemoved() + ", delete and insert would write="
+                + result.getRolesRewritten());
+    }
+
+    @Override
+    public String getLdapSyncMark(String directory)
+    {
+        return usersManagementDao.getLdapSyncMark(directory);
+    }
+
+    @Override
+    public void saveLdapSyncMark(String directory, String mark, boolean full)
+    {
+        usersManagementDao.saveLdapSyncMark(directory, mark, full);
     }
 
     @Override
@@ -565,34 +663,6 @@ public class UsersManagementServiceImpl
         };
     }
 
-    /**
-     * Отключает доступ у всех пользователей с меткой ldap которые есть в базе, но уже отсутсвуют в LDAP
-     * @param usernames список имен текущих LDAP пользователей
-     */
-    private void disableMissingLdapUsers(List<String> usernames)
-    {
-        // Список пользователей которые есть в БД, но нет в LDAP
-        List<User> users =
-                usersManagementDao.getAllUsers(false, null, null).stream().filter(user -> !usernames.contains(user.getName())).collect(Collectors.toList());
-
-        // Список пользователей которые были в ldap и были enabled
-        users = users.stream().filter(user -> user.getLdap() && user.isEnabled()).collect(Collectors.toList());
-
-        // Отключает доступ у пользователей
-        users.forEach(user ->
-        {
-            try
-            {
-                user.setEnabled(false);
-                usersManagementDao.updateUser(user.getId(), user);
-            }
-            catch (Exception ex)
-            {
-                logger.error(ex);
-            }
-        });
-    }
-
     /**
      * Выбрасывает исключение {@link ServiceException} если имя пользователя не указано
      * @param name имя пользователя
@@ -0,0 +1,209 @@
+package com.common.services.management.beans.management.snapshot;
+
+import com.common.services.management.datasource.DataSourceManager;
+import com.common.services.management.logging.Logger;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.common.services.management.beans.management.database.UsersManagementDaoImpl.DB_CONFIG_NAME;
+import static com.common.services.management.beans.management.snapshot.AuthChangeNotifier.*;
+
+/**
+ * AuthChangeListener.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Получение уведомлений об изменении данных пользователей, ролей и пермиссий от других узлов сервиса.
+ * Уведомления принимаются через LISTEN на отдельном подключении к БД auth и применяются к снимку данных.
+ * При потере подключения выполняется переподключение с увеличивающейся задержкой. Уведомления, отправленные
+ * во время отключения, не доставляются, поэтому после каждого подключения снимок сбрасывается полностью
+ */
+@Component
+public class AuthChangeListener
+        implements Runnable
+{
+    @Value("${auth.notify.poll.timeout:1000}")
+    private int pollTimeout;
+
+    @Value("${auth.notify.heartbeat.interval:30000}")
+    private long heartbeatInterval;
+
+    @Value("${auth.notify.reconnect.delay.min:1000}")
+    private long reconnectDelayMin;
+
+    @Value("${auth.notify.reconnect.delay.max:60000}")
+    private long reconnectDelayMax;
+
+    @Autowired
+    private AuthChangeNotifier notifier;
+
+    @Autowired
+    private AuthSnapshotManager authSnapshotManager;
+
+    @Autowired
+    private DataSourceManager dataSourceManager;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private Logger logger;
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private Thread thread;
+    private Timer lagTimer;
+
+    @PostConstruct
+    public void init()
+    {
+        lagTimer = Timer.builder("auth.notify.lag")
+                        .description("Время от отправки уведомления об изменении данных до его получения узлом")
+                        .register(meterRegistry);
+        Gauge.builder("auth.notify.connected", this, listener -> listener.connected ? 1 : 0)
+             .description("Наличие подключения для получения уведомлений об изменении данных")
+             .register(meterRegistry);
+        if (notifier.isEnabled())
+        {
+            running = true;
+            thread = new Thread(this, "auth-change-listener");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        running = false;
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        long reconnectDelay = reconnectDelayMin;
+        while (running)
+        {
+            try (Connection connection = dataSourceManager.createConnection(DB_CONFIG_NAME))
+            {
+                try (Statement statement = connection.createStatement())
+                {
+                    statement.execute("LISTEN \"" + notifier.getChannel().replace("\"", "\"\"") + "\"");
+                }
+                connected = true;
+                reconnectDelay = reconnectDelayMin;
+                // изменения, выполненные до подписки, могли быть пропущены
+                authSnapshotManager.invalidate();
+                listen(connection);
+            }
+            catch (SQLException e)
+            {
+                if (running)
+                {
+                    logger.error("Ошибка подключения для получения уведомлений об изменении данных", e);
+                }
+            }
+            finally
+            {
+                connected = false;
+            }
+            if (!running)
+            {
+                break;
+            }
+            try
+            {
+                Thread.sleep(reconnectDelay);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, reconnectDelayMax);
+        }
+    }
+
+    /**
+     * Получает уведомления до потери подключения или остановки сервиса
+     * @param connection подключение с подпиской на канал уведомлений
+     * @throws SQLException ошибка подключения
+     */
+    private void listen(Connection connection) throws SQLException
+    {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        long lastActivity = System.currentTimeMillis();
+        while (running)
+        {
+            PGNotification[] notifications = pgConnection.getNotifications(pollTimeout);
+            if (notifications != null && notifications.length > 0)
+            {
+                for (PGNotification notification : notifications)
+                {
+                    handle(notification.getParameter());
+                }
+                lastActivity = System.currentTimeMillis();
+            }
+            else if (System.currentTimeMillis() - lastActivity > heartbeatInterval)
+            {
+                // без запросов разрыв подключения может остаться незамеченным
+                try (Statement statement = connection.createStatement())
+                {
+                    statement.execute("SELECT 1");
+                }
+                lastActivity = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Применяет уведомление другого узла к снимку данных
+     * @param payload содержимое уведомления
+     */
+    private void handle(String payload)
+    {
+        try
+        {
+            Map<String, Object> data = jsonMapper.readValue(payload, new TypeReference<Map<String, Object>>(){});
+            if (notifier.getNodeId().equals(data.get(PAYLOAD_NODE)))
+            {
+                return;
+            }
+            Object time = data.get(PAYLOAD_TIME);
+            if (time instanceof Number)
+            {
+                lagTimer.record(Math.max(0, System.currentTimeMillis() - ((Number) time).longValue()),
+                        TimeUnit.MILLISECONDS);
+            }
+            AuthDataChangedEvent.Entity entity = AuthDataChangedEvent.Entity.valueOf((String) data.get(PAYLOAD_ENTITY));
+            authSnapshotManager.onAuthDataChanged(new AuthDataChangedEvent(entity, data.get(PAYLOAD_KEY)));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.error("Ошибка обработки уведомления об изменении данных " + payload, e);
+            authSnapshotManager.invalidate();
+        }
+    }
+}
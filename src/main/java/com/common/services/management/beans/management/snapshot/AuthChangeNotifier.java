@@ -0,0 +1,103 @@
+package com.common.services.management.beans.management.snapshot;
+
+import com.common.services.management.datasource.DataSourceManager;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.common.services.management.beans.management.database.UsersManagementDaoImpl.DB_CONFIG_NAME;
+
+/**
+ * AuthChangeNotifier.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Оповещение остальных узлов сервиса об изменении данных пользователей, ролей и пермиссий
+ * через NOTIFY в БД auth. Уведомление отправляется в текущей транзакции и доставляется только после ее фиксации
+ */
+@Component
+public class AuthChangeNotifier
+{
+    static final String PAYLOAD_NODE = "node";
+    static final String PAYLOAD_ENTITY = "entity";
+    static final String PAYLOAD_KEY = "key";
+    static final String PAYLOAD_TIME = "time";
+
+    private static final String SQL_NOTIFY = "SELECT pg_notify(:channel, :payload)";
+
+    @Value("${auth.notify.enabled:true}")
+    private boolean enabled;
+
+    @Value("${auth.notify.channel:auth_changes}")
+    private String channel;
+
+    @Autowired
+    private DataSourceManager dataSourceManager;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
+
+    /**
+     * Идентификатор узла, собственные уведомления узел пропускает
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void init()
+    {
+        // пул подключений общий с UsersManagementDaoImpl, поэтому уведомление выполняется в его транзакции
+        jdbcTemplate = new NamedParameterJdbcTemplate(dataSourceManager.getDataSource(DB_CONFIG_NAME));
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public String getChannel()
+    {
+        return channel;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    /**
+     * Отправляет уведомление об изменении данных
+     * @param event событие изменения данных
+     */
+    public void notify(AuthDataChangedEvent event)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        Map<String, Object> payload = new HashMap<>();
+        payload.put(PAYLOAD_NODE, nodeId);
+        payload.put(PAYLOAD_ENTITY, event.getEntity());
+        payload.put(PAYLOAD_KEY, event.getKey());
+        payload.put(PAYLOAD_TIME, System.currentTimeMillis());
+        MapSqlParameterSource params = new MapSqlParameterSource("channel", channel);
+        try
+        {
+            params.addValue("payload", jsonMapper.writeValueAsString(payload));
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        jdbcTemplate.execute(SQL_NOTIFY, params, PreparedStatement::execute);
+    }
+}
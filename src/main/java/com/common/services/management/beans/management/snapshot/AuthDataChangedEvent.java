@@ -0,0 +1,71 @@
+package com.common.services.management.beans.management.snapshot;
+
+/**
+ * AuthDataChangedEvent.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Событие изменения данных пользователей, ролей и пермиссий в БД
+ */
+public class AuthDataChangedEvent
+{
+    /**
+     * Тип измененной сущности
+     */
+    public enum Entity
+    {
+        /**
+         * Данные пользователя, ключ - id пользователя
+         */
+        USER,
+        /**
+         * Роли пользователя, ключ - логин пользователя
+         */
+        USER_ROLES,
+        /**
+         * Данные роли, ключ - название роли
+         */
+        ROLE,
+        /**
+         * Данные пермиссии, ключ - id пермиссии
+         */
+        PERMISSION,
+        /**
+         * Связи ролей и пермиссий
+         */
+        ROLE_PERMISSIONS,
+        /**
+         * Связи LDAP групп и ролей, ключ - название группы
+         */
+        LDAP_GROUP
+    }
+
+    private final Entity entity;
+    private final String key;
+
+    /**
+     * Конструктор
+     * @param entity тип измененной сущности
+     * @param key    ключ измененной сущности, null - изменено несколько сущностей
+     */
+    public AuthDataChangedEvent(Entity entity, Object key)
+    {
+        this.entity = entity;
+        this.key = key == null ? null : key.toString();
+    }
+
+    public Entity getEntity()
+    {
+        return entity;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    @Override
+    public String toString()
+    {
+        return entity + (key == null ? "" : ":" + key);
+    }
+}
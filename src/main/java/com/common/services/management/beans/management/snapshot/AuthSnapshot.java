@@ -0,0 +1,176 @@
+package com.common.services.management.beans.management.snapshot;
+
+import com.common.services.management.beans.management.access.AccessRules;
+import com.common.services.management.beans.management.model.Role;
+import com.common.services.management.beans.management.model.User;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Comparator.comparing;
+
+/**
+ * AuthSnapshot.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Снимок данных пользователей с их ролями и пермиссиями ролей.
+ * Роли с пермиссиями общие для всех пользователей снимка и не изменяются после построения.
+ */
+public class AuthSnapshot
+{
+    private final long version;
+    private final Map<String, Role> roles;
+    private final Map<Integer, User> users;
+    private volatile AccessRules accessRules;
+
+    private AuthSnapshot(long version, Map<String, Role> roles, Map<Integer, User> users)
+    {
+        this.version = version;
+        this.roles = roles;
+        this.users = users;
+    }
+
+    /**
+     * Строит снимок данных
+     * @param version версия данных, для которой построен снимок
+     * @param roles   список всех ролей с их пермиссиями
+     * @param users   список всех пользователей с их ролями
+     * @return снимок данных
+     */
+    public static AuthSnapshot build(long version, List<Role> roles, List<User> users)
+    {
+        Map<String, Role> rolesMap = new HashMap<>(roles.size() * 2);
+        for (Role role : roles)
+        {
+            if (role.getPermissions() != null)
+            {
+                role.setPermissions(Collections.unmodifiableList(role.getPermissions()));
+            }
+            rolesMap.put(role.getName(), role);
+        }
+        AuthSnapshot snapshot = new AuthSnapshot(version, rolesMap, new ConcurrentHashMap<>(users.size() * 2));
+        for (User user : users)
+        {
+            snapshot.putUser(user);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Возвращает версию данных, для которой построен снимок
+     * @return версия данных
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Возвращает количество пользователей в снимке
+     * @return количество пользователей
+     */
+    public int size()
+    {
+        return users.size();
+    }
+
+    /**
+     * Возвращает роли снимка по названию
+     * @return роли снимка
+     */
+    public Map<String, Role> getRoles()
+    {
+        return Collections.unmodifiableMap(roles);
+    }
+
+    /**
+     * Возвращает правила доступа, скомпилированные по ролям снимка.
+     * Правила компилируются при первом обращении
+     * @return правила доступа
+     */
+    public AccessRules getAccessRules()
+    {
+        AccessRules rules = accessRules;
+        if (rules == null)
+        {
+            synchronized (this)
+            {
+                rules = accessRules;
+                if (rules == null)
+                {
+                    rules = AccessRules.compile(roles.values());
+                    accessRules = rules;
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Возвращает копию данных пользователя с ролями и их пермиссиями
+     * @param id id пользователя
+     * @return данные пользователя, null если пользователя нет в снимке
+     */
+    public User getUser(int id)
+    {
+        User user = users.get(id);
+        if (user == null)
+        {
+            return null;
+        }
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setName(user.getName());
+        copy.setEnabled(user.isEnabled());
+        copy.setEmail(user.getEmail());
+        copy.setLdap(user.getLdap());
+        // строка json из БД копируется без разбора, снимок пользователя не изменяется
+        String rawJsonData = user.getRawJsonData();
+        if (rawJsonData != null)
+        {
+            copy.setRawJsonData(rawJsonData);
+        }
+        else
+        {
+            copy.setJsonData(user.getJsonData());
+        }
+        copy.setRoles(user.getRoles());
+        return copy;
+    }
+
+    /**
+     * Добавляет или заменяет пользователя в снимке.
+     * Роли пользователя заменяются ролями снимка с пермиссиями
+     * @param user данные пользователя со списком ролей
+     */
+    public void putUser(User user)
+    {
+        List<Role> userRoles = new ArrayList<>(user.getRoles().size());
+        for (Role role : user.getRoles())
+        {
+            Role snapshotRole = roles.get(role.getName());
+            userRoles.add(snapshotRole == null ? role : snapshotRole);
+        }
+        userRoles.sort(comparing(Role::getName));
+        user.setRoles(Collections.unmodifiableList(userRoles));
+        users.put(user.getId(), user);
+    }
+
+    /**
+     * Удаляет пользователя из снимка
+     * @param id id пользователя
+     */
+    public void removeUser(int id)
+    {
+        users.remove(id);
+    }
+
+    /**
+     * Удаляет пользователя из снимка по логину
+     * @param username логин пользователя
+     */
+    public void removeUser(String username)
+    {
+        users.values().removeIf(user -> username.equals(user.getName()));
+    }
+}
@@ -0,0 +1,270 @@
+package com.common.services.management.beans.management.snapshot;
+
+import com.common.services.management.beans.management.access.AccessRules;
+import com.common.services.management.beans.management.database.UsersManagementDao;
+import com.common.services.management.beans.management.model.Role;
+import com.common.services.management.beans.management.model.User;
+import com.common.services.management.beans.serv.exceptions.NotFoundException;
+import com.common.services.management.logging.Logger;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * AuthSnapshotManager.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Версионированный снимок пользователей, ролей и пермиссий в памяти сервиса.
+ * Снимок строится при первом обращении. Изменения данных пользователя применяются к снимку,
+ * остальные изменения сбрасывают снимок до следующего обращения.
+ * Без снимка правила доступа строятся по набору ролей пользователя и хранятся до изменения ролей и пермиссий.
+ */
+@Component
+public class AuthSnapshotManager
+{
+    @Value("${auth.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${auth.access.cache.size:1000}")
+    private int accessRulesCacheSize;
+
+    @Autowired
+    private UsersManagementDao usersManagementDao;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private Logger logger;
+
+    /**
+     * Версия данных, увеличивается при каждом изменении
+     */
+    private final AtomicLong version = new AtomicLong();
+    private final Object buildLock = new Object();
+    private volatile AuthSnapshot snapshot;
+    private Timer buildTimer;
+    /**
+     * Правила доступа для проверки без снимка, ключ - названия ролей пользователя
+     */
+    private final Map<Set<String>, AccessRules> accessRules = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init()
+    {
+        buildTimer = Timer.builder("auth.snapshot.build")
+                          .description("Время построения снимка пользователей, ролей и пермиссий")
+                          .register(meterRegistry);
+        Gauge.builder("auth.snapshot.version", version, AtomicLong::get)
+             .description("Версия данных пользователей, ролей и пермиссий")
+             .register(meterRegistry);
+        Gauge.builder("auth.snapshot.users", this, manager ->
+        {
+            AuthSnapshot current = manager.snapshot;
+            return current == null ? 0 : current.size();
+        }).description("Количество пользователей в снимке").register(meterRegistry);
+    }
+
+    /**
+     * Возвращает признак использования снимка для получения информации о текущем пользователе и проверки доступа
+     * @return true если снимок включен
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Возвращает снимок, если он включен и уже построен. Снимок не строится
+     * @return снимок данных, null если снимок выключен или еще не построен
+     */
+    public AuthSnapshot getBuiltSnapshot()
+    {
+        return enabled ? snapshot : null;
+    }
+
+    /**
+     * Возвращает версию данных. Версия, прочитанная до чтения ролей из БД, передается в getAccessRules
+     * @return версия данных
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Возвращает правила доступа для набора ролей пользователя, если снимок не построен.
+     * Правила строятся один раз для каждого набора ролей и сбрасываются при изменении ролей и пермиссий
+     * @param roles       роли пользователя с пермиссиями
+     * @param readVersion версия данных до чтения ролей из БД; если данные изменились, правила не сохраняются
+     * @return правила доступа
+     */
+    public AccessRules getAccessRules(Collection<Role> roles, long readVersion)
+    {
+        Set<String> key = roles.stream().map(Role::getName).collect(Collectors.toSet());
+        AccessRules rules = accessRules.get(key);
+        if (rules != null)
+        {
+            return rules;
+        }
+        rules = AccessRules.compile(roles);
+        synchronized (this)
+        {
+            if (version.get() == readVersion)
+            {
+                if (accessRules.size() >= accessRulesCacheSize)
+                {
+                    accessRules.clear();
+                }
+                accessRules.put(key, rules);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Возвращает полную информацию о пользователе из снимка
+     * @param id id пользователя
+     * @return данные пользователя с ролями и их пермиссиями, null если пользователя нет в снимке
+     */
+    public User getFullUserInfo(int id)
+    {
+        return getSnapshot().getUser(id);
+    }
+
+    /**
+     * Возвращает актуальный снимок, при необходимости строит его
+     * @return снимок данных
+     */
+    public AuthSnapshot getSnapshot()
+    {
+        AuthSnapshot current = snapshot;
+        if (current != null)
+        {
+            return current;
+        }
+        synchronized (buildLock)
+        {
+            current = snapshot;
+            return current != null ? current : rebuild();
+        }
+    }
+
+    /**
+     * Строит снимок по данным БД.
+     * Если во время построения данные изменились, снимок возвращается, но не сохраняется
+     * @return построенный снимок
+     */
+    private AuthSnapshot rebuild()
+    {
+        long startVersion = version.get();
+        AuthSnapshot built = buildTimer.record(() -> AuthSnapshot.build(startVersion,
+                usersManagementDao.getAllRoles(true),
+                usersManagementDao.getAllUsers(true, null, null)));
+        synchronized (this)
+        {
+            if (version.get() == startVersion)
+            {
+                snapshot = built;
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Сбрасывает снимок, он будет построен заново при следующем обращении
+     */
+    public synchronized void invalidate()
+    {
+        version.incrementAndGet();
+        snapshot = null;
+        accessRules.clear();
+    }
+
+    /**
+     * Обработка изменения данных в БД. Вызывается после фиксации транзакции
+     * @param event событие изменения данных
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAuthDataChanged(AuthDataChangedEvent event)
+    {
+        // связи LDAP групп с ролями в снимок не входят
+        if (event.getEntity() == AuthDataChangedEvent.Entity.LDAP_GROUP)
+        {
+            return;
+        }
+        boolean userScoped = event.getKey() != null
+                && (event.getEntity() == AuthDataChangedEvent.Entity.USER
+                || event.getEntity() == AuthDataChangedEvent.Entity.USER_ROLES);
+        if (userScoped)
+        {
+            patchUser(event);
+        }
+        else
+        {
+            invalidate();
+        }
+    }
+
+    /**
+     * Перечитывает данные одного пользователя и обновляет их в снимке
+     * @param event событие изменения данных пользователя
+     */
+    private synchronized void patchUser(AuthDataChangedEvent event)
+    {
+        version.incrementAndGet();
+        AuthSnapshot current = snapshot;
+        if (current == null)
+        {
+            return;
+        }
+        try
+        {
+            User user;
+            if (event.getEntity() == AuthDataChangedEvent.Entity.USER)
+            {
+                int id = Integer.parseInt(event.getKey());
+                try
+                {
+                    user = usersManagementDao.getFullUser(id, false);
+                }
+                catch (NotFoundException e)
+                {
+                    current.removeUser(id);
+                    return;
+                }
+            }
+            else
+            {
+                try
+                {
+                    user = usersManagementDao.getUser(event.getKey());
+                }
+                catch (NotFoundException e)
+                {
+                    current.removeUser(event.getKey());
+                    return;
+                }
+                user.setRoles(usersManagementDao.getUserRoles(user.getName()));
+            }
+            current.putUser(user);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Ошибка обновления снимка пользователей " + event, e);
+            snapshot = null;
+        }
+    }
+}
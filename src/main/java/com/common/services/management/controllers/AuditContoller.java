@@ -2,18 +2,26 @@ package com.common.services.management.controllers;
 
 import com.common.services.management.beans.audit.AuditBean;
 import com.common.services.management.beans.audit.model.Table;
+import com.common.services.management.beans.audit.model.metrics.LatencyPercentiles;
+import com.common.services.management.beans.audit.model.metrics.RequestMetrics;
 import com.common.services.management.beans.audit.model.users.ActiveUser;
+import com.common.services.management.beans.audit.model.users.SessionActivity;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -32,13 +40,50 @@ public class AuditContoller
     private AuditBean audit;
 
     /**
-     * Выполнение запроса по данным из таблицы аудита с фильтрами
+     * Запись выборки в поток вывода ответа
+     */
+    @FunctionalInterface
+    private interface TableOutput
+    {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Записывает выборку в ответ по мере чтения из БД.
+     * Ошибка до отправки первых данных клиенту возвращается ответом с ошибкой. После отправки статус ответа
+     * уже не изменить, поэтому исключение передается контейнеру без обработчиков приложения: подключение
+     * закрывается без завершения ответа, и клиент получает ошибку чтения вместо обрезанного json со статусом 200
+     * @param response ответ
+     * @param output запись выборки
+     * @throws IOException ошибка записи ответа
+     */
+    private void writeTable(HttpServletResponse response, TableOutput output) throws IOException
+    {
+        try
+        {
+            output.write(response.getOutputStream());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (!response.isCommitted())
+            {
+                response.resetBuffer();
+                throw e;
+            }
+            throw new IllegalStateException("Запись ответа прервана", e);
+        }
+    }
+
+    /**
+     * Выполнение запроса по данным из таблицы аудита с фильтрами.
+     * Строки записываются в ответ по мере чтения из БД
      * @param request запрос с frontend'а
-     * @return json c результатом
+     * @param response ответ, json c результатом
+     * @throws IOException ошибка записи ответа
      */
     @GetMapping("/list")
-    @ApiOperation(value = "Получение записей из таблицы аудита по фильтру")
-    public Table list(HttpServletRequest request,
+    @ApiOperation(value = "Получение записей из таблицы аудита по фильтру", response = Table.class)
+    public void list(HttpServletRequest request, HttpServletResponse response,
                       @ApiParam(value ="Начало периода") @RequestParam(value = "timeFrom", required=false)
                       @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeFrom,
                       @ApiParam(value="Окончание периода") @RequestParam(value = "timeTo", required=false)
@@ -48,19 +93,44 @@ public class AuditContoller
                       @ApiParam(value="Признак запрос/ответ (Q - запрос, R - ответ)") @RequestParam(value = "rq", required=false) String rq,
                       @ApiParam(value="Выводить только ошибочные ответы, не требует значения") @RequestParam(value = "errorstatus", required=false) String errorstatus,
                       @ApiParam(value="Размер страницы") @RequestParam(value = "pageSize", required=false) Integer pageSize,
-                      @ApiParam(value="Номер страницы") @RequestParam(value = "pageNumber", required=false) Integer pageNumber)
+                      @ApiParam(value="Номер страницы") @RequestParam(value = "pageNumber", required=false) Integer pageNumber,
+                      @ApiParam(value="Токен продолжения из предыдущей страницы, заменяет номер страницы") @RequestParam(value = "continuation", required=false) String continuation,
+                      @ApiParam(value="Подсчет количества строк: none, estimate, exact (по умолчанию)") @RequestParam(value = "count", required=false) String count)
+        throws IOException
     {
-        return audit.list(request, pageNumber, pageSize);
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        writeTable(response, out -> audit.list(request, pageNumber, pageSize, continuation, count, out));
     }
 
     /**
-     * Выполнение запроса по запросам с ответами с фильтрами
+     * Выгрузка данных из таблицы аудита с фильтрами без ограничения размера страницы.
+     * Строки записываются в ответ по мере чтения из БД
      * @param request запрос с frontend'а
-     * @return json c результатом
+     * @param response ответ, json c результатом
+     * @throws IOException ошибка записи ответа
+     */
+    @GetMapping("/list/export")
+    @ApiOperation(value = "Выгрузка записей из таблицы аудита по фильтру", response = Table.class,
+        notes = "Фильтры те же, что у /audit/list. countRows - количество выгруженных строк")
+    public void exportList(HttpServletRequest request, HttpServletResponse response,
+                           @ApiParam(value="Наибольшее количество строк, по умолчанию - все") @RequestParam(value = "limit", required=false) Integer limit)
+        throws IOException
+    {
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=audit-list.json");
+        writeTable(response, out -> audit.exportList(request, limit, out));
+    }
+
+    /**
+     * Выполнение запроса по запросам с ответами с фильтрами.
+     * Строки записываются в ответ по мере чтения из БД
+     * @param request запрос с frontend'а
+     * @param response ответ, json c результатом
+     * @throws IOException ошибка записи ответа
      */
     @GetMapping("/requests")
-    @ApiOperation(value = "Получение запросов с ответами таблицы аудита по фильтру")
-    public Table requests(HttpServletRequest request,
+    @ApiOperation(value = "Получение запросов с ответами таблицы аудита по фильтру", response = Table.class)
+    public void requests(HttpServletRequest request, HttpServletResponse response,
                           @ApiParam(value ="Начало периода") @RequestParam(value = "timeFrom", required=false)
                           @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeFrom,
                           @ApiParam(value="Окончание периода") @RequestParam(value = "timeTo", required=false)
@@ -70,9 +140,32 @@ public class AuditContoller
                           @ApiParam(value="Фильтр для пути в запросе") @RequestParam(value = "path", required=false) String path,
                           @ApiParam(value="Фильтр для статуса ответа") @RequestParam(value = "status", required=false) String status,
                           @ApiParam(value="Размер страницы") @RequestParam(value = "pageSize", required=false) Integer pageSize,
-                          @ApiParam(value="Номер страницы") @RequestParam(value = "pageNumber", required=false) Integer pageNumber)
+                          @ApiParam(value="Номер страницы") @RequestParam(value = "pageNumber", required=false) Integer pageNumber,
+                          @ApiParam(value="Токен продолжения из предыдущей страницы, заменяет номер страницы") @RequestParam(value = "continuation", required=false) String continuation,
+                          @ApiParam(value="Подсчет количества строк: none, estimate, exact (по умолчанию)") @RequestParam(value = "count", required=false) String count)
+        throws IOException
     {
-        return audit.requests(request, pageNumber, pageSize);
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        writeTable(response, out -> audit.requests(request, pageNumber, pageSize, continuation, count, out));
+    }
+
+    /**
+     * Выгрузка запросов с ответами с фильтрами без ограничения размера страницы.
+     * Строки записываются в ответ по мере чтения из БД
+     * @param request запрос с frontend'а
+     * @param response ответ, json c результатом
+     * @throws IOException ошибка записи ответа
+     */
+    @GetMapping("/requests/export")
+    @ApiOperation(value = "Выгрузка запросов с ответами таблицы аудита по фильтру", response = Table.class,
+        notes = "Фильтры те же, что у /audit/requests. countRows - количество выгруженных строк")
+    public void exportRequests(HttpServletRequest request, HttpServletResponse response,
+                               @ApiParam(value="Наибольшее количество строк, по умолчанию - все") @RequestParam(value = "limit", required=false) Integer limit)
+        throws IOException
+    {
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=audit-requests.json");
+        writeTable(response, out -> audit.exportRequests(request, limit, out));
     }
 
     /**
@@ -90,4 +183,66 @@ public class AuditContoller
     {
         return audit.activeUsers(request);
     }
+
+    /**
+     * Активность сессий пользователей по интервалам за данный период
+     * @param request запрос с frontend'а
+     * @return json c результатом
+     */
+    @GetMapping("/activity")
+    @ApiOperation(value = "Получение количества активных сессий и пользователей по интервалам за заданный промежуток времени",
+        notes = "Для каждого интервала: количество сессий и пользователей, активных в интервале, " +
+            "и наибольшее количество одновременно активных сессий")
+    public List<SessionActivity> sessionActivity(HttpServletRequest request,
+        @ApiParam(value ="Начало периода") @RequestParam(value = "timeFrom", required=false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeFrom,
+        @ApiParam(value="Окончание периода") @RequestParam(value = "timeTo", required=false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeTo,
+        @ApiParam(value="Длительность интервала в минутах, по умолчанию 60") @RequestParam(value = "bucket", required=false) Integer bucket)
+    {
+        return audit.sessionActivity(request, bucket);
+    }
+
+    /**
+     * Сводка ответов по интервалам за данный период
+     * @param request запрос с frontend'а
+     * @return json c результатом
+     */
+    @GetMapping("/metrics")
+    @ApiOperation(value = "Получение сводки ответов по интервалам за заданный промежуток времени",
+        notes = "Для каждого интервала, метода, шаблона пути и класса статуса: количество ответов, " +
+            "суммарная и наибольшая длительность в мс. Сводка обновляется фоновым заданием")
+    public List<RequestMetrics> requestMetrics(HttpServletRequest request,
+        @ApiParam(value ="Начало периода") @RequestParam(value = "timeFrom", required=false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeFrom,
+        @ApiParam(value="Окончание периода") @RequestParam(value = "timeTo", required=false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeTo,
+        @ApiParam(value="Фильтр для метода запроса") @RequestParam(value = "method", required=false) String method,
+        @ApiParam(value="Фильтр для шаблона пути, например /users/{id}%") @RequestParam(value = "path", required=false) String path,
+        @ApiParam(value="Фильтр для классов статуса через запятую, например 4,5") @RequestParam(value = "statusClass", required=false) String statusClass,
+        @ApiParam(value="Длительность интервала в минутах, по умолчанию 1") @RequestParam(value = "bucket", required=false) Integer bucket)
+    {
+        return audit.requestMetrics(request, bucket);
+    }
+
+    /**
+     * Процентили длительности ответов за данный период
+     * @param request запрос с frontend'а
+     * @return json c результатом
+     */
+    @GetMapping("/latency")
+    @ApiOperation(value = "Получение процентилей длительности ответов за заданный промежуток времени",
+        notes = "Для каждого метода и шаблона пути: количество ответов, p50, p90, p99 и наибольшая длительность в мс. " +
+            "Процентили рассчитываются по поминутным гистограммам с погрешностью не более 1/32 значения")
+    public List<LatencyPercentiles> latencyPercentiles(HttpServletRequest request,
+        @ApiParam(value ="Начало периода") @RequestParam(value = "timeFrom", required=false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeFrom,
+        @ApiParam(value="Окончание периода") @RequestParam(value = "timeTo", required=false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS") LocalDateTime timeTo,
+        @ApiParam(value="Фильтр для метода запроса") @RequestParam(value = "method", required=false) String method,
+        @ApiParam(value="Фильтр для шаблона пути, например /users/{id}%") @RequestParam(value = "path", required=false) String path,
+        @ApiParam(value="Фильтр для классов статуса через запятую, например 2,3") @RequestParam(value = "statusClass", required=false) String statusClass)
+    {
+        return audit.latencyPercentiles(request);
+    }
 }
@@ -1,7 +1,8 @@
 package com.common.services.management.controllers;
 
+import com.common.services.management.beans.management.export.UsersExportFormat;
 import com.common.services.management.beans.management.model.*;
-import com.common.services.management.beans.management.service.LdapService;
+import com.common.services.management.beans.management.service.LdapSyncJobService;
 import com.common.services.management.beans.management.service.UsersManagementService;
 import com.common.services.management.beans.serv.exceptions.ServiceException;
 import com.common.services.management.beans.serv.resourcemanager.ResourceManager;
@@ -41,7 +42,7 @@ public class UsersManagementController
     private ServiceException serviceException;
 
     @Autowired
-    private LdapService ldapService;
+    private LdapSyncJobService ldapSyncJobService;
 
     /**
      * Возвращает данные пользователя с указанным id
@@ -60,9 +61,49 @@ public class UsersManagementController
     @PostMapping(value = "/users/filter")
     public List<User> getAllUsersByFilter(
             @RequestBody(required = false) UsersFilter filter,
+            @ApiParam(value = "Если флаг true данные пользователей будут содержать список их ролей", required = false)
+            @RequestParam(value = "with_roles", defaultValue = "false") boolean withRoles,
             Pageable pageable)
     {
-        return service.getAllUsers(false, filter, pageable);
+        return service.getAllUsers(withRoles, filter, pageable);
+    }
+
+    @ApiOperation(value = "Получение страницы списка пользователей по фильтру с токеном продолжения",
+            notes = "Следующая страница выбирается по ключу сортировки последнего пользователя текущей страницы. " +
+                    "Для получения следующей страницы передайте nextToken из ответа с тем же фильтром и сортировкой")
+    @PostMapping(value = "/users/filter/cursor")
+    public UsersPage getUsersPageByFilter(
+            @RequestBody(required = false) UsersFilter filter,
+            @ApiParam(value = "Токен продолжения из предыдущей страницы")
+            @RequestParam(value = "token", required = false) String token,
+            Pageable pageable)
+    {
+        return service.getUsersPage(filter, pageable, token);
+    }
+
+    /**
+     * Выгружает всех пользователей в ответ по мере чтения из БД
+     * @param format   формат выгрузки: ndjson или csv
+     * @param response ответ
+     * @throws IOException ошибка записи ответа
+     */
+    @ApiOperation(value = "Выгрузка всех пользователей", notes = "Пользователи выгружаются по порядку id потоком, " +
+            "без построения списка в памяти. ndjson - json объект пользователя на строку, csv - таблица с заголовком")
+    @GetMapping(value = "/users/export")
+    public void exportUsers(
+            @ApiParam(value = "Формат выгрузки: ndjson или csv")
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            HttpServletResponse response) throws IOException
+    {
+        UsersExportFormat exportFormat = UsersExportFormat.resolve(format);
+        if (exportFormat == null)
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST, ResourceManager.INVALID_PARAMETER_VALUE,
+                    format, "format");
+        }
+        response.setContentType(exportFormat.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        service.exportUsers(exportFormat, response.getOutputStream());
     }
 
     @ApiOperation(value = "Получение списка пользователей с их данными")
@@ -432,12 +473,50 @@ public class UsersManagementController
         return service.getFullUserInfo(userId);
     }
 
+    /**
+     * Пакетная проверка доступа пользователя к путям сервисов
+     * Если id пользователя не указан в запросе, используется id из заголовка userId
+     * @param request id пользователя и список проверяемых http методов и путей
+     * @return список проверок с заполненным результатом
+     */
+    @PostMapping(value = "/auth/check")
+    @ApiOperation(value = "Пакетная проверка доступа пользователя к путям сервисов")
+    public List<AccessCheck> checkAccess(@ApiParam(value = "Id пользователя и список проверок", required = true) @RequestBody AccessCheckRequest request)
+    {
+        Integer userId = request.getUserId() != null ? request.getUserId() : Details.getDetails().getUserIntId();
+        if (userId == null)
+        {
+            throw serviceException.applyParameters(HttpStatus.BAD_REQUEST, ResourceManager.ERROR_USER_ID_EMPTY);
+        }
+        return service.checkAccess(userId, request.getChecks());
+    }
+
     @PostMapping(value = "/synchronizeldap")
-    @ApiOperation(value = "Синхронизация LDAP пользователей с БД")
-    public void synchronizeLdap(@ApiParam(value = "Параметры подключения к LDAP", required = true) @RequestBody LdapPermissions ldap)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @ApiOperation(value = "Синхронизация LDAP пользователей с БД",
+            notes = "Синхронизация выполняется в фоне, возвращается задание синхронизации. Для одного каталога LDAP " +
+                    "одновременно выполняется одна синхронизация. Режим DELTA читает только пользователей, измененных " +
+                    "после предыдущей синхронизации, и не закрывает доступ удаленным из LDAP пользователям")
+    public LdapSyncJob synchronizeLdap(@ApiParam(value = "Параметры подключения к LDAP", required = true) @RequestBody LdapPermissions ldap,
+                                       @ApiParam(value = "Режим синхронизации") @RequestParam(value = "mode", defaultValue = "FULL") LdapSyncMode mode)
+    {
+        return ldapSyncJobService.submit(ldap, mode);
+    }
+
+    @GetMapping(value = "/synchronizeldap/{id}")
+    @ApiOperation(value = "Ход выполнения синхронизации LDAP пользователей с БД",
+            notes = "Этап, количество прочитанных пользователей, скорость чтения, ошибки и результат синхронизации")
+    public LdapSyncJob getLdapSyncJob(@ApiParam(value = "id задания синхронизации", required = true) @PathVariable("id") String id)
+    {
+        return ldapSyncJobService.getJob(id);
+    }
+
+    @DeleteMapping(value = "/synchronizeldap/{id}")
+    @ApiOperation(value = "Отмена синхронизации LDAP пользователей с БД",
+            notes = "Изменения, прочитанные до отмены, не применяются")
+    public LdapSyncJob cancelLdapSyncJob(@ApiParam(value = "id задания синхронизации", required = true) @PathVariable("id") String id)
     {
-        List<String> ldapUsers = ldapService.getAllUsers(ldap);
-        service.updateUsersFromLdap(ldapUsers);
+        return ldapSyncJobService.cancel(id);
     }
 
     @PostMapping(value = "/users/{id}/enabled")
@@ -6,6 +6,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -58,4 +61,18 @@ public class DataSourceManager
             return dataSource;
         });
     }
+
+    /**
+     * Создает отдельное подключение к БД в обход пула подключений.
+     * Используется для долгоживущих подключений, например для получения уведомлений БД
+     *
+     * @param name название конфигурации для подключения к БД
+     * @return новое подключение к БД, закрывается вызывающей стороной
+     * @throws SQLException ошибка подключения к БД
+     */
+    public Connection createConnection(String name) throws SQLException
+    {
+        DatabaseSettings settings = config.getDatabaseSettings(name);
+        return DriverManager.getConnection(settings.getUrl(), settings.getUsername(), settings.getPassword());
+    }
 }
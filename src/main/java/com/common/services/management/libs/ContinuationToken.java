@@ -0,0 +1,96 @@
+package com.common.services.management.libs;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * ContinuationToken.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Токен продолжения для постраничной выборки по ключу (keyset pagination).
+ * Содержит описание сортировки и значения ключей сортировки последней строки страницы.
+ * Для клиента токен непрозрачен: json в base64url без дополнения. Если последний ключ - ctid, токен
+ * действителен, пока строки не обновляются и не переносятся: новый ctid строки сравнивается с токеном заново
+ */
+public class ContinuationToken
+{
+    /**
+     * Описание сортировки, для которой получены ключи
+     */
+    private String sort;
+    /**
+     * Значения ключей сортировки последней строки страницы
+     */
+    private List<Object> keys;
+
+    public ContinuationToken()
+    {
+    }
+
+    public ContinuationToken(String sort, List<Object> keys)
+    {
+        this.sort = sort;
+        this.keys = keys;
+    }
+
+    public String getSort()
+    {
+        return sort;
+    }
+
+    public void setSort(String sort)
+    {
+        this.sort = sort;
+    }
+
+    public List<Object> getKeys()
+    {
+        return keys;
+    }
+
+    public void setKeys(List<Object> keys)
+    {
+        this.keys = keys;
+    }
+
+    /**
+     * Кодирует токен в строку
+     * @param jsonMapper объект для сериализации json
+     * @return строка токена
+     */
+    public String encode(ObjectMapper jsonMapper)
+    {
+        try
+        {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(jsonMapper.writeValueAsBytes(this));
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Декодирует токен из строки
+     * @param jsonMapper объект для десериализации json
+     * @param token      строка токена
+     * @return токен, null если строка не является токеном
+     */
+    public static ContinuationToken decode(ObjectMapper jsonMapper, String token)
+    {
+        try
+        {
+            ContinuationToken result = jsonMapper.readValue(Base64.getUrlDecoder().decode(token),
+                    ContinuationToken.class);
+            return result.getSort() == null || result.getKeys() == null ? null : result;
+        }
+        catch (IllegalArgumentException | IOException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.common.services.management.libs;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.RawValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * RawJson.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Работа с json данными, полученными из БД строкой. Строка передается в ответ без разбора,
+ * разбор выполняется только при обращении к полям json объекта
+ */
+public final class RawJson
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger("debug");
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private RawJson()
+    {
+    }
+
+    /**
+     * Возвращает объект чтения json для указанного типа
+     * @param type тип json объекта
+     * @return объект чтения json
+     */
+    public static ObjectReader readerFor(Class<?> type)
+    {
+        return MAPPER.readerFor(type);
+    }
+
+    /**
+     * Возвращает объект чтения json для указанного обобщенного типа
+     * @param type тип json объекта
+     * @return объект чтения json
+     */
+    public static ObjectReader readerFor(TypeReference<?> type)
+    {
+        return MAPPER.readerFor(type);
+    }
+
+    /**
+     * Разбирает json строку. Ошибка разбора записывается в лог
+     * @param reader объект чтения json
+     * @param json   json строка
+     * @return json объект, null если строка не указана или не является json указанного типа
+     */
+    public static <T> T parse(ObjectReader reader, String json)
+    {
+        if (json == null)
+        {
+            return null;
+        }
+        try
+        {
+            return reader.readValue(json);
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Ошибка разбора json-" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Возвращает значение для сериализации: строку из БД без изменений, если json объект еще не разобран
+     * @param raw    json строка из БД
+     * @param parsed разобранный или установленный json объект
+     * @return значение для сериализации
+     */
+    public static Object toValue(String raw, Object parsed)
+    {
+        return parsed == null && raw != null ? new RawValue(raw) : parsed;
+    }
+}
@@ -36,6 +36,14 @@ public class Logger
         slf4logger.debug(msg);
     }
 
+    /**
+     * @param msg логгируемая строка
+     */
+    public void warn(String msg)
+    {
+        slf4logger.warn(msg);
+    }
+
     /**
      * @param th логгируемое исключение
      */
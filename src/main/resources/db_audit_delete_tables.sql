@@ -1,2 +1,6 @@
 drop table if exists audit;
 drop index if exists audit_index;
+drop table if exists audit_sessions;
+drop table if exists audit_request_metrics;
+drop table if exists audit_request_latency;
+drop table if exists audit_rollup_state;
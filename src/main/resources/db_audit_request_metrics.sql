@@ -0,0 +1,42 @@
+-- Поминутная сводка ответов таблицы аудита по методу, шаблону пути и классу статуса (2 - 2xx, 4 - 4xx, ...):
+-- количество ответов, сумма и максимум длительности (время ответа - время запроса requestJson.time), мс.
+-- Обновляется фоновым заданием по записям аудита после отметки audit_rollup_state.
+-- Скрипт можно выполнять повторно
+CREATE TABLE IF NOT EXISTS audit_request_metrics
+(
+ minute timestamp without time zone NOT NULL,
+ method character varying(16) NOT NULL,
+ path character varying(2048) NOT NULL,
+ status_class smallint NOT NULL,
+ requests integer NOT NULL,
+ duration_sum bigint NOT NULL,
+ duration_max integer NOT NULL,
+ PRIMARY KEY (minute, method, path, status_class)
+);
+
+-- Шаблон пути: без параметров запроса, числовые и uuid сегменты заменены на {id}
+CREATE OR REPLACE FUNCTION audit_path_template(path text) RETURNS text AS $$
+    SELECT regexp_replace(split_part(path, '?', 1),
+        '/([0-9]+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})(?=/|$)', '/{id}', 'g');
+$$ LANGUAGE sql IMMUTABLE;
+
+-- Поминутные гистограммы длительности ответов по методу, шаблону пути и классу статуса. Гистограммы интервалов
+-- объединяются суммированием количества ответов по номеру корзины.
+-- Корзины: длительность до 64 мс - по 1 мс, далее в каждом интервале [2^e, 2^(e+1)) по 32 корзины одинаковой
+-- ширины, погрешность не более 1/32 значения (расчет совпадает с LatencyHistogram.getBucket)
+CREATE TABLE IF NOT EXISTS audit_request_latency
+(
+ minute timestamp without time zone NOT NULL,
+ method character varying(16) NOT NULL,
+ path character varying(2048) NOT NULL,
+ status_class smallint NOT NULL,
+ bucket smallint NOT NULL,
+ requests integer NOT NULL,
+ PRIMARY KEY (minute, method, path, status_class, bucket)
+);
+
+CREATE OR REPLACE FUNCTION audit_latency_bucket(duration integer) RETURNS smallint AS $$
+    SELECT cast(CASE WHEN d < 64 THEN d ELSE 64 + (e - 6) * 32 + (d >> (e - 5)) - 32 END as smallint)
+    FROM (SELECT d, length(ltrim(cast(cast(d as bit(32)) as text), '0')) - 1 AS e
+        FROM (SELECT greatest(duration, 0) AS d) v) b;
+$$ LANGUAGE sql IMMUTABLE;
@@ -0,0 +1,22 @@
+-- Сессии пользователей, собранные из ответов таблицы аудита: время первого и последнего запроса сессии.
+-- Обновляется фоновым заданием по записям аудита после отметки audit_rollup_state.
+-- Скрипт можно выполнять повторно
+CREATE TABLE IF NOT EXISTS audit_sessions
+(
+ sessionid character varying(128) PRIMARY KEY,
+ "user" character varying(128),
+ userid character varying(12),
+ address character varying(128),
+ first_seen timestamp without time zone NOT NULL,
+ last_seen timestamp without time zone NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS audit_sessions_last_seen_index ON audit_sessions(last_seen);
+
+-- Отметки обработанных записей аудита (время записи "time") для сводных таблиц
+-- и фонового заполнения типизированных колонок
+CREATE TABLE IF NOT EXISTS audit_rollup_state
+(
+ name character varying(64) PRIMARY KEY,
+ mark timestamp without time zone NOT NULL
+);
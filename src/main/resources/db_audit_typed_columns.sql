@@ -0,0 +1,73 @@
+-- Типизированные колонки ответов (rq = 'R'): время, метод и путь запроса, статус и длительность ответа.
+-- Заполняются триггером при записи, ранее записанные ответы заполняются фоновым заданием.
+-- Скрипт можно выполнять повторно
+ALTER TABLE audit ADD COLUMN IF NOT EXISTS request_time timestamp with time zone;
+ALTER TABLE audit ADD COLUMN IF NOT EXISTS method character varying(16);
+ALTER TABLE audit ADD COLUMN IF NOT EXISTS path character varying(2048);
+ALTER TABLE audit ADD COLUMN IF NOT EXISTS status smallint;
+ALTER TABLE audit ADD COLUMN IF NOT EXISTS duration integer;
+
+-- Разбор значений ответа: некорректное значение дает NULL, чтобы запись аудита не отклонялась
+CREATE OR REPLACE FUNCTION audit_try_timestamp(value text) RETURNS timestamp AS $$
+BEGIN
+    -- блок с обработкой ошибок выполняется только для значений, похожих на дату
+    IF value IS NULL OR value !~ '^[0-9]{4}-[0-9]{1,2}-[0-9]{1,2}' THEN
+        RETURN NULL;
+    END IF;
+    BEGIN
+        RETURN cast(value as timestamp);
+    EXCEPTION WHEN others THEN
+        RETURN NULL;
+    END;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION audit_try_smallint(value text) RETURNS smallint AS $$
+    SELECT CASE WHEN value ~ '^-?[0-9]{1,4}$' THEN cast(value as smallint) END;
+$$ LANGUAGE sql IMMUTABLE;
+
+-- Длительность ответа в мс, NULL - время запроса не задано или длительность не помещается в integer
+CREATE OR REPLACE FUNCTION audit_duration(response timestamp, request timestamp) RETURNS integer AS $$
+    SELECT CASE WHEN abs(extract(epoch from response - request)) < 2147483
+        THEN cast(extract(epoch from response - request) * 1000 as integer) END;
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION audit_fill_typed_columns() RETURNS trigger AS $$
+DECLARE
+    request timestamp;
+BEGIN
+    IF NEW.rq = 'R' AND NEW.request_time IS NULL THEN
+        request := audit_try_timestamp(NEW.data->'requestJson'->>'time');
+        NEW.request_time := request;
+        NEW.method := left(NEW.data->'requestJson'->>'method', 16);
+        NEW.path := left(NEW.data->'requestJson'->>'path', 2048);
+        NEW.status := audit_try_smallint(NEW.data->>'code');
+        NEW.duration := audit_duration(NEW."time", request);
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Триггер создается на таблице без секций или на каждой секции (триггеры BEFORE на секционированной
+-- таблице поддерживаются только с PostgreSQL 13)
+DO $$
+DECLARE
+    t regclass;
+BEGIN
+    FOR t IN
+        SELECT 'audit'::regclass WHERE NOT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'audit'::regclass)
+        UNION ALL
+        SELECT inhrelid::regclass FROM pg_inherits WHERE inhparent = 'audit'::regclass
+    LOOP
+        IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgrelid = t AND tgname = 'audit_typed_columns') THEN
+            EXECUTE format('CREATE TRIGGER audit_typed_columns BEFORE INSERT ON %s FOR EACH ROW EXECUTE PROCEDURE audit_fill_typed_columns()', t);
+        END IF;
+    END LOOP;
+END;
+$$;
+
+CREATE INDEX IF NOT EXISTS audit_requests_index ON audit(request_time, userid) WHERE rq = 'R';
+
+-- Ответы, которые еще не заполнены фоновым заданием
+CREATE INDEX IF NOT EXISTS audit_backfill_index ON audit("time")
+    WHERE rq = 'R' AND request_time IS NULL AND data->'requestJson'->>'time' IS NOT NULL;
@@ -4,6 +4,7 @@ DROP table IF EXISTS user_roles cascade;
 DROP table IF EXISTS permissions cascade;
 DROP table IF EXISTS role_permissions cascade;
 DROP table IF EXISTS ldap_roles cascade;
+DROP table IF EXISTS ldap_sync_state cascade;
 
 CREATE TABLE IF NOT EXISTS users(
    user_id SERIAL NOT NULL,
@@ -57,3 +58,10 @@ CREATE TABLE IF NOT EXISTS ldap_roles
    UNIQUE (ldap_group, role)
 );
 
+CREATE TABLE IF NOT EXISTS ldap_sync_state
+(
+   directory varchar(1024) PRIMARY KEY,
+   mark varchar(64),
+   last_full_sync timestamp,
+   last_delta_sync timestamp
+);
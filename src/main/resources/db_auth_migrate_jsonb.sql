@@ -0,0 +1,19 @@
+-- Перевод json данных пользователей, ролей и пермиссий в jsonb.
+-- Изменение типа перезаписывает таблицы и блокирует их на время выполнения, поэтому перевод - отдельный шаг
+-- обновления в окно обслуживания: psql -f db_auth_migrate_jsonb.sql или запуск одного узла
+-- с auth.jsonb.enabled=true. Одновременные запуски выполняются по очереди под advisory блокировкой,
+-- уже переведенные таблицы не изменяются. Скрипт можно выполнять повторно
+DO $$
+DECLARE
+    t text;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('auth_migrate_jsonb'));
+    FOREACH t IN ARRAY ARRAY['users', 'roles', 'permissions'] LOOP
+        IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema()
+                   AND table_name = t AND column_name = 'json_data' AND data_type = 'json') THEN
+            EXECUTE format('ALTER TABLE %I ALTER COLUMN json_data TYPE jsonb USING json_data::jsonb', t);
+        END IF;
+    END LOOP;
+    -- Индекс для фильтрации пользователей по вхождению (json_data @> '{"поле": значение}')
+    CREATE INDEX IF NOT EXISTS users_json_data_idx ON users USING gin (json_data jsonb_path_ops);
+END $$;
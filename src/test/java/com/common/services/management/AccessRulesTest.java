@@ -0,0 +1,156 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.management.access.AccessRules;
+import com.common.services.management.beans.management.model.Permission;
+import com.common.services.management.beans.management.model.Role;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.*;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+
+/**
+ * AccessRulesTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Сравнение проверки доступа по дереву путей с линейной проверкой шаблонов AntPathMatcher
+ */
+public class AccessRulesTest
+{
+    private static final String[] SEGMENTS = {"users", "roles", "permissions", "audit", "list", "1", "42", "v1"};
+    private static final String[] PATTERN_SEGMENTS = {"users", "roles", "permissions", "audit", "list", "{id}", "*",
+            "**", "v?", "*.json", "user*"};
+    private static final HttpMethod[] METHODS = {HttpMethod.GET, HttpMethod.POST, HttpMethod.DELETE};
+
+    private final Random random = new Random(42);
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    @Test
+    public void testSameResultAsAntPathMatcher()
+    {
+        List<Role> roles = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            Role role = new Role();
+            role.setName("ROLE_" + i);
+            List<Permission> permissions = new ArrayList<>();
+            for (int j = 0; j < 200; j++)
+            {
+                permissions.add(new Permission(METHODS[random.nextInt(METHODS.length)],
+                        randomPath(PATTERN_SEGMENTS), "descr"));
+            }
+            role.setPermissions(permissions);
+            roles.add(role);
+        }
+        AccessRules rules = AccessRules.compile(roles);
+
+        for (int i = 0; i < 5000; i++)
+        {
+            Set<String> userRoles = new HashSet<>();
+            userRoles.add("ROLE_" + random.nextInt(roles.size()));
+            HttpMethod method = METHODS[random.nextInt(METHODS.length)];
+            String path = random.nextInt(10) == 0 ? randomPath(SEGMENTS) + ".json" : randomPath(SEGMENTS);
+
+            assertEquals(method + " " + path + " " + userRoles, linearScan(roles, userRoles, method, path),
+                    rules.isAllowed(method, path, userRoles));
+        }
+    }
+
+    /**
+     * Сравнение времени проверки доступа по дереву путей и линейной проверки шаблонов AntPathMatcher на заданном
+     * количестве пермиссий, например -Daccess.benchmark.permissions=10000,100000
+     */
+    @Test
+    public void accessRulesBenchmark()
+    {
+        String sizes = System.getProperty("access.benchmark.permissions");
+        Assume.assumeTrue("Количество пермиссий не задано", sizes != null && !sizes.isEmpty());
+        for (String size : sizes.split(","))
+        {
+            int count = Integer.parseInt(size.trim());
+            // пермиссии сервисов вида /service1/resource2/{id}/action3, часть с шаблонами * и **
+            List<Role> roles = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+            {
+                Role role = new Role();
+                role.setName("ROLE_" + i);
+                role.setPermissions(new ArrayList<>());
+                roles.add(role);
+            }
+            for (int i = 0; i < count; i++)
+            {
+                String path = "/service" + (i % 100) + "/resource" + (i / 100 % 100) + "/{id}/action" + (i / 10000);
+                if (i % 50 == 0)
+                {
+                    path = path.substring(0, path.indexOf("/{id}")) + (i % 100 == 0 ? "/**" : "/*");
+                }
+                roles.get(i % roles.size()).getPermissions().add(new Permission(METHODS[i % METHODS.length], path,
+                        "descr"));
+            }
+            Set<String> userRoles = new HashSet<>(Arrays.asList("ROLE_1", "ROLE_2", "ROLE_3"));
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < 1000; i++)
+            {
+                paths.add("/service" + random.nextInt(110) + "/resource" + random.nextInt(110) + "/"
+                        + random.nextInt(1000) + "/action" + random.nextInt(count / 10000 + 2));
+            }
+
+            long start = System.nanoTime();
+            AccessRules rules = AccessRules.compile(roles);
+            long compile = System.nanoTime() - start;
+
+            // линейная проверка на 100 000 пермиссиях занимает миллисекунды, число проверок ограничено
+            int linearChecks = Math.max(20, 2_000_000 / count);
+            int trieChecks = 200_000;
+            for (int i = 0; i < linearChecks; i++)
+            {
+                String path = paths.get(i % paths.size());
+                HttpMethod method = METHODS[i % METHODS.length];
+                assertEquals(method + " " + path, linearScan(roles, userRoles, method, path),
+                        rules.isAllowed(method, path, userRoles));
+            }
+            for (int i = 0; i < trieChecks; i++)
+            {
+                rules.isAllowed(METHODS[i % METHODS.length], paths.get(i % paths.size()), userRoles);
+            }
+
+            start = System.nanoTime();
+            for (int i = 0; i < linearChecks; i++)
+            {
+                linearScan(roles, userRoles, METHODS[i % METHODS.length], paths.get(i % paths.size()));
+            }
+            double linear = (System.nanoTime() - start) / 1000.0 / linearChecks;
+            start = System.nanoTime();
+            for (int i = 0; i < trieChecks; i++)
+            {
+                rules.isAllowed(METHODS[i % METHODS.length], paths.get(i % paths.size()), userRoles);
+            }
+            double trie = (System.nanoTime() - start) / 1000.0 / trieChecks;
+            System.out.println(String.format("%d пермиссий: дерево путей %.2f мкс (построение %.1f мс), " +
+                    "AntPathMatcher %.2f мкс на проверку", count, trie, compile / 1e6, linear));
+        }
+    }
+
+    private boolean linearScan(List<Role> roles, Set<String> userRoles, HttpMethod method, String path)
+    {
+        return roles.stream()
+                    .filter(role -> userRoles.contains(role.getName()))
+                    .flatMap(role -> role.getPermissions().stream())
+                    .anyMatch(permission -> permission.getMethod() == method
+                            && matcher.match(permission.getPath(), path));
+    }
+
+    private String randomPath(String[] segments)
+    {
+        StringBuilder path = new StringBuilder();
+        int length = 1 + random.nextInt(4);
+        for (int i = 0; i < length; i++)
+        {
+            path.append('/').append(segments[random.nextInt(segments.length)]);
+        }
+        return path.toString();
+    }
+}
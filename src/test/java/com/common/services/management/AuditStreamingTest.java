@@ -0,0 +1,94 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.audit.AuditBean;
+import com.common.services.management.controllers.AuditContoller;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+import static org.springframework.test.util.AssertionErrors.fail;
+
+/**
+ * AuditStreamingTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Ошибка выборки до отправки данных возвращается обработчику исключений приложения,
+ * ошибка после отправки первых строк прерывает ответ
+ */
+public class AuditStreamingTest
+{
+    /**
+     * Выборка, которая записывает начало таблицы и завершается ошибкой
+     */
+    private static class FailingAuditBean extends AuditBean
+    {
+        private final boolean flush;
+
+        FailingAuditBean(boolean flush)
+        {
+            this.flush = flush;
+        }
+
+        @Override
+        public void list(HttpServletRequest request, Integer pageNumber, Integer pageSize, String continuation,
+                         String count, OutputStream out) throws IOException
+        {
+            out.write("{\"headers\":[],\"rows\":[".getBytes("UTF-8"));
+            if (flush)
+            {
+                out.flush();
+            }
+            throw new DataAccessResourceFailureException("audit");
+        }
+    }
+
+    private void list(MockHttpServletResponse response, boolean flush) throws IOException
+    {
+        AuditContoller controller = new AuditContoller();
+        ReflectionTestUtils.setField(controller, "audit", new FailingAuditBean(flush));
+        controller.list(new MockHttpServletRequest(), response, null, null, null, null, null, null, null, null,
+            null, null);
+    }
+
+    @Test
+    public void testErrorBeforeStreaming() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try
+        {
+            list(response, false);
+            fail("Ошибка выборки");
+        }
+        catch (DataAccessResourceFailureException e)
+        {
+            // исключение обрабатывается GlobalExceptionHandler
+            assertEquals("Ответ не начат", false, response.isCommitted());
+            assertEquals("Записанное начало таблицы сброшено", 0, response.getContentAsByteArray().length);
+        }
+    }
+
+    @Test
+    public void testErrorWhileStreaming() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try
+        {
+            list(response, true);
+            fail("Ошибка выборки");
+        }
+        catch (IllegalStateException e)
+        {
+            // контейнер закрывает подключение, не завершая ответ
+            assertTrue("Ответ начат", response.isCommitted());
+            assertTrue("Причина", e.getCause() instanceof DataAccessResourceFailureException);
+        }
+    }
+}
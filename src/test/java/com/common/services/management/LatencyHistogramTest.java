@@ -0,0 +1,62 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.audit.database.LatencyHistogram;
+import org.junit.Test;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+/**
+ * LatencyHistogramTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Гистограмма длительности ответов: номера и границы корзин, погрешность, процентили
+ * объединенных гистограмм
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        assertEquals("Отрицательная длительность", 0, LatencyHistogram.getBucket(-5));
+        assertEquals("Линейные корзины", 63, LatencyHistogram.getBucket(63));
+        assertEquals("Первая логарифмическая корзина", 64, LatencyHistogram.getBucket(64));
+        assertEquals("Первая логарифмическая корзина", 64, LatencyHistogram.getBucket(65));
+        assertEquals("Конец интервала [64, 128)", 95, LatencyHistogram.getBucket(127));
+        assertEquals("Начало интервала [128, 256)", 96, LatencyHistogram.getBucket(128));
+        assertEquals("Количество корзин", 864, LatencyHistogram.BUCKET_COUNT);
+        assertEquals("Последняя корзина", Integer.MAX_VALUE,
+            LatencyHistogram.getHighestValue(LatencyHistogram.BUCKET_COUNT - 1));
+
+        int previous = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++)
+        {
+            int lowest = previous + 1;
+            int highest = LatencyHistogram.getHighestValue(bucket);
+            assertEquals("Начало корзины " + bucket, bucket, LatencyHistogram.getBucket(lowest));
+            assertEquals("Конец корзины " + bucket, bucket, LatencyHistogram.getBucket(highest));
+            assertTrue("Погрешность корзины " + bucket, (double)(highest - lowest) <= lowest / 32.0);
+            previous = highest;
+        }
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("Пустая гистограмма", 0, histogram.getValueAtPercentile(50));
+
+        // корзины, собранные по двум интервалам: 1..100 мс и 1000 мс
+        for (int duration = 1; duration <= 100; duration++)
+        {
+            histogram.add(LatencyHistogram.getBucket(duration), 1);
+        }
+        histogram.add(LatencyHistogram.getBucket(1000), 1);
+
+        assertEquals("Количество", 101L, histogram.getTotalCount());
+        assertEquals("p50", 51, histogram.getValueAtPercentile(50));
+        assertEquals("p90", 91, histogram.getValueAtPercentile(90));
+        assertEquals("p99", 101, histogram.getValueAtPercentile(99));
+        assertEquals("max", 1007, histogram.getValueAtPercentile(100));
+    }
+}
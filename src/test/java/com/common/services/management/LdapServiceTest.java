@@ -0,0 +1,463 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.management.database.LdapUserBatchSource;
+import com.common.services.management.beans.management.model.LdapPermissions;
+import com.common.services.management.beans.management.model.LdapSyncJob;
+import com.common.services.management.beans.management.model.LdapSyncMode;
+import com.common.services.management.beans.management.model.LdapSyncResult;
+import com.common.services.management.beans.management.model.LdapUser;
+import com.common.services.management.beans.management.service.LdapContextSourcePool;
+import com.common.services.management.beans.management.service.LdapService;
+import com.common.services.management.beans.management.service.LdapSyncJobService;
+import com.common.services.management.beans.management.service.UsersManagementService;
+import com.common.services.management.beans.serv.exceptions.NotFoundException;
+import com.common.services.management.beans.serv.exceptions.ServiceException;
+import com.common.services.management.logging.Logger;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.naming.directory.DirContext;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+import static org.springframework.test.util.AssertionErrors.fail;
+
+/**
+ * LdapServiceTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Постраничное чтение пользователей с LDAP сервера в памяти на 200 000 записей
+ * с переиспользованием подключений из пула, чтение измененных пользователей, фоновые задания синхронизации
+ */
+public class LdapServiceTest
+{
+    private static final int ENTRIES = 200_000;
+    private static final int PAGE_SIZE = 1000;
+    private static final String BASE = "dc=example,dc=com";
+    private static final String ADMIN_DN = "cn=admin," + BASE;
+    private static final String ADMIN_PASSWORD = "secret";
+    private static final String GROUP_DN = "cn=admins,ou=groups," + BASE;
+
+    private static InMemoryDirectoryServer server;
+    private LdapContextSourcePool pool;
+    private LdapService ldapService;
+
+    @BeforeClass
+    public static void startServer() throws Exception
+    {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        config.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        config.setSchema(null);
+        server = new InMemoryDirectoryServer(config);
+        server.add(new Entry(BASE, new Attribute("objectClass", "top", "domain"), new Attribute("dc", "example")));
+        server.add(new Entry("ou=people," + BASE, new Attribute("objectClass", "top", "organizationalUnit"),
+                new Attribute("ou", "people")));
+        for (int i = 0; i < ENTRIES; i++)
+        {
+            server.add(new Entry("uid=user" + i + ",ou=people," + BASE,
+                    new Attribute("objectClass", "person"), new Attribute("uid", "user" + i)));
+        }
+        server.startListening();
+    }
+
+    @AfterClass
+    public static void stopServer()
+    {
+        server.shutDown(true);
+    }
+
+    @Before
+    public void createService()
+    {
+        pool = new LdapContextSourcePool();
+        ReflectionTestUtils.setField(pool, "enabled", true);
+        ReflectionTestUtils.setField(pool, "maxTotalPerKey", 2);
+        ReflectionTestUtils.setField(pool, "maxIdlePerKey", 2);
+        ReflectionTestUtils.setField(pool, "maxWaitMillis", 10000L);
+        ReflectionTestUtils.setField(pool, "minEvictableIdleTimeMillis", 300000L);
+        ReflectionTestUtils.setField(pool, "evictionIntervalMillis", 60000L);
+        ReflectionTestUtils.setField(pool, "maxPools", 2);
+        ldapService = new LdapService();
+        ReflectionTestUtils.setField(ldapService, "url", "ldap://localhost:" + server.getListenPort());
+        ReflectionTestUtils.setField(ldapService, "base", BASE);
+        ReflectionTestUtils.setField(ldapService, "pageSize", PAGE_SIZE);
+        ReflectionTestUtils.setField(ldapService, "markAttribute", "modifyTimestamp");
+        ReflectionTestUtils.setField(ldapService, "groupAttribute", "memberOf");
+        ReflectionTestUtils.setField(ldapService, "ldapContextSourcePool", pool);
+        ReflectionTestUtils.setField(ldapService, "serviceException",
+                Mockito.mock(ServiceException.class, Answers.RETURNS_SELF));
+    }
+
+    @After
+    public void destroyPool()
+    {
+        pool.destroy();
+    }
+
+    @Test
+    public void testReadUsersByPages()
+    {
+        LdapPermissions ldap = getLdapPermissions(ADMIN_PASSWORD);
+
+        BitSet read = new BitSet(ENTRIES);
+        AtomicInteger pages = new AtomicInteger();
+        AtomicInteger maxPage = new AtomicInteger();
+        System.gc();
+        resetPeakHeapUsage();
+        long heapBefore = getHeapUsage();
+        long start = System.nanoTime();
+        ldapService.readUsers(ldap, page ->
+        {
+            pages.incrementAndGet();
+            maxPage.accumulateAndGet(page.size(), Math::max);
+            page.forEach(uid -> read.set(Integer.parseInt(uid.substring("user".length()))));
+        });
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        long peakHeap = getPeakHeapUsage();
+
+        assertEquals("Прочитаны все пользователи", ENTRIES, read.cardinality());
+        assertTrue("Размер страницы " + maxPage.get(), maxPage.get() <= PAGE_SIZE);
+        assertTrue("Количество страниц " + pages.get(), pages.get() >= ENTRIES / PAGE_SIZE);
+        System.out.println("LDAP paged read: " + ENTRIES + " entries, " + pages.get() + " pages, " + elapsed
+                + " ms, heap before " + heapBefore / (1024 * 1024) + " MB, peak " + peakHeap / (1024 * 1024) + " MB");
+    }
+
+    /**
+     * Повторные чтения используют подключение из пула. Подключение с неверным паролем не закрывает пул
+     * с верным паролем, количество пулов ограничено
+     */
+    @Test
+    public void testPooledConnections()
+    {
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 3; i++)
+        {
+            ldapService.readUsers(getLdapPermissions(ADMIN_PASSWORD), page -> count.addAndGet(page.size()));
+        }
+        assertEquals("Прочитаны все пользователи", 3 * ENTRIES, count.get());
+        List<Map<String, Object>> statistics = pool.getStatistics();
+        assertEquals("Количество пулов", 1, statistics.size());
+        assertEquals("Активные подключения", 0, statistics.get(0).get("active"));
+        assertEquals("Простаивающие подключения", 1, statistics.get(0).get("idle"));
+
+        try
+        {
+            ldapService.readUsers(getLdapPermissions("wrong"), page -> count.addAndGet(page.size()));
+            fail("Подключение с неверным паролем");
+        }
+        catch (ServiceException e)
+        {
+            assertEquals("Количество пулов", 2, pool.getStatistics().size());
+        }
+        ldapService.readUsers(getLdapPermissions(ADMIN_PASSWORD), page -> count.addAndGet(page.size()));
+        assertEquals("Подключение из пула с верным паролем", 1, pool.getStatistics().get(1).get("idle"));
+
+        for (String password : Arrays.asList("wrong1", "wrong2"))
+        {
+            try
+            {
+                ldapService.readUsers(getLdapPermissions(password), page -> count.addAndGet(page.size()));
+                fail("Подключение с неверным паролем");
+            }
+            catch (ServiceException e)
+            {
+                assertEquals("Количество пулов ограничено", 2, pool.getStatistics().size());
+            }
+        }
+    }
+
+    /**
+     * Вытесненный пул с активным подключением закрывается только после возврата подключения
+     * @throws Exception
+     */
+    @Test
+    public void testRetiredPoolClosedAfterRelease() throws Exception
+    {
+        String url = "ldap://localhost:" + server.getListenPort();
+        ContextSource contextSource = pool.getContextSource(url, BASE, ADMIN_DN, ADMIN_PASSWORD);
+        DirContext context = contextSource.getReadOnlyContext();
+        List<?> retired = (List<?>) ReflectionTestUtils.getField(pool, "retired");
+        try
+        {
+            pool.getContextSource(url, BASE, ADMIN_DN, "other1");
+            pool.getContextSource(url, BASE, ADMIN_DN, "other2");
+            assertEquals("Пул вытеснен", 1, retired.size());
+            pool.closeRetiredPools();
+            assertEquals("Пул с активным подключением не закрыт", 1, retired.size());
+            assertTrue("Подключение работает", context.getAttributes("").size() > 0);
+        }
+        finally
+        {
+            context.close();
+        }
+        pool.closeRetiredPools();
+        assertEquals("Пул закрыт после возврата подключения", 0, retired.size());
+    }
+
+    /**
+     * Чтение с отметки предыдущего чтения возвращает только измененных после нее пользователей с их группами
+     * @throws Exception
+     */
+    @Test
+    public void testReadChangedUsers() throws Exception
+    {
+        LdapPermissions ldap = getLdapPermissions(ADMIN_PASSWORD);
+        String mark = ldapService.readUsers(ldap, null, page -> { });
+        assertTrue("Отметка полного чтения", mark != null);
+
+        // отметка времени изменения в миллисекундах
+        Thread.sleep(10);
+        Set<String> modified = new HashSet<>();
+        for (int i = 0; i < ENTRIES; i += ENTRIES / 10)
+        {
+            server.modify("uid=user" + i + ",ou=people," + BASE,
+                    new Modification(ModificationType.REPLACE, "memberOf", GROUP_DN));
+            modified.add("user" + i);
+        }
+        Set<String> read = new HashSet<>();
+        Set<String> members = new HashSet<>();
+        String deltaMark = ldapService.readLdapUsers(ldap, mark, page -> page.forEach(user ->
+        {
+            read.add(user.getUsername());
+            if (user.getGroups().contains(GROUP_DN))
+            {
+                members.add(user.getUsername());
+            }
+        }));
+
+        assertTrue("Прочитаны измененные пользователи " + read, read.containsAll(modified));
+        assertEquals("Группы пользователей", modified, members);
+        // кроме измененных читаются только пользователи с отметкой, равной отметке предыдущего чтения
+        assertTrue("Прочитано пользователей " + read.size(), read.size() < PAGE_SIZE);
+        assertTrue("Отметка увеличилась", deltaMark.compareTo(mark) > 0);
+    }
+
+    /**
+     * Каталог без атрибута memberOf (OpenLDAP без overlay memberOf): группы пользователей не считаются
+     * прочитанными, и синхронизация не снимает роли LDAP групп
+     * @throws Exception
+     */
+    @Test
+    public void testReadUsersWithoutGroupAttribute() throws Exception
+    {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        config.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        config.setSchema(null);
+        InMemoryDirectoryServer directory = new InMemoryDirectoryServer(config);
+        directory.add(new Entry(BASE, new Attribute("objectClass", "top", "domain"), new Attribute("dc", "example")));
+        for (int i = 0; i < 10; i++)
+        {
+            directory.add(new Entry("uid=user" + i + "," + BASE,
+                    new Attribute("objectClass", "person"), new Attribute("uid", "user" + i)));
+        }
+        directory.startListening();
+        try
+        {
+            ReflectionTestUtils.setField(ldapService, "url", "ldap://localhost:" + directory.getListenPort());
+            List<LdapUser> users = new ArrayList<>();
+            ldapService.readLdapUsers(getLdapPermissions(ADMIN_PASSWORD), null, users::addAll);
+            assertEquals("Прочитаны все пользователи", 10, users.size());
+            assertTrue("Группы не прочитаны", users.stream().allMatch(user -> user.getGroups() == null));
+
+            // каталог заполняет атрибут: пользователь без атрибута не входит в группы
+            directory.modify("uid=user0," + BASE, new Modification(ModificationType.REPLACE, "memberOf", GROUP_DN));
+            users.clear();
+            ldapService.readLdapUsers(getLdapPermissions(ADMIN_PASSWORD), null, users::addAll);
+            assertTrue("Группы прочитаны", users.stream().allMatch(user -> user.getGroups() != null));
+            assertEquals("Пользователи в группе", 1L,
+                    users.stream().filter(user -> user.getGroups().contains(GROUP_DN)).count());
+        }
+        finally
+        {
+            directory.shutDown(true);
+        }
+    }
+
+    /**
+     * Фоновое выполнение синхронизации: одно задание на каталог, ход выполнения и отмена
+     * @throws Exception
+     */
+    @Test
+    public void testSyncJobs() throws Exception
+    {
+        CountDownLatch applying = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicBoolean waitCancel = new AtomicBoolean();
+        UsersManagementService usersManagementService = Mockito.mock(UsersManagementService.class);
+        AtomicBoolean lockedByOtherNode = new AtomicBoolean();
+        Mockito.when(usersManagementService.synchronizeLdapDirectory(Mockito.anyString(),
+                Mockito.any(LdapUserBatchSource.class), Mockito.any(), Mockito.anyBoolean()))
+               .thenAnswer(invocation ->
+               {
+                   if (lockedByOtherNode.get())
+                   {
+                       return null;
+                   }
+                   LdapUserBatchSource source = invocation.getArgument(1);
+                   source.forEachBatch(batch ->
+                   {
+                       if (waitCancel.get())
+                       {
+                           await(cancelled);
+                       }
+                   });
+                   await(applying);
+                   Supplier<String> mark = invocation.getArgument(2);
+                   assertTrue("Отметка синхронизации", mark.get() != null);
+                   return new LdapSyncResult(1, 2, 3);
+               });
+        LdapSyncJobService jobService = new LdapSyncJobService();
+        ReflectionTestUtils.setField(jobService, "threads", 2);
+        ReflectionTestUtils.setField(jobService, "queueCapacity", 10);
+        ReflectionTestUtils.setField(jobService, "retentionMillis", 3600000L);
+        ReflectionTestUtils.setField(jobService, "ldapService", ldapService);
+        ReflectionTestUtils.setField(jobService, "usersManagementService", usersManagementService);
+        ReflectionTestUtils.setField(jobService, "serviceException",
+                Mockito.mock(ServiceException.class, Answers.RETURNS_SELF));
+        ReflectionTestUtils.setField(jobService, "notFoundException",
+                Mockito.mock(NotFoundException.class, Answers.RETURNS_SELF));
+        ReflectionTestUtils.setField(jobService, "logger", new Logger());
+        jobService.init();
+        try
+        {
+            LdapSyncJob job = jobService.submit(getLdapPermissions(ADMIN_PASSWORD), LdapSyncMode.DELTA);
+            assertEquals("Без отметки выполняется полная синхронизация", LdapSyncMode.FULL, job.getMode());
+            try
+            {
+                jobService.submit(getLdapPermissions(ADMIN_PASSWORD));
+                fail("Вторая синхронизация каталога");
+            }
+            catch (ServiceException e)
+            {
+                // синхронизация каталога уже выполняется
+            }
+            waitPhase(job, LdapSyncJob.Phase.APPLYING);
+            assertEquals("Прочитано", ENTRIES, job.getProcessed());
+            applying.countDown();
+            waitPhase(job, LdapSyncJob.Phase.COMPLETED);
+            assertEquals("Результат", "added=1, enabled=2, disabled=3", job.getResult().toString());
+            assertTrue("Скорость чтения", job.getThroughput() > 0);
+            assertEquals("Задание по id", job, jobService.getJob(job.getId()));
+            Mockito.verify(usersManagementService).synchronizeLdapDirectory(Mockito.eq(job.getDirectory()),
+                    Mockito.any(LdapUserBatchSource.class), Mockito.any(), Mockito.eq(true));
+
+            // отмена после первой страницы
+            waitCancel.set(true);
+            job = jobService.submit(getLdapPermissions(ADMIN_PASSWORD));
+            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+            while (job.getProcessed() < PAGE_SIZE && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            jobService.cancel(job.getId());
+            cancelled.countDown();
+            waitPhase(job, LdapSyncJob.Phase.CANCELLED);
+            assertEquals("Прочитана одна страница", PAGE_SIZE, job.getProcessed());
+            assertEquals("Результат отмененного задания", null, job.getResult());
+
+            // каталог синхронизирует другой узел сервиса
+            lockedByOtherNode.set(true);
+            job = jobService.submit(getLdapPermissions(ADMIN_PASSWORD));
+            waitPhase(job, LdapSyncJob.Phase.SKIPPED);
+            assertEquals("Результат пропущенного задания", null, job.getResult());
+        }
+        finally
+        {
+            jobService.destroy();
+        }
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitPhase(LdapSyncJob job, LdapSyncJob.Phase phase) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (job.getPhase() != phase && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("Этап задания " + job.getErrors(), phase, job.getPhase());
+    }
+
+    private static LdapPermissions getLdapPermissions(String password)
+    {
+        LdapPermissions ldap = new LdapPermissions();
+        ldap.setUserDn(ADMIN_DN);
+        ldap.setPassword(password);
+        return ldap;
+    }
+
+    private static void resetPeakHeapUsage()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getHeapUsage()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Сумма пиковых значений пулов кучи - верхняя оценка пикового использования кучи
+     * @return пиковое использование кучи в байтах
+     */
+    private static long getPeakHeapUsage()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -1,29 +1,52 @@
 package com.common.services.management;
 
+import com.common.services.management.beans.audit.database.AuditDao;
+import com.common.services.management.beans.audit.database.AuditDaoImpl;
+import com.common.services.management.beans.audit.database.AuditPartitionInterval;
+import com.common.services.management.beans.audit.database.AuditQueryBuilder;
 import com.common.services.management.datasource.DataSourceManager;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.init.ScriptUtils;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -33,11 +56,19 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ActiveProfiles("test")
 public class ManagementApplicationTests
 {
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
     @Autowired
     private MockMvc mvc;
     
     @Autowired
     private DataSourceManager dataManagement;
+
+    @Autowired
+    private AuditDao auditDao;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
     
     @Before
     public void setUp() throws IOException
@@ -46,7 +77,531 @@ public class ManagementApplicationTests
         // Создание таблиц в БД
         executeScript(jdbcTemplate, "/db_audit_delete_tables.sql");
         executeScript(jdbcTemplate, "/db_audit_create_tables.sql");
+        executeScript(jdbcTemplate, "/db_audit_typed_columns.sql");
+        executeScript(jdbcTemplate, "/db_audit_sessions.sql");
+        executeScript(jdbcTemplate, "/db_audit_request_metrics.sql");
+        executeScript(jdbcTemplate, "/db_audit_fill_test_tables.sql");
+        auditDao.refreshSessions();
+        auditDao.refreshRequestMetrics();
+    }
+
+    /**
+     * Секционированная таблица аудита: создание секций следующих дней, удаление секций с истекшим
+     * сроком хранения и отсечение секций в запросах по периоду
+     * @throws Exception
+     */
+    @Test
+    public void auditPartitionsTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        executeScript(jdbcTemplate, "/db_audit_delete_tables.sql");
+        executeScript(jdbcTemplate, "/db_audit_create_partitioned_tables.sql");
+        executeScript(jdbcTemplate, "/db_audit_typed_columns.sql");
+        executeScript(jdbcTemplate, "/db_audit_sessions.sql");
+        LocalDate today = LocalDate.now();
+        jdbcTemplate.getJdbcOperations().execute("CREATE TABLE audit_p" + today.minusDays(10).format(PARTITION_FORMAT) +
+            " PARTITION OF audit FOR VALUES FROM ('" + today.minusDays(10) + "') TO ('" + today.minusDays(9) + "')");
+        // запись следующего дня до создания его секции попадает в секцию по умолчанию
+        jdbcTemplate.getJdbcOperations().update("INSERT INTO audit(\"time\", sessionid, \"user\", userid, rq, data) " +
+            "VALUES (?, 'SESSION_DEFAULT', 'user1', 2, 'Q', cast('{}' as json))", Timestamp.valueOf(today.plusDays(1).atTime(12, 0)));
+
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "partitionInterval", AuditPartitionInterval.DAY);
+        ReflectionTestUtils.setField(dao, "premadePartitions", 2);
+        ReflectionTestUtils.setField(dao, "retentionDays", 7);
+        try
+        {
+            auditDao.maintainPartitions();
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "partitionInterval", null);
+            ReflectionTestUtils.setField(dao, "retentionDays", 0);
+        }
+        Set<String> partitions = new TreeSet<>(jdbcTemplate.getJdbcOperations().queryForList(
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = 'audit'::regclass", String.class));
+        Set<String> expected = new TreeSet<>(Arrays.asList("audit_default",
+            "audit_p" + today.format(PARTITION_FORMAT),
+            "audit_p" + today.plusDays(1).format(PARTITION_FORMAT),
+            "audit_p" + today.plusDays(2).format(PARTITION_FORMAT)));
+        assertEquals("Секции таблицы аудита", expected, partitions);
+        assertEquals("Запись перенесена из секции по умолчанию", 1, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit_p" + today.plusDays(1).format(PARTITION_FORMAT) +
+            " WHERE sessionid = 'SESSION_DEFAULT'", Integer.class));
+        assertEquals("Секция по умолчанию", 0, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit_default", Integer.class));
+        jdbcTemplate.getJdbcOperations().execute("DELETE FROM audit WHERE sessionid = 'SESSION_DEFAULT'");
+
         executeScript(jdbcTemplate, "/db_audit_fill_test_tables.sql");
+        auditDao.refreshSessions();
+        Map<String, Object> params = new HashMap<>();
+        params.put(AuditDaoImpl.TIME_FROM, Timestamp.valueOf(today.atStartOfDay()));
+        params.put(AuditDaoImpl.TIME_TO, Timestamp.valueOf(today.atTime(23, 59)));
+        String plan = explain(jdbcTemplate, AuditDaoImpl.QUERY_LIST, params);
+        assertTrue(plan, plan.contains("audit_p" + today.format(PARTITION_FORMAT)));
+        assertTrue(plan, !plan.contains("audit_p" + today.plusDays(1).format(PARTITION_FORMAT)));
+        assertTrue(plan, !plan.contains("audit_default"));
+
+        // запросы к секционированной таблице возвращают те же данные
+        auditTest();
+    }
+
+    /**
+     * Запросы с ограничением по времени используют индекс audit_index, а не последовательное чтение таблицы
+     * @throws Exception
+     */
+    @Test
+    public void auditIndexScanTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        jdbcTemplate.getJdbcOperations().execute("INSERT INTO audit " +
+            "SELECT t, 'SESSION' || (n % 100), 'user' || (n % 10), (n % 10)::text, r, " +
+            "case when r = 'Q' then json_build_object('method', 'GET', 'path', 'path', 'time', to_char(t, 'YYYY-MM-DD HH24:MI:SS.MS')) " +
+            "else json_build_object('code', case when n % 7 = 0 then 404 else 200 end, 'requestJson', " +
+            "json_build_object('method', 'GET', 'path', 'path', 'time', to_char(t, 'YYYY-MM-DD HH24:MI:SS.MS'))) end " +
+            "FROM generate_series(1, 50000) n, " +
+            "LATERAL (SELECT now()::timestamp - n * interval '1 minute' AS t) tt, " +
+            "LATERAL (SELECT case when n % 2 = 0 then 'Q' else 'R' end AS r) rr");
+        jdbcTemplate.getJdbcOperations().execute("ANALYZE audit");
+
+        LocalDateTime to = LocalDateTime.now().minusDays(3);
+        Map<String, Object> params = new HashMap<>();
+        params.put(AuditDaoImpl.TIME_FROM, Timestamp.valueOf(to.minusHours(1)));
+        params.put(AuditDaoImpl.TIME_TO, Timestamp.valueOf(to));
+        String plan = explain(jdbcTemplate, AuditDaoImpl.QUERY_LIST, params);
+        assertTrue(plan, plan.contains("audit_index"));
+
+        params.put(AuditDaoImpl.USERID, "1");
+        plan = explain(jdbcTemplate, AuditDaoImpl.QUERY_REQUESTS, params);
+        assertTrue(plan, plan.contains("audit_requests_index"));
+    }
+
+    /**
+     * Сравнение времени выполнения запроса запросов с ответами по json и по типизированным колонкам.
+     * Выполняется при заданном количестве строк: -Daudit.benchmark.rows=50000000
+     * @throws Exception
+     */
+    @Test
+    public void auditRequestsBenchmark() throws Exception
+    {
+        long rows = Long.getLong("audit.benchmark.rows", 0);
+        Assume.assumeTrue("Количество строк не задано", rows > 0);
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        jdbcTemplate.getJdbcOperations().execute("INSERT INTO audit " +
+            "SELECT t, 'SESSION' || (n % 1000), 'user' || (n % 100), (n % 100)::text, r, " +
+            "case when r = 'Q' then json_build_object('method', 'GET', 'path', 'path', 'time', to_char(t, 'YYYY-MM-DD HH24:MI:SS.MS')) " +
+            "else json_build_object('code', case when n % 7 = 0 then 404 else 200 end, 'requestJson', " +
+            "json_build_object('method', 'GET', 'path', 'path' || (n % 50), 'time', to_char(t, 'YYYY-MM-DD HH24:MI:SS.MS'))) end " +
+            "FROM generate_series(1, " + rows + ") n, " +
+            "LATERAL (SELECT now()::timestamp - n * interval '100 milliseconds' AS t) tt, " +
+            "LATERAL (SELECT case when n % 2 = 0 then 'Q' else 'R' end AS r) rr");
+        jdbcTemplate.getJdbcOperations().execute("ANALYZE audit");
+
+        LocalDateTime to = LocalDateTime.now().minusHours(12);
+        Map<String, Object> params = new HashMap<>();
+        params.put(AuditDaoImpl.TIME_FROM, Timestamp.valueOf(to.minusHours(1)));
+        params.put(AuditDaoImpl.TIME_TO, Timestamp.valueOf(to));
+        params.put(AuditDaoImpl.USERID, "1");
+        params.put(AuditDaoImpl.STATUS, "404");
+        for (AuditQueryBuilder query : Arrays.asList(AuditDaoImpl.QUERY_REQUESTS_JSON, AuditDaoImpl.QUERY_REQUESTS))
+        {
+            String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN (ANALYZE, FORMAT JSON) " +
+                String.format(query.build(params.keySet()).getSelect(), 50, 0), params, String.class));
+            double select = jsonMapper.readTree(plan).path(0).path("Execution Time").asDouble();
+            plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN (ANALYZE, FORMAT JSON) " +
+                query.build(params.keySet()).getCount(), params, String.class));
+            double count = jsonMapper.readTree(plan).path(0).path("Execution Time").asDouble();
+            System.out.println(String.format("%s, %d строк: страница %.1f мс, количество %.1f мс",
+                query == AuditDaoImpl.QUERY_REQUESTS ? "типизированные колонки" : "json", rows, select, count));
+        }
+    }
+
+    /**
+     * Типизированные колонки ответов заполняются триггером при записи и фоновым заданием для ранее записанных ответов
+     * @throws Exception
+     */
+    @Test
+    public void auditTypedColumnsTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        String sql = "SELECT count(*) FROM audit WHERE rq = 'R' AND method = 'GET' AND path = 'path' " +
+            "AND status IN (200, 404, 500) AND duration = 1 AND request_time IS NOT NULL";
+        assertEquals("Ответы, заполненные триггером", 6, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+
+        jdbcTemplate.getJdbcOperations().execute("ALTER TABLE audit DISABLE TRIGGER audit_typed_columns");
+        jdbcTemplate.getJdbcOperations().execute("UPDATE audit SET request_time = NULL, method = NULL, path = NULL, " +
+            "status = NULL, duration = NULL");
+        jdbcTemplate.getJdbcOperations().execute("ALTER TABLE audit ENABLE TRIGGER audit_typed_columns");
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "backfillBatchSize", 4);
+        ReflectionTestUtils.setField(dao, "backfillDone", false);
+        jdbcTemplate.getJdbcOperations().update("DELETE FROM audit_rollup_state WHERE name = 'backfill'");
+        try
+        {
+            // пока колонки не заполнены, запросы с ответами выбираются по json
+            auditTest();
+            auditDao.backfillTypedColumns();
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "backfillBatchSize", 10000);
+        }
+        assertEquals("Ответы, заполненные фоновым заданием", 6, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+        auditTest();
+    }
+
+    /**
+     * Ответы с некорректными значениями записываются, некорректные колонки остаются пустыми,
+     * фоновое заполнение их пропускает и завершается
+     * @throws Exception
+     */
+    @Test
+    public void auditTypedColumnsInvalidTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        String insert = "INSERT INTO audit(\"time\", sessionid, \"user\", userid, rq, data) VALUES " +
+            "(localtimestamp, 'SESSION9', 'user9', 9, 'R', cast(? as json))";
+        String method = String.join("", Collections.nCopies(20, "M"));
+        String path = "/" + String.join("", Collections.nCopies(3000, "p"));
+        jdbcTemplate.getJdbcOperations().update(insert, "{\"code\":\"abc\",\"requestJson\":{\"time\":\"2026-02-31 10:00:00.000\"," +
+            "\"method\":\"" + method + "\",\"path\":\"" + path + "\"}}");
+        jdbcTemplate.getJdbcOperations().update(insert, "{\"code\":99999,\"requestJson\":{\"time\":\"not a time\"," +
+            "\"method\":\"GET\",\"path\":\"path\"}}");
+        jdbcTemplate.getJdbcOperations().update(insert, "{\"code\":200,\"requestJson\":{\"time\":\"1900-01-01 00:00:00.000\"," +
+            "\"method\":\"GET\",\"path\":\"path\"}}");
+
+        String sql = "SELECT count(*) FROM audit WHERE sessionid = 'SESSION9' AND request_time IS NULL AND status IS NULL " +
+            "AND duration IS NULL";
+        assertEquals("Некорректные время и статус", 2, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+        assertEquals("Длительность вне диапазона integer", 1, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit WHERE sessionid = 'SESSION9' AND status = 200 AND duration IS NULL", Integer.class));
+        assertEquals("Длина метода и пути", "16 2048", jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT length(method) || ' ' || length(path) FROM audit WHERE sessionid = 'SESSION9' AND path LIKE '/p%'", String.class));
+
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "backfillBatchSize", 1);
+        ReflectionTestUtils.setField(dao, "backfillDone", false);
+        jdbcTemplate.getJdbcOperations().update("DELETE FROM audit_rollup_state WHERE name = 'backfill'");
+        try
+        {
+            auditDao.backfillTypedColumns();
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "backfillBatchSize", 10000);
+        }
+        assertEquals("Заполнение завершено", true, ReflectionTestUtils.getField(dao, "backfillDone"));
+        // незаполненные ответы с некорректным временем не возобновляют заполнение при перезапуске
+        assertEquals("Отметка заполнения", "infinity", jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT mark::text FROM audit_rollup_state WHERE name = 'backfill'", String.class));
+        assertEquals("Незаполненных ответов после отметки нет", false, jdbcTemplate.getJdbcOperations().queryForObject(
+            (String) ReflectionTestUtils.getField(AuditDaoImpl.class, "SQL_BACKFILL_PENDING"), Boolean.class));
+
+        // ответы без времени запроса не выбираются: ключ сортировки null не сравнивается с токеном продолжения
+        String json = mvc.perform(get("/audit/requests/export")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+        JsonNode rows = jsonMapper.readTree(json).get("rows");
+        assertEquals("Ответы со временем запроса", jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit WHERE rq = 'R' AND request_time IS NOT NULL", Integer.class), rows.size());
+        rows.forEach(row -> assertTrue(row.toString(), !row.get(0).asText().isEmpty()));
+    }
+
+    /**
+     * Выборка страниц по токену продолжения и способы подсчета количества строк
+     * @throws Exception
+     */
+    @Test
+    public void auditContinuationTest() throws Exception
+    {
+        String json = mvc.perform(get("/audit/requests?pageSize=2")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("{\"countRows\":6,\"countType\":\"EXACT\"}"))
+            .andReturn().getResponse().getContentAsString();
+        String continuation = jsonMapper.readTree(json).get("continuation").asText();
+
+        // Следующая страница по токену совпадает со страницей по номеру
+        json = mvc.perform(get("/audit/requests?pageSize=2&count=none&continuation=" + continuation)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json(toCurrentDate("{\"headers\":[\"timereq\",\"timeres\",\"userid\",\"sessionid\",\"method\",\"path\",\"status\"],"
+                + "\"rows\":["
+                +    "[\"CURRDATE CURRHOUR:41:00.000\",\"CURRDATE CURRHOUR:41:00.001\",\"3\",\"SESSION2\",\"GET\",\"path\",\"404\"],"
+                +    "[\"CURRDATE CURRHOUR:50:00.000\",\"CURRDATE CURRHOUR:50:00.001\",\"4\",\"SESSION3\",\"GET\",\"path\",\"200\"]],"
+                + "\"countType\":\"NONE\"}")))
+            .andReturn().getResponse().getContentAsString();
+        continuation = jsonMapper.readTree(json).get("continuation").asText();
+
+        // Последняя страница без токена продолжения
+        json = mvc.perform(get("/audit/requests?pageSize=2&count=estimate&continuation=" + continuation)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("{\"countType\":\"ESTIMATE\"}"))
+            .andReturn().getResponse().getContentAsString();
+        assertEquals("Строки последней страницы", 2, jsonMapper.readTree(json).get("rows").size());
+        assertTrue(json, jsonMapper.readTree(json).get("continuation").isNull());
+
+        // Токен другого запроса не принимается
+        mvc.perform(get("/audit/list?pageSize=2&continuation=" + continuation)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(get("/audit/list?count=all")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Выгрузка запросов с ответами без ограничения размера страницы
+     * @throws Exception
+     */
+    @Test
+    public void auditExportTest() throws Exception
+    {
+        mvc.perform(get("/audit/requests/export")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=audit-requests.json"))
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+            .andExpect(content().json(toCurrentDate("{\"headers\":[\"timereq\",\"timeres\",\"userid\",\"sessionid\",\"method\",\"path\",\"status\"],"
+                + "\"rows\":["
+                +    "[\"CURRDATE CURRHOUR:00:00.000\",\"CURRDATE CURRHOUR:00:00.001\",\"2\",\"SESSION1\",\"GET\",\"path\",\"200\"],"
+                +    "[\"CURRDATE CURRHOUR:40:00.000\",\"CURRDATE CURRHOUR:40:00.001\",\"3\",\"SESSION2\",\"GET\",\"path\",\"404\"],"
+                +    "[\"CURRDATE CURRHOUR:41:00.000\",\"CURRDATE CURRHOUR:41:00.001\",\"3\",\"SESSION2\",\"GET\",\"path\",\"404\"],"
+                +    "[\"CURRDATE CURRHOUR:50:00.000\",\"CURRDATE CURRHOUR:50:00.001\",\"4\",\"SESSION3\",\"GET\",\"path\",\"200\"],"
+                +    "[\"CURRDATE CURRHOUR:50:10.000\",\"CURRDATE CURRHOUR:50:10.001\",\"4\",\"SESSION3\",\"GET\",\"path\",\"404\"],"
+                +    "[\"CURRDATE CURRHOUR:50:20.000\",\"CURRDATE CURRHOUR:50:20.001\",\"4\",\"SESSION3\",\"GET\",\"path\",\"500\"]],"
+                + "\"countRows\":6,\"countType\":\"EXACT\",\"continuation\":null}")));
+
+        mvc.perform(get("/audit/list/export?rq=R&limit=4")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("{\"headers\":[\"time\",\"user\",\"sessionid\",\"rq\",\"data\"],"
+                + "\"countRows\":4,\"countType\":\"EXACT\"}"));
+    }
+
+    /**
+     * Таблица сессий обновляется только по записям аудита, добавленным после предыдущего обновления
+     * @throws Exception
+     */
+    @Test
+    public void auditSessionsTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        String sql = "SELECT cast(extract(epoch from last_seen - first_seen) as integer) FROM audit_sessions " +
+            "WHERE sessionid = 'SESSION1'";
+        assertEquals("Длительность сессии", 0, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+
+        jdbcTemplate.getJdbcOperations().execute(toCurrentDate("INSERT INTO audit(\"time\", sessionid, \"user\", userid, rq, data) " +
+            "VALUES (localtimestamp - interval '1 second', 'SESSION1', 'user1', 2, 'R', cast('{\"code\":200,\"json\":[]," +
+            "\"requestJson\":{\"time\":\"CURRDATE CURRHOUR:30:00.000\",\"adress\":\"0:0:0:0:0:0:0:1\",\"method\":\"GET\",\"path\":\"path\"}}' as json))"));
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "rollupLag", 0L);
+        try
+        {
+            auditDao.refreshSessions();
+            auditDao.refreshSessions();
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "rollupLag", 10000L);
+        }
+        assertEquals("Длительность сессии", 1800, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+        assertEquals("Сессии", 3, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit_sessions", Integer.class));
+    }
+
+    /**
+     * Активность сессий по интервалам периода
+     * @throws Exception
+     */
+    @Test
+    public void auditSessionActivityTest() throws Exception
+    {
+        mvc.perform(get("/audit/activity?bucket=30&timeFrom=" + toCurrentDate("CURRDATE CURRHOUR:00:00.000") +
+            "&timeTo=" + toCurrentDate("CURRDATE CURRHOUR:59:59.999"))
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+            .andExpect(content().json(toCurrentDate("["
+                + "{\"startTime\":\"CURRDATETCURRHOUR:00:00Z\",\"sessions\":1,\"users\":1,\"peakSessions\":1},"
+                + "{\"startTime\":\"CURRDATETCURRHOUR:30:00Z\",\"sessions\":2,\"users\":2,\"peakSessions\":1}]")));
+
+        mvc.perform(get("/audit/activity?bucket=0")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Сводка ответов по интервалам периода и ее обновление по новым записям аудита
+     * @throws Exception
+     */
+    @Test
+    public void auditRequestMetricsTest() throws Exception
+    {
+        String period = "timeFrom=" + toCurrentDate("CURRDATE CURRHOUR:00:00.000") +
+            "&timeTo=" + toCurrentDate("CURRDATE CURRHOUR:59:59.999");
+        mvc.perform(get("/audit/metrics?bucket=60&" + period)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("["
+                + "{\"method\":\"GET\",\"path\":\"path\",\"statusClass\":\"2xx\",\"requests\":2,\"durationSum\":2,\"durationMax\":1},"
+                + "{\"method\":\"GET\",\"path\":\"path\",\"statusClass\":\"4xx\",\"requests\":3,\"durationSum\":3,\"durationMax\":1},"
+                + "{\"method\":\"GET\",\"path\":\"path\",\"statusClass\":\"5xx\",\"requests\":1,\"durationSum\":1,\"durationMax\":1}]"));
+
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        jdbcTemplate.getJdbcOperations().execute(toCurrentDate("INSERT INTO audit(\"time\", sessionid, \"user\", userid, rq, data) " +
+            "VALUES (localtimestamp - interval '1 second', 'SESSION1', 'user1', 2, 'R', cast('{\"code\":404,\"json\":[]," +
+            "\"requestJson\":{\"time\":\"CURRDATE CURRHOUR:30:00.000\",\"adress\":\"0:0:0:0:0:0:0:1\",\"method\":\"GET\",\"path\":\"/users/12/roles?all=true\"}}' as json))"));
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "rollupLag", 0L);
+        try
+        {
+            auditDao.refreshRequestMetrics();
+            auditDao.refreshRequestMetrics();
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "rollupLag", 10000L);
+        }
+        mvc.perform(get("/audit/metrics?bucket=30&statusClass=4,5&path=/users/%&" + period)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("["
+                + "{\"method\":\"GET\",\"path\":\"/users/{id}/roles\",\"statusClass\":\"4xx\",\"requests\":1}]"));
+
+        mvc.perform(get("/audit/metrics?bucket=0")
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Сводку обновляет только узел, получивший блокировку отметки, повторное обновление не увеличивает счетчики
+     * @throws Exception
+     */
+    @Test
+    public void auditRollupLockTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        String sql = "SELECT coalesce(sum(requests), 0) FROM audit_request_metrics";
+        assertEquals("Ответы в сводке", 6, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+        jdbcTemplate.getJdbcOperations().execute("INSERT INTO audit(\"time\", sessionid, \"user\", userid, rq, data) " +
+            "VALUES (localtimestamp - interval '1 second', 'SESSION1', 'user1', 2, 'R', cast('{\"code\":200," +
+            "\"requestJson\":{\"time\":\"" + LocalDateTime.now().minusSeconds(2).toString().replace('T', ' ') + "\"," +
+            "\"method\":\"GET\",\"path\":\"path\"}}' as json))");
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "rollupLag", 0L);
+        try (Connection connection = dataManagement.getDataSource("audit").getConnection())
+        {
+            // блокировка отметки другим узлом
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement())
+            {
+                statement.execute("SELECT pg_advisory_xact_lock(hashtext('audit_rollup:requests'))");
+            }
+            auditDao.refreshRequestMetrics();
+            assertEquals("Сводка обновляется другим узлом", 6, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+            connection.rollback();
+
+            auditDao.refreshRequestMetrics();
+            auditDao.refreshRequestMetrics();
+            assertEquals("Ответы в сводке", 7, jdbcTemplate.getJdbcOperations().queryForObject(sql, Integer.class));
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "rollupLag", 10000L);
+        }
+    }
+
+    /**
+     * Ответы с некорректными значениями не останавливают обновление сводных таблиц
+     * @throws Exception
+     */
+    @Test
+    public void auditRollupInvalidTest() throws Exception
+    {
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataManagement.getDataSource("audit"));
+        String insert = "INSERT INTO audit(\"time\", sessionid, \"user\", userid, rq, data) VALUES " +
+            "(localtimestamp - interval '1 second', 'SESSION9', 'user9', 9, 'R', cast(? as json))";
+        String time = LocalDateTime.now().minusSeconds(2).toString().replace('T', ' ');
+        jdbcTemplate.getJdbcOperations().update(insert, "{\"code\":\"abc\",\"requestJson\":{\"time\":\"" + time + "\"," +
+            "\"method\":\"GET\",\"path\":\"path\"}}");
+        jdbcTemplate.getJdbcOperations().update(insert, "{\"code\":200,\"requestJson\":{\"time\":\"2026-02-31 10:00:00.000\"," +
+            "\"method\":\"GET\",\"path\":\"path\"}}");
+        jdbcTemplate.getJdbcOperations().update(insert, "{\"code\":200,\"requestJson\":{\"time\":\"1900-01-01 00:00:00.000\"," +
+            "\"method\":\"GET\",\"path\":\"path\"}}");
+        Object dao = AopTestUtils.getTargetObject(auditDao);
+        ReflectionTestUtils.setField(dao, "rollupLag", 0L);
+        try
+        {
+            auditDao.refreshRequestMetrics();
+            auditDao.refreshSessions();
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "rollupLag", 10000L);
+        }
+        assertEquals("Сессия по ответам с корректным временем", 1, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit_sessions WHERE sessionid = 'SESSION9'", Integer.class));
+        assertEquals("Ответ с некорректным статусом", 1, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT sum(requests) FROM audit_request_metrics WHERE status_class = 0", Integer.class));
+        assertEquals("Ответы в гистограммах", 7, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT sum(requests) FROM audit_request_latency", Integer.class));
+        assertEquals("Отметки обработанных записей", 3, jdbcTemplate.getJdbcOperations().queryForObject(
+            "SELECT count(*) FROM audit_rollup_state WHERE name IN ('requests', 'latency', 'sessions') " +
+            "AND mark >= localtimestamp - interval '1 minute'", Integer.class));
+    }
+
+    /**
+     * Процентили длительности ответов по гистограммам интервалов периода
+     * @throws Exception
+     */
+    @Test
+    public void auditLatencyTest() throws Exception
+    {
+        String period = "timeFrom=" + toCurrentDate("CURRDATE CURRHOUR:00:00.000") +
+            "&timeTo=" + toCurrentDate("CURRDATE CURRHOUR:59:59.999");
+        mvc.perform(get("/audit/latency?" + period)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("["
+                + "{\"method\":\"GET\",\"path\":\"path\",\"requests\":6,\"p50\":1,\"p90\":1,\"p99\":1,\"max\":1}]"));
+
+        mvc.perform(get("/audit/latency?statusClass=5&" + period)
+            .header("userid", "0")
+            .contentType(MediaType.APPLICATION_JSON).characterEncoding("UTF-8"))
+            .andExpect(status().isOk())
+            .andExpect(content().json("["
+                + "{\"method\":\"GET\",\"path\":\"path\",\"requests\":1,\"p50\":1,\"p90\":1,\"p99\":1,\"max\":1}]"));
+    }
+
+    /**
+     * Получить план запроса аудита с фильтрами по переданным параметрам
+     * @param jdbcTemplate соединение с базой
+     * @param query построитель запроса
+     * @param params параметры запроса
+     * @return план запроса
+     */
+    private String explain(NamedParameterJdbcTemplate jdbcTemplate, AuditQueryBuilder query, Map<String, Object> params)
+    {
+        return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " +
+            String.format(query.build(params.keySet()).getSelect(), 100, 0), params, String.class));
     }
 
     /**
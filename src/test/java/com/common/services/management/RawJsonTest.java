@@ -0,0 +1,100 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.management.model.Role;
+import com.common.services.management.beans.management.model.RoleJsonObject;
+import com.common.services.management.beans.management.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+/**
+ * RawJsonTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: json объекты пользователя и роли строкой из БД: передача в ответ без разбора, разбор при
+ * обращении к полям, одновременный разбор общего объекта в нескольких потоках
+ */
+public class RawJsonTest
+{
+    private static final String USER_JSON = "{ \"lastName\" : \"Иванов\",  \"age\":42 }";
+    private static final String ROLE_JSON = "{\"ldap\":true,\"objects\":{\"audit\":\"read\"}}";
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+
+    @Test
+    public void testPassthrough() throws Exception
+    {
+        User user = new User();
+        user.setRawJsonData(USER_JSON);
+        String json = jsonMapper.writeValueAsString(user);
+        assertTrue(json, json.contains("\"jsonData\":" + USER_JSON));
+
+        assertEquals("Разбор при обращении", "Иванов", user.getJsonData().get("lastName"));
+        assertEquals("Строка сброшена после разбора", null, user.getRawJsonData());
+        assertEquals("После разбора записывается объект", jsonMapper.readTree(USER_JSON),
+            jsonMapper.readTree(jsonMapper.writeValueAsString(user)).get("jsonData"));
+
+        user.setJsonData(Collections.singletonMap("lastName", "Петров"));
+        assertEquals("Установленный объект", "{\"lastName\":\"Петров\"}",
+            jsonMapper.readTree(jsonMapper.writeValueAsString(user)).get("jsonData").toString());
+    }
+
+    @Test
+    public void testInvalidJson() throws Exception
+    {
+        User user = new User();
+        user.setRawJsonData("{\"lastName\":");
+        assertEquals("Ошибка разбора", null, user.getJsonData());
+        assertEquals("Повторное обращение", null, user.getJsonData());
+
+        Role role = new Role();
+        assertEquals("Нет json объекта", null, role.getJsonData());
+    }
+
+    @Test
+    public void testConcurrentParse() throws Exception
+    {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for (int pass = 0; pass < 1000; pass++)
+            {
+                Role role = new Role();
+                role.setRawJsonData(ROLE_JSON);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<RoleJsonObject>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++)
+                {
+                    results.add(executor.submit(() ->
+                    {
+                        start.await();
+                        return role.getJsonData();
+                    }));
+                }
+                start.countDown();
+                for (Future<RoleJsonObject> result : results)
+                {
+                    RoleJsonObject data = result.get();
+                    assertTrue("Объект разобран", data != null);
+                    assertEquals("ldap", true, data.getLdap());
+                    assertEquals("objects", "read", data.getObjects().get("audit"));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
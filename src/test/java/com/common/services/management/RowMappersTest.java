@@ -0,0 +1,157 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.management.database.PermissionRowMapper;
+import com.common.services.management.beans.management.database.UserRowMapper;
+import com.common.services.management.beans.management.model.Permission;
+import com.common.services.management.beans.management.model.User;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+
+/**
+ * RowMappersTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Преобразование строк выборки объектами UserRowMapper и PermissionRowMapper
+ * на выборке-заглушке из 100 000 строк
+ */
+public class RowMappersTest
+{
+    private static final int ROWS = 100_000;
+    private static final String[] USER_COLUMNS = {"username", "user_id", "enabled", "email", "json_data", "ldap",
+            "roles"};
+    private static final String[] PERMISSION_COLUMNS = {"r_name", "p_id", "p_description", "p_path", "p_method"};
+
+    @Test
+    public void testUserRowMapper() throws SQLException
+    {
+        for (int pass = 0; pass < 2; pass++)
+        {
+            AtomicInteger lookups = new AtomicInteger();
+            // новый объект для каждого запроса
+            List<User> users = new RowMapperResultSetExtractor<>(new UserRowMapper())
+                    .extractData(stub(USER_COLUMNS, lookups));
+
+            assertEquals("rows", ROWS, users.size());
+            // индексы колонок определяются один раз для каждой выборки
+            assertEquals("column lookups", USER_COLUMNS.length, lookups.get());
+            User user = users.get(ROWS - 1);
+            assertEquals("id", ROWS - 1, user.getId());
+            assertEquals("name", "user" + (ROWS - 1), user.getName());
+            assertEquals("raw jsonData", "{\"lastName\":\"l" + (ROWS - 1) + "\"}", user.getRawJsonData());
+            assertEquals("roles", "ROLE_" + (ROWS - 1), user.getRoles().get(0).getName());
+            assertEquals("jsonData", "l" + (ROWS - 1), user.getJsonData().get("lastName"));
+        }
+    }
+
+    @Test
+    public void testPrefixedPermissionRowMapper() throws SQLException
+    {
+        AtomicInteger lookups = new AtomicInteger();
+        List<Permission> permissions = new RowMapperResultSetExtractor<>(new PermissionRowMapper("p_"))
+                .extractData(stub(PERMISSION_COLUMNS, lookups));
+
+        assertEquals("rows", ROWS, permissions.size());
+        assertEquals("column lookups", PERMISSION_COLUMNS.length, lookups.get());
+        Permission permission = permissions.get(7);
+        assertEquals("id", 7, permission.getId());
+        assertEquals("path", "/path/7", permission.getPath());
+        assertEquals("method", HttpMethod.GET, permission.getMethod());
+    }
+
+    /**
+     * Создает выборку-заглушку, значения строки вычисляются по номеру строки
+     * @param columns названия колонок
+     * @param lookups счетчик поиска колонок по названию и обращений к описанию выборки
+     * @return выборка
+     */
+    private static ResultSet stub(String[] columns, AtomicInteger lookups)
+    {
+        int[] row = {-1};
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(RowMappersTest.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getColumnCount":
+                    return columns.length;
+                case "getColumnLabel":
+                    return columns[(Integer) args[0] - 1];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return (ResultSet) Proxy.newProxyInstance(RowMappersTest.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "next":
+                    return ++row[0] < ROWS;
+                case "getMetaData":
+                    lookups.incrementAndGet();
+                    return metaData;
+                case "findColumn":
+                    lookups.incrementAndGet();
+                    for (int i = 0; i < columns.length; i++)
+                    {
+                        if (columns[i].equals(args[0]))
+                        {
+                            return i + 1;
+                        }
+                    }
+                    throw new SQLException("column " + args[0] + " not found");
+                case "getInt":
+                case "getBoolean":
+                case "getString":
+                    if (!(args[0] instanceof Integer))
+                    {
+                        throw new UnsupportedOperationException(method.getName() + " by label");
+                    }
+                    return value(columns[(Integer) args[0] - 1], row[0], method.getName());
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Object value(String column, int row, String getter)
+    {
+        switch (column)
+        {
+            case "user_id":
+            case "p_id":
+                return row;
+            case "enabled":
+            case "ldap":
+                return row % 2 == 0;
+            case "username":
+                return "user" + row;
+            case "email":
+                return null;
+            case "json_data":
+                return "{\"lastName\":\"l" + row + "\"}";
+            case "roles":
+                return "[{\"name\":\"ROLE_" + row + "\",\"description\":null,\"jsonData\":{}}]";
+            case "p_path":
+                return "/path/" + row;
+            case "p_method":
+                return "GET";
+            default:
+                return "getString".equals(getter) ? column + row : null;
+        }
+    }
+}
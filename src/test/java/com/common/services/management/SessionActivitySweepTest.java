@@ -0,0 +1,73 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.audit.database.SessionActivitySweep;
+import com.common.services.management.beans.audit.model.users.SessionActivity;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+
+/**
+ * SessionActivitySweepTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: vmeshkov
+ * Description: Расчет активности сессий по интервалам: количество сессий и пользователей в интервале,
+ * наибольшее количество одновременных сессий, сессии на границах интервалов и периода
+ */
+public class SessionActivitySweepTest
+{
+    private static final Instant FROM = Instant.parse("2026-10-01T00:00:00Z");
+    private static final Duration HOUR = Duration.ofHours(1);
+
+    @Test
+    public void testActivity()
+    {
+        SessionActivitySweep sweep = new SessionActivitySweep(FROM, FROM.plus(Duration.ofHours(3)), HOUR);
+        // началась до периода и закончилась в первом интервале
+        sweep.add("1", FROM.minus(HOUR), FROM.plusSeconds(600));
+        // пересекается с предыдущей, тот же пользователь
+        sweep.add("1", FROM.plusSeconds(300), FROM.plusSeconds(900));
+        // закончилась ровно в начале второго интервала
+        sweep.add("2", FROM.plusSeconds(1200), FROM.plus(HOUR));
+        // второй и третий интервалы
+        sweep.add("3", FROM.plus(HOUR).plusSeconds(1800), FROM.plus(Duration.ofHours(2)).plusSeconds(60));
+        // вне периода
+        sweep.add("4", FROM.plus(Duration.ofHours(4)), FROM.plus(Duration.ofHours(5)));
+
+        List<SessionActivity> activity = sweep.getActivity();
+        assertEquals("Интервалы", 3, activity.size());
+        assertActivity(activity.get(0), FROM, 3, 2, 2);
+        assertActivity(activity.get(1), FROM.plus(HOUR), 2, 2, 1);
+        assertActivity(activity.get(2), FROM.plus(Duration.ofHours(2)), 1, 1, 1);
+    }
+
+    @Test
+    public void testPeakAtSameTime()
+    {
+        SessionActivitySweep sweep = new SessionActivitySweep(FROM, FROM.plus(HOUR), HOUR);
+        // начало одной сессии совпадает с окончанием другой - сессии одновременны
+        sweep.add("1", FROM.plusSeconds(60), FROM.plusSeconds(120));
+        sweep.add("2", FROM.plusSeconds(120), FROM.plusSeconds(180));
+        sweep.add("3", FROM.plusSeconds(180), FROM.plusSeconds(180));
+        assertActivity(sweep.getActivity().get(0), FROM, 3, 3, 2);
+    }
+
+    @Test
+    public void testBucketCount()
+    {
+        assertEquals("Неполный последний интервал", 3,
+            SessionActivitySweep.getBucketCount(FROM, FROM.plus(Duration.ofMinutes(150)), HOUR));
+        assertEquals("Пустой период", 1, SessionActivitySweep.getBucketCount(FROM, FROM, HOUR));
+    }
+
+    private static void assertActivity(SessionActivity activity, Instant start, int sessions, int users, int peak)
+    {
+        assertEquals("Начало интервала", start, activity.getStartTime());
+        assertEquals("Сессии " + start, sessions, activity.getSessions());
+        assertEquals("Пользователи " + start, users, activity.getUsers());
+        assertEquals("Одновременные сессии " + start, peak, activity.getPeakSessions());
+    }
+}
@@ -0,0 +1,142 @@
+package com.common.services.management;
+
+import com.common.services.management.beans.management.model.User;
+import com.common.services.management.beans.management.snapshot.AuthSnapshotManager;
+import com.common.services.management.datasource.DataSourceManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.common.services.management.beans.management.service.UsersManagementService.FIRST_NAME;
+import static org.springframework.test.util.AssertionErrors.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * UserExportTest.java
+ * Date: 18 окт. 2026 г.
+ * Users: amatveev
+ * Description: Тестирование потоковой выгрузки пользователей (UsersManagementController). Тест запускается
+ * отдельной задачей exportTest с ограниченной памятью (см. build.gradle), поэтому выгрузка с накоплением
+ * всех пользователей в памяти завершится ошибкой
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ManagementApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class UserExportTest
+{
+    private final static String TABLE_USERS = "users";
+    private final static String TABLE_ROLES = "roles";
+    private final static String TABLE_PERMISSIONS = "permissions";
+    private final static String TABLE_USER_ROLES = "user_roles";
+    private final static String TABLE_ROLE_PERMISSIONS = "role_permissions";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
+
+    @Autowired
+    private AuthSnapshotManager authSnapshotManager;
+
+    @Autowired
+    public void setJdbcTempate(DataSourceManager dataManagement)
+    {
+        jdbcTemplate = new JdbcTemplate(dataManagement.getDataSource("auth"));
+    }
+
+    /**
+     * Тестирование потоковой выгрузки 1 000 000 пользователей в форматах ndjson и csv
+     * @throws Exception
+     */
+    @Test
+    public void testExportUsers() throws Exception
+    {
+        final int count = 1000000;
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        jdbcTemplate.update("INSERT INTO users (username, password, enabled, email, json_data) SELECT 'export_' || i, " +
+                "'', true, 'export_' || i || '@mail, inc', json_build_object('firstName', 'name ' || i) " +
+                "FROM generate_series(1, ?) AS i", count);
+        try
+        {
+            long[] lines = new long[1];
+            String[] first = new String[1];
+            restTemplate.execute("/users/export?format=ndjson", HttpMethod.GET, null, response ->
+            {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(),
+                        StandardCharsets.UTF_8)))
+                {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        if (lines[0]++ == 0)
+                        {
+                            first[0] = line;
+                        }
+                    }
+                }
+                return null;
+            });
+            assertEquals("Количество пользователей ndjson", (long) count, lines[0]);
+            User user = jsonMapper.readValue(first[0], User.class);
+            assertEquals("Пользователь ndjson", "export_1", user.getName());
+            assertEquals("Данные пользователя ndjson", "name 1", user.getJsonData().get(FIRST_NAME));
+
+            lines[0] = 0;
+            restTemplate.execute("/users/export?format=csv", HttpMethod.GET, null, response ->
+            {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(),
+                        StandardCharsets.UTF_8)))
+                {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        if (lines[0]++ == 1)
+                        {
+                            first[0] = line;
+                        }
+                    }
+                }
+                return null;
+            });
+            assertEquals("Количество строк csv", count + 1L, lines[0]);
+            // форматирование json_data зависит от типа колонки (json или jsonb), сравним разобранные данные
+            String row = first[0].substring(first[0].indexOf(',') + 1);
+            String prefix = "export_1,true,\"export_1@mail, inc\",false,";
+            assertEquals("Пользователь csv", prefix, row.substring(0, prefix.length()));
+            String jsonData = row.substring(prefix.length() + 1, row.length() - 1).replace("\"\"", "\"");
+            assertEquals("Данные пользователя csv", Collections.singletonMap(FIRST_NAME, "name 1"),
+                    jsonMapper.readValue(jsonData, Map.class));
+
+            mockMvc.perform(get("/users/export").param("format", "xml")).andExpect(status().isBadRequest());
+        }
+        finally
+        {
+            JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USERS);
+            authSnapshotManager.invalidate();
+        }
+    }
+}
@@ -1,24 +1,47 @@
 package com.common.services.management;
 
+import com.common.services.management.beans.management.database.LdapUserBatchSource;
+import com.common.services.management.beans.management.database.UsersManagementDao;
 import com.common.services.management.beans.management.model.*;
+import com.common.services.management.beans.management.service.UsersManagementService;
+import com.common.services.management.beans.management.snapshot.AuthChangeListener;
+import com.common.services.management.beans.management.snapshot.AuthDataChangedEvent;
+import com.common.services.management.beans.management.snapshot.AuthSnapshotManager;
 import com.common.services.management.datasource.DataSourceManager;
+import com.common.services.management.filters.UsersFilter;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.common.services.management.beans.management.service.UsersManagementService.*;
+import static java.util.stream.Collectors.toList;
 import static org.springframework.test.util.AssertionErrors.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -46,11 +69,24 @@ public class UserManagementApplicationTest
 
     @Autowired
     private MockMvc mockMvc;
+
     private JdbcTemplate jdbcTemplate;
     
     @Autowired
     private ObjectMapper jsonMapper;
 
+    @Autowired
+    private AuthSnapshotManager authSnapshotManager;
+
+    @Autowired
+    private AuthChangeListener authChangeListener;
+
+    @Autowired
+    private UsersManagementDao usersManagementDao;
+
+    @Autowired
+    private UsersManagementService usersManagementService;
+
     @Autowired
     public void setJdbcTempate(DataSourceManager dataManagement)
     {
@@ -318,6 +354,15 @@ public class UserManagementApplicationTest
         mockMvc.perform(get("/users").param("with_roles", String.valueOf(true))).andExpect(status().isOk()).andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)).andExpect(content().
                 json(json));
 
+        // Получение страницы списка пользователей с ролями по фильтру
+        UsersFilter filter = new UsersFilter();
+        filter.setUserIds(Collections.singletonList(user.getId()));
+        mockMvc.perform(post("/users/filter").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(filter)).param("with_roles", String.valueOf(true)).param("size", "1").param("sort", "username")).andExpect(status().isOk()).andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)).andExpect(content().
+                json(json));
+        filter.setIsIncludedUsers(false);
+        mockMvc.perform(post("/users/filter").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(filter)).param("with_roles", String.valueOf(true))).andExpect(status().isOk()).andExpect(content().
+                json("[]"));
+
         // Изменение ролей пользователя
         role = getTestRole();
         role.setName("ROLE_TEST2");
@@ -728,4 +773,684 @@ public class UserManagementApplicationTest
                 .andExpect(content().json(json));
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Тестирование получения полной информации о текущем пользователе и ее обновления после изменения
+     * ролей пользователя и пермиссий роли
+     * @throws Exception
+     */
+    @Test
+    public void testCurrentUser() throws Exception
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        // таблицы очищены в обход сервиса, сбросим снимок
+        authSnapshotManager.invalidate();
+
+        User user = getTestUser();
+        String userJson = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(user))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        user.setId(jsonMapper.readValue(userJson, User.class).getId());
+        user.setPassword(null);
+
+        Role role = getTestRole();
+        mockMvc.perform(post("/roles").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(role))).andExpect(status().isOk());
+        Permission permission = getTestPermission();
+        String permissionJson = mockMvc.perform(post("/permissions").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(permission))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        permission.setId(jsonMapper.readValue(permissionJson, Permission.class).getId());
+
+        // Пользователь без ролей
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+
+        // Назначение роли пользователю
+        RoleNameList roleNames = new RoleNameList();
+        roleNames.setRoles(Collections.singletonList(role.getName()));
+        mockMvc.perform(post("/roles").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(roleNames)).param("userid", user.getId().toString())).andExpect(status().isOk());
+        user.setRoles(Collections.singletonList(role));
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+
+        // Назначение пермиссии роли
+        PermissionIdList permissionIdList = new PermissionIdList();
+        permissionIdList.setIds(Collections.singletonList(permission.getId()));
+        mockMvc.perform(post("/permissions").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(permissionIdList)).param("role", role.getName())).andExpect(status().isOk());
+        role.setPermissions(Collections.singletonList(permission));
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+
+        // Изменение данных пользователя
+        user.setEmail("rename_email");
+        mockMvc.perform(put("/users/" + user.getId()).contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(user))).andExpect(status().isOk());
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+
+        // Удаление пользователя
+        mockMvc.perform(delete("/users/" + user.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isNotFound());
+    }
+
+    /**
+     * Тестирование получения пользователя с ролями и полной информации о пользователе одним SQL запросом
+     * @throws Exception
+     */
+    @Test
+    public void testFullUserSingleStatement() throws Exception
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        authSnapshotManager.invalidate();
+
+        User user = getTestUser();
+        String userJson = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(user))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        user.setId(jsonMapper.readValue(userJson, User.class).getId());
+        user.setPassword(null);
+        List<Role> roles = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            Role role = getTestRole();
+            role.setName(role.getName() + i);
+            mockMvc.perform(post("/roles").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(role))).andExpect(status().isOk());
+            Permission permission = getTestPermission();
+            permission.setPath(permission.getPath() + i);
+            String permissionJson = mockMvc.perform(post("/permissions").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(permission))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+            permission.setId(jsonMapper.readValue(permissionJson, Permission.class).getId());
+            PermissionIdList permissionIdList = new PermissionIdList();
+            permissionIdList.setIds(Collections.singletonList(permission.getId()));
+            mockMvc.perform(post("/permissions").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(permissionIdList)).param("role", role.getName())).andExpect(status().isOk());
+            role.setPermissions(Collections.singletonList(permission));
+            roles.add(role);
+        }
+        RoleNameList roleNames = new RoleNameList();
+        roleNames.setRoles(Arrays.asList(roles.get(0).getName(), roles.get(1).getName(), roles.get(2).getName()));
+        mockMvc.perform(post("/roles").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(roleNames)).param("userid", user.getId().toString())).andExpect(status().isOk());
+
+        Object dao = AopTestUtils.getUltimateTargetObject(usersManagementDao);
+        Object daoJdbcTemplate = ReflectionTestUtils.getField(dao, "jdbcTemplate");
+        AtomicInteger statements = new AtomicInteger();
+        ReflectionTestUtils.setField(dao, "jdbcTemplate",
+                new NamedParameterJdbcTemplate(countingDataSource(jdbcTemplate.getDataSource(), statements)));
+        ReflectionTestUtils.setField(authSnapshotManager, "enabled", false);
+        try
+        {
+            user.setRoles(roles);
+            assertEquals("Количество запросов полной информации о пользователе", 1, countStatements(statements,
+                    () -> mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                            json(jsonMapper.writeValueAsString(user)))));
+
+            assertEquals("Количество запросов пользователя с ролями", 1, countStatements(statements, () ->
+            {
+                User result = usersManagementService.getUser(user.getId());
+                assertEquals("Роли пользователя", Arrays.asList(roles.get(0).getName(), roles.get(1).getName(),
+                        roles.get(2).getName()), result.getRoles().stream().map(Role::getName).collect(toList()));
+                assertEquals("Пермиссии ролей", null, result.getRoles().get(0).getPermissions());
+            }));
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(authSnapshotManager, "enabled", true);
+            ReflectionTestUtils.setField(dao, "jdbcTemplate", daoJdbcTemplate);
+        }
+    }
+
+    /**
+     * Тестирование пакетной проверки доступа: без построенного снимка читается только проверяемый пользователь
+     * одним запросом, правила его набора ролей строятся один раз, после построения снимка запросы к БД не выполняются
+     * @throws Exception
+     */
+    @Test
+    public void testCheckAccess() throws Exception
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        authSnapshotManager.invalidate();
+
+        User user = getTestUser();
+        String userJson = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(user))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        user.setId(jsonMapper.readValue(userJson, User.class).getId());
+        Role role = getTestRole();
+        mockMvc.perform(post("/roles").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(role))).andExpect(status().isOk());
+        Permission permission = getTestPermission();
+        String permissionJson = mockMvc.perform(post("/permissions").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(permission))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        PermissionIdList permissionIdList = new PermissionIdList();
+        permissionIdList.setIds(Collections.singletonList(jsonMapper.readValue(permissionJson, Permission.class).getId()));
+        mockMvc.perform(post("/permissions").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(permissionIdList)).param("role", role.getName())).andExpect(status().isOk());
+        RoleNameList roleNames = new RoleNameList();
+        roleNames.setRoles(Collections.singletonList(role.getName()));
+        mockMvc.perform(post("/roles").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(roleNames)).param("userid", user.getId().toString())).andExpect(status().isOk());
+
+        String request = "{\"userId\":" + user.getId() + ",\"checks\":[" +
+                "{\"method\":\"GET\",\"path\":\"/path\"}," +
+                "{\"method\":\"POST\",\"path\":\"/path\"}," +
+                "{\"method\":\"GET\",\"path\":\"/other\"}]}";
+        String expected = "[{\"method\":\"GET\",\"path\":\"/path\",\"allowed\":true}," +
+                "{\"method\":\"POST\",\"path\":\"/path\",\"allowed\":false}," +
+                "{\"method\":\"GET\",\"path\":\"/other\",\"allowed\":false}]";
+
+        Object dao = AopTestUtils.getUltimateTargetObject(usersManagementDao);
+        Object daoJdbcTemplate = ReflectionTestUtils.getField(dao, "jdbcTemplate");
+        AtomicInteger statements = new AtomicInteger();
+        ReflectionTestUtils.setField(dao, "jdbcTemplate",
+                new NamedParameterJdbcTemplate(countingDataSource(jdbcTemplate.getDataSource(), statements)));
+        try
+        {
+            authSnapshotManager.invalidate();
+            assertEquals("Количество запросов без снимка", 1, countStatements(statements,
+                    () -> mockMvc.perform(post("/auth/check").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(request)).andExpect(status().isOk()).andExpect(content().json(expected, true))));
+            assertEquals("Снимок не построен", null, authSnapshotManager.getBuiltSnapshot());
+            // правила набора ролей построены один раз и сбрасываются при изменении пермиссий
+            Map<?, ?> accessRules = (Map<?, ?>) ReflectionTestUtils.getField(
+                    AopTestUtils.getUltimateTargetObject(authSnapshotManager), "accessRules");
+            assertEquals("Правила набора ролей", 1, accessRules.size());
+            assertEquals("Количество запросов с построенными правилами", 1, countStatements(statements,
+                    () -> mockMvc.perform(post("/auth/check").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(request)).andExpect(status().isOk()).andExpect(content().json(expected, true))));
+            authSnapshotManager.onAuthDataChanged(new AuthDataChangedEvent(AuthDataChangedEvent.Entity.ROLE_PERMISSIONS, null));
+            assertEquals("Правила сброшены", 0, accessRules.size());
+
+            authSnapshotManager.getSnapshot();
+            assertEquals("Количество запросов по снимку", 0, countStatements(statements,
+                    () -> mockMvc.perform(post("/auth/check").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(request)).andExpect(status().isOk()).andExpect(content().json(expected, true))));
+        }
+        finally
+        {
+            ReflectionTestUtils.setField(dao, "jdbcTemplate", daoJdbcTemplate);
+        }
+
+        mockMvc.perform(post("/auth/check").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(request.replace("\"userId\":" + user.getId(), "\"userId\":" + (user.getId() + 1000)))).andExpect(status().isNotFound());
+        mockMvc.perform(post("/auth/check").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content("{\"userId\":" + user.getId() + ",\"checks\":[]}")).andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Сравнение времени проверки доступа по снимку, по данным одного пользователя и с построением снимка.
+     * Выполняется при заданном количестве пользователей: -Dauth.benchmark.users=100000
+     * @throws Exception
+     */
+    @Test
+    public void checkAccessBenchmark() throws Exception
+    {
+        int users = Integer.getInteger("auth.benchmark.users", 0);
+        Assume.assumeTrue("Количество пользователей не задано", users > 0);
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        jdbcTemplate.execute("INSERT INTO roles (name) SELECT 'ROLE_' || r FROM generate_series(1, 20) r");
+        jdbcTemplate.execute("INSERT INTO permissions (method, path) SELECT 'GET', '/service' || p || '/{id}/items' " +
+                "FROM generate_series(1, 1000) p");
+        jdbcTemplate.execute("INSERT INTO role_permissions (role, id_permission) SELECT 'ROLE_' || (id % 20 + 1), id " +
+                "FROM permissions");
+        jdbcTemplate.execute("INSERT INTO users (username, password, enabled) SELECT 'user' || u, '', true " +
+                "FROM generate_series(1, " + users + ") u");
+        jdbcTemplate.execute("INSERT INTO user_roles (username, role) SELECT username, 'ROLE_' || (user_id % 20 + 1) " +
+                "FROM users UNION ALL SELECT username, 'ROLE_' || ((user_id + 7) % 20 + 1) FROM users");
+        int userId = jdbcTemplate.queryForObject("SELECT min(user_id) FROM users", Integer.class);
+        AccessCheck check = new AccessCheck();
+        check.setMethod(HttpMethod.GET);
+        check.setPath("/service1/42/items");
+        int calls = 1000;
+
+        authSnapshotManager.invalidate();
+        long start = System.nanoTime();
+        authSnapshotManager.getSnapshot();
+        long build = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+        {
+            usersManagementService.checkAccess(userId + i % users, Collections.singletonList(check));
+        }
+        long snapshot = System.nanoTime() - start;
+
+        authSnapshotManager.invalidate();
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+        {
+            usersManagementService.checkAccess(userId + i % users, Collections.singletonList(check));
+        }
+        long single = System.nanoTime() - start;
+
+        System.out.println(String.format("Проверка доступа, %d пользователей: построение снимка %.1f мс, " +
+                "проверка по снимку %.3f мс, проверка по данным пользователя %.3f мс", users, build / 1e6,
+                snapshot / 1e6 / calls, single / 1e6 / calls));
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        authSnapshotManager.invalidate();
+    }
+
+    /**
+     * Тестирование обновления снимка по уведомлению об изменении данных от другого узла сервиса
+     * @throws Exception
+     */
+    @Test
+    public void testRemoteChangeNotification() throws Exception
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        User user = getTestUser();
+        String userJson = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(user))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        user.setId(jsonMapper.readValue(userJson, User.class).getId());
+        user.setPassword(null);
+
+        // после подключения слушатель сбрасывает снимок, дождемся подключения
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!(Boolean) ReflectionTestUtils.getField(authChangeListener, "connected")
+                && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        authSnapshotManager.invalidate();
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+
+        // изменение данных другим узлом: снимок не изменился до получения уведомления
+        jdbcTemplate.update("UPDATE users SET email = 'remote_email' WHERE user_id = ?", user.getId());
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+
+        user.setEmail("remote_email");
+        jdbcTemplate.queryForList("SELECT pg_notify('auth_changes', ?)", String.format(
+                "{\"node\":\"remote\",\"entity\":\"USER\",\"key\":\"%d\",\"time\":%d}",
+                user.getId(), System.currentTimeMillis()));
+        deadline = System.currentTimeMillis() + 10000;
+        String email = null;
+        while (!user.getEmail().equals(email) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+            email = authSnapshotManager.getFullUserInfo(user.getId()).getEmail();
+        }
+        mockMvc.perform(get("/auth/currentUser").header("userId", user.getId())).andExpect(status().isOk()).andExpect(content().
+                json(jsonMapper.writeValueAsString(user)));
+    }
+
+    /**
+     * Тестирование постраничной выборки пользователей по токену продолжения
+     * @throws Exception
+     */
+    @Test
+    public void testUsersPageByToken() throws Exception
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        String[] firstNames = {"b", "a", "c", "a", "b", "a", "c"};
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < firstNames.length; i++)
+        {
+            User user = getTestUser();
+            user.setName(user.getName() + i);
+            user.getJsonData().put(FIRST_NAME, firstNames[i]);
+            String userJson = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(user))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+            users.add(jsonMapper.readValue(userJson, User.class));
+        }
+
+        // сортировка по id: сравнение строк ключей
+        assertEquals("Порядок пользователей по id", users.stream().map(User::getId).collect(toList()),
+                readUsersPages(null));
+
+        // сортировка по полю jsonData по убыванию и id по возрастанию
+        List<Integer> expected = users.stream()
+                                      .sorted(Comparator.comparing((User user) -> (String) user.getJsonData().get(FIRST_NAME)).reversed()
+                                                        .thenComparing(User::getId))
+                                      .map(User::getId)
+                                      .collect(toList());
+        assertEquals("Порядок пользователей по имени", expected, readUsersPages(FIRST_NAME + ",desc"));
+
+        // токен другой сортировки
+        String json = mockMvc.perform(post("/users/filter/cursor").contentType(MediaType.APPLICATION_JSON).param("size", "3")).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        mockMvc.perform(post("/users/filter/cursor").contentType(MediaType.APPLICATION_JSON).param("size", "3").param("sort", FIRST_NAME).param("token", jsonMapper.readValue(json, UsersPage.class).getNextToken())).andExpect(status().isBadRequest());
+        mockMvc.perform(post("/users/filter/cursor").contentType(MediaType.APPLICATION_JSON).param("size", "3").param("token", "invalid")).andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Сравнение времени выборки первой и 5000-й страницы по 20 пользователей со смещением и по токену продолжения
+     * при сортировке по id и по полю jsonData. Выполняется при заданном количестве пользователей
+     * не меньше 100 000: -Dusers.benchmark.rows=400000
+     * @throws Exception
+     */
+    @Test
+    public void usersPageBenchmark() throws Exception
+    {
+        int rows = Integer.getInteger("users.benchmark.rows", 0);
+        Assume.assumeTrue("Количество пользователей не задано", rows > 0);
+        final int size = 20;
+        final int page = 5000;
+        Assume.assumeTrue("Количество пользователей меньше " + size * page, rows >= size * page);
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        jdbcTemplate.update("INSERT INTO users (username, password, enabled, json_data) SELECT 'page_' || i, '', true, " +
+                "json_build_object('lastName', md5(i::text), 'firstName', 'name ' || i) " +
+                "FROM generate_series(1, ?) AS i", rows);
+        jdbcTemplate.execute("ANALYZE users");
+        try
+        {
+            for (Sort sort : Arrays.asList(Sort.unsorted(), Sort.by(LAST_NAME)))
+            {
+                String name = sort.isSorted() ? LAST_NAME : "id";
+                double offsetFirst = measure(() -> usersManagementService.getAllUsers(false, null,
+                        PageRequest.of(0, size, sort)));
+                double offsetLast = measure(() -> usersManagementService.getAllUsers(false, null,
+                        PageRequest.of(page - 1, size, sort)));
+
+                Pageable pageable = PageRequest.of(0, size, sort);
+                double keysetFirst = measure(() -> usersManagementService.getUsersPage(null, pageable, null));
+                String token = null;
+                for (int i = 1; i < page; i++)
+                {
+                    token = usersManagementService.getUsersPage(null, pageable, token).getNextToken();
+                }
+                String lastToken = token;
+                double keysetLast = measure(() -> usersManagementService.getUsersPage(null, pageable, lastToken));
+
+                System.out.println(String.format("Страницы пользователей, %d строк, сортировка %s: смещение - " +
+                        "страница 1 %.2f мс, страница %d %.2f мс; токен продолжения - страница 1 %.2f мс, " +
+                        "страница %d %.2f мс", rows, name, offsetFirst, page, offsetLast, keysetFirst, page, keysetLast));
+            }
+        }
+        finally
+        {
+            JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USERS);
+            authSnapshotManager.invalidate();
+        }
+    }
+
+    /**
+     * Возвращает среднее время выполнения после прогрева, мс
+     */
+    private static double measure(Action action) throws Exception
+    {
+        final int runs = 10;
+        action.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+        {
+            action.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+
+    private List<Integer> readUsersPages(String sort) throws Exception
+    {
+        List<Integer> ids = new ArrayList<>();
+        String token = null;
+        do
+        {
+            MockHttpServletRequestBuilder request = post("/users/filter/cursor").contentType(MediaType.APPLICATION_JSON).param("size", "3");
+            if (sort != null)
+            {
+                request.param("sort", sort);
+            }
+            if (token != null)
+            {
+                request.param("token", token);
+            }
+            String json = mockMvc.perform(request).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+            UsersPage page = jsonMapper.readValue(json, UsersPage.class);
+            page.getUsers().forEach(user -> ids.add(user.getId()));
+            token = page.getNextToken();
+        }
+        while (token != null);
+        return ids;
+    }
+
+    /**
+     * Тестирование планов запросов фильтрации и сортировки пользователей по полям jsonData после перевода в jsonb
+     * @throws Exception
+     */
+    @Test
+    public void testJsonbFilterPlans() throws Exception
+    {
+        // повторный перевод пропускает уже переведенные таблицы
+        ReflectionTestUtils.invokeMethod(AopTestUtils.getUltimateTargetObject(usersManagementDao), "executeSqlFromFile",
+                "/db_auth_migrate_jsonb.sql");
+        for (String table : Arrays.asList(TABLE_USERS, TABLE_ROLES, TABLE_PERMISSIONS))
+        {
+            assertEquals("Тип json_data " + table, "jsonb", jdbcTemplate.queryForObject("SELECT data_type FROM " +
+                    "information_schema.columns WHERE table_schema = current_schema() AND table_name = ? " +
+                    "AND column_name = 'json_data'", String.class, table));
+        }
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        jdbcTemplate.update("INSERT INTO users (username, password, enabled, json_data) SELECT 'jsonb_' || i, '', " +
+                "true, jsonb_build_object('firstName', 'name ' || i, 'lastName', 'last ' || i, 'middleName', " +
+                "'middle ' || (i % 1000), 'age', i % 100) FROM generate_series(1, 20000) AS i");
+        jdbcTemplate.execute("ANALYZE users");
+        try
+        {
+            // до: сравнение текста поля читает всю таблицу
+            assertPlan("json_data ->> 'middleName' IN ('middle 5')", "Seq Scan");
+            // после: условие вхождения использует GIN индекс
+            assertPlan("json_data @> '{\"middleName\": \"middle 5\"}'", "users_json_data_idx");
+            // сортировка по полю из auth.jsonb.sort-keys использует индексы по выражению
+            assertPlan("TRUE ORDER BY json_data ->> 'lastName' LIMIT 20", "users_json_lastname_idx");
+            assertPlan("(COALESCE(json_data ->> 'lastName', ''), user_id) > ('last 5', 0) " +
+                    "ORDER BY COALESCE(json_data ->> 'lastName', ''), user_id LIMIT 20", "users_json_lastname_seek_idx");
+
+            // фильтр сервиса: строки и числа сравниваются как текст, как и до перевода в jsonb
+            UsersFilter filter = new UsersFilter();
+            filter.setJsonDataFilters(Collections.singletonMap("middleName", Collections.singletonList("middle 5")));
+            assertEquals("Фильтр по строке", 20, readUsersByFilter(filter).size());
+            filter.setJsonDataFilters(Collections.singletonMap("age", Arrays.asList(5, "6")));
+            assertEquals("Фильтр по числу", 400, readUsersByFilter(filter).size());
+        }
+        finally
+        {
+            JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USERS);
+            authSnapshotManager.invalidate();
+        }
+    }
+
+    /**
+     * Тестирование синхронизации пользователей с LDAP набором запросов в одной транзакции
+     * @throws Exception
+     */
+    @Test
+    public void testSynchronizeLdapUsers() throws Exception
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS, TABLE_USERS,
+                TABLE_ROLES, TABLE_PERMISSIONS);
+        jdbcTemplate.update("INSERT INTO users(username, password, enabled, ldap) VALUES ('ldap_a', '', TRUE, TRUE), " +
+                "('ldap_b', '', FALSE, TRUE), ('local', '', TRUE, FALSE), ('ldap_gone', '', TRUE, TRUE), " +
+                "('local_gone', '', TRUE, FALSE)");
+
+        LdapSyncResult result = usersManagementService.updateUsersFromLdap(Arrays.asList("LDAP_A", "ldap_b", "local",
+                "new_user", " New_User "));
+        assertEquals("Добавлено", 1, result.getAdded());
+        assertEquals("Включено", 2, result.getEnabled());
+        assertEquals("Отключено", 1, result.getDisabled());
+
+        Map<String, String> users = new HashMap<>();
+        jdbcTemplate.query("SELECT username, enabled, ldap FROM users", (ResultSet rs) ->
+        {
+            users.put(rs.getString("username"), rs.getBoolean("enabled") + "/" + rs.getBoolean("ldap"));
+        });
+        Map<String, String> expected = new HashMap<>();
+        expected.put("ldap_a", "true/true");
+        expected.put("ldap_b", "true/true");
+        expected.put("local", "true/true");
+        expected.put("new_user", "true/true");
+        expected.put("ldap_gone", "false/true");
+        expected.put("local_gone", "true/false");
+        assertEquals("Пользователи после синхронизации", expected, users);
+
+        // повторная синхронизация ничего не меняет
+        result = usersManagementService.updateUsersFromLdap(Arrays.asList("ldap_a", "ldap_b", "local", "new_user"));
+        assertEquals("Повторная синхронизация", "added=0, enabled=0, disabled=0", result.toString());
+
+        // синхронизация измененных пользователей не закрывает доступ отсутствующим
+        result = usersManagementService.updateUsersFromLdap(consumer -> consumer.accept(Arrays.asList("ldap_gone",
+                "delta_user")), false);
+        assertEquals("Синхронизация DELTA", "added=1, enabled=1, disabled=0", result.toString());
+    }
+
+    /**
+     * Тестирование назначения ролей по LDAP группам при синхронизации: записываются только отличия
+     */
+    @Test
+    public void testSynchronizeLdapUserRoles()
+    {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, TABLE_LDAP_GROUP_ROLES, TABLE_USER_ROLES, TABLE_ROLE_PERMISSIONS,
+                TABLE_USERS, TABLE_ROLES, TABLE_PERMISSIONS);
+        jdbcTemplate.update("INSERT INTO roles(name) VALUES ('admin'), ('viewer'), ('operator'), ('manual')");
+        jdbcTemplate.update("INSERT INTO ldap_roles(ldap_group, role) VALUES ('admins', 'admin'), ('admins', 'viewer'), " +
+                "('cn=operators,ou=groups,dc=example,dc=com', 'operator')");
+        jdbcTemplate.update("INSERT INTO users(username, password, enabled, ldap) VALUES ('ldap_a', '', TRUE, TRUE), " +
+                "('ldap_c', '', TRUE, TRUE)");
+        jdbcTemplate.update("INSERT INTO user_roles(username, role) VALUES ('ldap_a', 'admin'), ('ldap_a', 'operator'), " +
+                "('ldap_a', 'manual'), ('ldap_c', 'operator')");
+
+        LdapUserBatchSource source = consumer -> consumer.accept(Arrays.asList(
+                new LdapUser("ldap_a", Collections.singletonList("CN=Admins,OU=Groups,DC=example,DC=com")),
+                new LdapUser("ldap_b", Collections.singletonList("cn=operators,ou=groups,dc=example,dc=com")),
+                new LdapUser("ldap_c", null)));
+        LdapSyncResult result = usersManagementService.synchronizeLdapUsers(source, false);
+        assertEquals("Назначено ролей", 2, result.getRolesAdded());
+        assertEquals("Снято ролей", 1, result.getRolesRemoved());
+        // удаление 2 ролей LDAP групп ldap_a и вставка 3 рассчитанных ролей
+        assertEquals("Изменений при удалении и повторном назначении", 5, result.getRolesRewritten());
+
+        Map<String, Set<String>> roles = new HashMap<>();
+        jdbcTemplate.query("SELECT username, role FROM user_roles", (ResultSet rs) ->
+        {
+            roles.computeIfAbsent(rs.getString("username"), key -> new TreeSet<>()).add(rs.getString("role"));
+        });
+        Map<String, Set<String>> expected = new HashMap<>();
+        expected.put("ldap_a", new TreeSet<>(Arrays.asList("admin", "manual", "viewer")));
+        expected.put("ldap_b", new TreeSet<>(Collections.singletonList("operator")));
+        expected.put("ldap_c", new TreeSet<>(Collections.singletonList("operator")));
+        assertEquals("Роли после синхронизации", expected, roles);
+
+        // повторная синхронизация не изменяет роли
+        result = usersManagementService.synchronizeLdapUsers(source, false);
+        assertEquals("Повторная синхронизация", 0, result.getRolesAdded() + result.getRolesRemoved());
+        assertEquals("Изменений при удалении и повторном назначении", 6, result.getRolesRewritten());
+    }
+
+    /**
+     * Тестирование сохранения отметки синхронизации с каталогом LDAP
+     */
+    @Test
+    public void testLdapSyncMark()
+    {
+        jdbcTemplate.update("DELETE FROM ldap_sync_state");
+        String directory = "ldap://localhost:389/dc=example,dc=com";
+        assertEquals("Отметки нет", null, usersManagementService.getLdapSyncMark(directory));
+
+        usersManagementService.saveLdapSyncMark(directory, "20261018120000Z", true);
+        assertEquals("Отметка полной синхронизации", "20261018120000Z", usersManagementService.getLdapSyncMark(directory));
+        usersManagementService.saveLdapSyncMark(directory, null, false);
+        assertEquals("Пустая отметка не изменяет сохраненную", "20261018120000Z",
+                usersManagementService.getLdapSyncMark(directory));
+        usersManagementService.saveLdapSyncMark(directory, "20261018130000Z", false);
+        assertEquals("Отметка синхронизации DELTA", "20261018130000Z", usersManagementService.getLdapSyncMark(directory));
+        assertEquals("Время полной синхронизации сохранено", 1, (int) jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM ldap_sync_state WHERE last_full_sync IS NOT NULL AND last_delta_sync IS NOT NULL",
+                Integer.class));
+    }
+
+    /**
+     * Синхронизация каталога, который синхронизирует другой узел (advisory блокировка удерживается
+     * другим соединением), пропускается без изменений пользователей и отметки
+     * @throws Exception
+     */
+    @Test
+    public void testLdapSyncDirectoryLock() throws Exception
+    {
+        jdbcTemplate.update("DELETE FROM ldap_sync_state");
+        String directory = "ldap://localhost:389/dc=example,dc=com";
+        LdapUserBatchSource source = consumer -> consumer.accept(Collections.singletonList(
+                new LdapUser("ldap_lock_user", null)));
+        String lock = "SELECT pg_advisory_lock(hashtext('ldap_sync:' || ?))";
+        String unlock = "SELECT pg_advisory_unlock(hashtext('ldap_sync:' || ?))";
+        try (Connection connection = jdbcTemplate.getDataSource().getConnection())
+        {
+            JdbcTemplate otherNode = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            otherNode.queryForObject(lock, Boolean.class, directory);
+            try
+            {
+                assertEquals("Каталог синхронизирует другой узел", null, usersManagementService
+                        .synchronizeLdapDirectory(directory, source, () -> "20261018120000Z", false));
+            }
+            finally
+            {
+                otherNode.queryForObject(unlock, Boolean.class, directory);
+            }
+        }
+        assertEquals("Отметка не сохранена", null, usersManagementService.getLdapSyncMark(directory));
+        assertEquals("Пользователь не добавлен", 0, (int) jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM users WHERE username = 'ldap_lock_user'", Integer.class));
+
+        try
+        {
+            LdapSyncResult result = usersManagementService.synchronizeLdapDirectory(directory, source,
+                    () -> "20261018120000Z", false);
+            assertEquals("Пользователь добавлен", 1, result.getAdded());
+            assertEquals("Отметка сохранена", "20261018120000Z", usersManagementService.getLdapSyncMark(directory));
+        }
+        finally
+        {
+            jdbcTemplate.update("DELETE FROM users WHERE username = 'ldap_lock_user'");
+            authSnapshotManager.invalidate();
+        }
+    }
+
+    private void assertPlan(String condition, String expected)
+    {
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN SELECT username, user_id, enabled, " +
+                "email, json_data, ldap FROM users WHERE " + condition, String.class));
+        assertEquals(plan, true, plan.contains(expected));
+    }
+
+    private List<User> readUsersByFilter(UsersFilter filter) throws Exception
+    {
+        String json = mockMvc.perform(post("/users/filter").contentType(MediaType.APPLICATION_JSON).characterEncoding(UTF8).content(jsonMapper.writeValueAsString(filter)).param("size", "1000")).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return Arrays.asList(jsonMapper.readValue(json, User[].class));
+    }
+
+    private interface Action
+    {
+        void run() throws Exception;
+    }
+
+    private int countStatements(AtomicInteger statements, Action action) throws Exception
+    {
+        statements.set(0);
+        action.run();
+        return statements.get();
+    }
+
+    /**
+     * Возвращает источник данных, считающий подготовленные соединениями SQL запросы
+     */
+    private DataSource countingDataSource(DataSource dataSource, AtomicInteger statements)
+    {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+                (dsProxy, dsMethod, dsArgs) ->
+                {
+                    Object result = invoke(dataSource, dsMethod, dsArgs);
+                    if (!(result instanceof Connection))
+                    {
+                        return result;
+                    }
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                            (proxy, method, args) ->
+                            {
+                                String name = method.getName();
+                                if (name.equals("prepareStatement") || name.equals("createStatement")
+                                        || name.equals("prepareCall"))
+                                {
+                                    statements.incrementAndGet();
+                                }
+                                return invoke(connection, method, args);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+}